@@ -1266,13 +1266,29 @@ class BundleImpl implements Bundle, BundleRevisions
         Map headerMap = Util.getMultiReleaseAwareManifestHeaders(
             getFramework()._getProperty("java.specification.version"), m_archive.getCurrentRevision());
 
+        // Use the parsed manifest cache of the revision if it is enabled.
+        File manifestCache = getFramework().isManifestCacheEnabled()
+            ? new File(m_archive.getCurrentRevision().getRevisionRootDir(),
+                ParsedManifest.MANIFEST_CACHE_FILE)
+            : null;
+
         // Create the bundle revision instance.
         BundleRevisionImpl revision = new BundleRevisionImpl(
             this,
             Long.toString(getBundleId())
                 + "." + m_archive.getCurrentRevisionNumber().toString(),
             headerMap,
-            m_archive.getCurrentRevision().getContent());
+            m_archive.getCurrentRevision().getContent(),
+            manifestCache);
+
+        // Let the class preloader know where the class list of the
+        // revision is stored, if preloading is enabled.
+        if (getFramework().getClassPreloader() != null)
+        {
+            getFramework().getClassPreloader().addRevision(revision,
+                new File(m_archive.getCurrentRevision().getRevisionRootDir(),
+                    ClassPreloader.CLASS_LIST_FILE));
+        }
 
         // For R4 bundles, verify that the bundle symbolic name + version
         // is unique unless this check has been disabled.
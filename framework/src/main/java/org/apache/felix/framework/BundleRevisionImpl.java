@@ -19,12 +19,17 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.util.CaseInsensitiveMap;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.MapInterner;
 import org.apache.felix.framework.util.MultiReleaseContent;
+import org.apache.felix.framework.util.NamespaceIndex;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Version;
@@ -36,6 +41,7 @@ import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -63,6 +69,9 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     private final List<BundleCapability> m_declaredCaps;
     private final List<BundleRequirement> m_declaredReqs;
+    // Declared capabilities and requirements by namespace, created lazily.
+    private volatile NamespaceIndex<BundleCapability> m_declaredCapIndex;
+    private volatile NamespaceIndex<BundleRequirement> m_declaredReqIndex;
     private final List<NativeLibrary> m_declaredNativeLibs;
     private final int m_declaredActivationPolicy;
     private final List<String> m_activationIncludes;
@@ -105,41 +114,105 @@ public class BundleRevisionImpl implements BundleRevision, Resource
     }
 
     BundleRevisionImpl(
-        BundleImpl bundle, String id, Map<String, Object> headerMap, Content content)
+        BundleImpl bundle, String id, Map<String, Object> headerMap, Content content,
+        File manifestCache)
         throws BundleException
     {
         m_bundle = bundle;
         m_id = id;
-        m_headerMap = headerMap;
+        m_headerMap = new CaseInsensitiveMap(headerMap);
         m_content = content;
 
-        ManifestParser mp = new ManifestParser(
-            bundle.getFramework().getLogger(),
-            bundle.getFramework().getConfig(),
-            this,
-            m_headerMap);
+        // Use the previously parsed metadata if it was stored for the same
+        // headers, otherwise parse the headers and store the result.
+        long key = 0;
+        ParsedManifest pm = null;
+        if (manifestCache != null)
+        {
+            key = ParsedManifest.getKey(
+                bundle.getFramework()._getProperty(FelixConstants.FELIX_VERSION_PROPERTY),
+                m_headerMap);
+            pm = ParsedManifest.load(
+                bundle.getFramework().getLogger(), manifestCache, key, this);
+        }
+        if (pm == null)
+        {
+            // Record the warnings of the parser, so that they can be logged
+            // again when the stored metadata is used.
+            ParsedManifest.WarningRecorder recorder = (manifestCache != null)
+                ? new ParsedManifest.WarningRecorder(bundle.getFramework().getLogger())
+                : null;
+            ManifestParser mp = new ManifestParser(
+                (recorder != null) ? recorder : bundle.getFramework().getLogger(),
+                bundle.getFramework().getConfig(),
+                this,
+                m_headerMap);
+            m_declaredNativeLibs = mp.getLibraries();
+            pm = (recorder != null)
+                ? new ParsedManifest(mp, recorder.getWarnings())
+                : new ParsedManifest(mp);
+            if ((manifestCache != null) && pm.isStorable(m_headerMap))
+            {
+                pm.store(bundle.getFramework().getLogger(), manifestCache, key);
+            }
+        }
+        else
+        {
+            m_declaredNativeLibs = null;
+            for (String warning : pm.getWarnings())
+            {
+                bundle.getFramework().getLogger().log(Logger.LOG_WARNING, warning);
+            }
+        }
 
         // Record some of the parsed metadata. Note, if this is an extension
         // bundle it's exports are removed, since they will be added to the
         // system bundle directly later on.
 
-        m_isExtension = mp.isExtension();
-        m_manifestVersion = mp.getManifestVersion();
-        m_version = mp.getBundleVersion();
-        m_declaredCaps = mp.getCapabilities();
-        m_declaredReqs = mp.getRequirements();
-        m_declaredNativeLibs = mp.getLibraries();
-        m_declaredActivationPolicy = mp.getActivationPolicy();
-        m_activationExcludes = (mp.getActivationExcludeDirective() == null)
+        m_isExtension = pm.isExtension();
+        m_manifestVersion = pm.getManifestVersion();
+        m_version = pm.getBundleVersion();
+        // Share equal directives and attributes with other revisions.
+        MapInterner interner = bundle.getFramework().getMapInterner();
+        m_declaredCaps = internCapabilities(pm.getCapabilities(), interner);
+        m_declaredReqs = internRequirements(pm.getRequirements(), interner);
+        m_declaredActivationPolicy = pm.getActivationPolicy();
+        m_activationExcludes = (pm.getActivationExcludeDirective() == null)
             ? null
-            : ManifestParser.parseDelimitedString(mp.getActivationExcludeDirective(), ",");
-        m_activationIncludes = (mp.getActivationIncludeDirective() == null)
+            : ManifestParser.parseDelimitedString(pm.getActivationExcludeDirective(), ",");
+        m_activationIncludes = (pm.getActivationIncludeDirective() == null)
             ? null
-            : ManifestParser.parseDelimitedString(mp.getActivationIncludeDirective(), ",");
-        m_symbolicName = mp.getSymbolicName();
+            : ManifestParser.parseDelimitedString(pm.getActivationIncludeDirective(), ",");
+        m_symbolicName = pm.getSymbolicName();
         m_isFragment = m_headerMap.containsKey(Constants.FRAGMENT_HOST);
     }
 
+    private static List<BundleCapability> internCapabilities(
+        List<BundleCapability> caps, MapInterner interner)
+    {
+        List<BundleCapability> result = new ArrayList<BundleCapability>(caps.size());
+        for (BundleCapability cap : caps)
+        {
+            result.add((cap.getClass() == BundleCapabilityImpl.class)
+                ? new BundleCapabilityImpl((BundleCapabilityImpl) cap, interner)
+                : cap);
+        }
+        return result;
+    }
+
+    private static List<BundleRequirement> internRequirements(
+        List<BundleRequirement> reqs, MapInterner interner)
+    {
+        List<BundleRequirement> result = new ArrayList<BundleRequirement>(reqs.size());
+        for (BundleRequirement req : reqs)
+        {
+            result.add((req.getClass() == BundleRequirementImpl.class)
+                ? new BundleRequirementImpl((BundleRequirementImpl) req, interner)
+                : req);
+        }
+        return result;
+    }
+
     static SecureAction getSecureAction()
     {
         return m_secureAction;
@@ -205,19 +278,17 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     public List<BundleCapability> getDeclaredCapabilities(String namespace)
     {
-        List<BundleCapability> result = m_declaredCaps;
-        if (namespace != null)
+        if (namespace == null)
         {
-            result = new ArrayList<BundleCapability>();
-            for (BundleCapability cap : m_declaredCaps)
-            {
-                if (cap.getNamespace().equals(namespace))
-                {
-                    result.add(cap);
-                }
-            }
+            return m_declaredCaps;
         }
-        return result;
+        NamespaceIndex<BundleCapability> index = m_declaredCapIndex;
+        if (index == null)
+        {
+            index = NamespaceIndex.forCapabilities(m_declaredCaps);
+            m_declaredCapIndex = index;
+        }
+        return index.get(namespace);
     }
 
     public List<Requirement> getRequirements(String namespace)
@@ -232,19 +303,17 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     public List<BundleRequirement> getDeclaredRequirements(String namespace)
     {
-        List<BundleRequirement> result = m_declaredReqs;
-        if (namespace != null)
+        if (namespace == null)
         {
-            result = new ArrayList<BundleRequirement>();
-            for (BundleRequirement req : m_declaredReqs)
-            {
-                if (req.getNamespace().equals(namespace))
-                {
-                    result.add(req);
-                }
-            }
+            return m_declaredReqs;
         }
-        return result;
+        NamespaceIndex<BundleRequirement> index = m_declaredReqIndex;
+        if (index == null)
+        {
+            index = NamespaceIndex.forRequirements(m_declaredReqs);
+            m_declaredReqIndex = index;
+        }
+        return index.get(namespace);
     }
 
     public int getTypes()
@@ -317,6 +386,13 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             }
 
             m_wiring = wiring;
+
+            // Load the classes recorded during a previous run, if enabled.
+            ClassPreloader preloader = ((BundleImpl) m_bundle).getFramework().getClassPreloader();
+            if (preloader != null)
+            {
+                preloader.preload(wiring);
+            }
         }
     }
 
@@ -669,6 +745,11 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             ((BundleImpl) m_bundle).getFramework().getLogger().log(
                 Logger.LOG_ERROR, "Error releasing revision: " + ex.getMessage(), ex);
         }
+        ClassPreloader preloader = ((BundleImpl) m_bundle).getFramework().getClassPreloader();
+        if (preloader != null)
+        {
+            preloader.removeRevision(this);
+        }
         m_content.close();
         m_content = null;
         for (int i = 0; (m_contentPath != null) && (i < m_contentPath.size()); i++)
@@ -19,10 +19,13 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.cache.MappedJarContent;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.ResourceNotFoundException;
 import org.apache.felix.framework.util.CompoundEnumeration;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.NamespaceIndex;
 import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
@@ -56,6 +59,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -68,6 +72,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +80,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BundleWiringImpl implements BundleWiring
 {
@@ -108,6 +114,9 @@ public class BundleWiringImpl implements BundleWiring
     private final Map<String, List<List<String>>> m_includedPkgFilters;
     private final Map<String, List<List<String>>> m_excludedPkgFilters;
     private final List<BundleRequirement> m_resolvedReqs;
+    // Resolved capabilities and requirements by namespace, created lazily.
+    private volatile NamespaceIndex<BundleCapability> m_resolvedCapIndex;
+    private volatile NamespaceIndex<BundleRequirement> m_resolvedReqIndex;
     private final List<NativeLibrary> m_resolvedNativeLibs;
     private final List<Content> m_fragmentContents;
 
@@ -172,6 +181,19 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Bounded cache of class and resource names which could not be found
+    // in a resolver generation, or null if disabled.
+    private final NegativeCache m_negativeCache;
+    // Packages containing classes in the content path, or null if the
+    // content path may change.
+    private volatile Set<String> m_localPkgs;
+    private volatile boolean m_localPkgsIndexed = false;
+
+    // Counters for the effectiveness of the lookup caches.
+    private final AtomicLong m_negativeCacheHits = new AtomicLong();
+    private final AtomicLong m_negativeCacheMisses = new AtomicLong();
+    private final AtomicLong m_localIndexSkips = new AtomicLong();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -463,6 +485,22 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int negativeCacheSize = 256;
+        Object size = m_configMap.get(FelixConstants.NEGATIVE_CACHE_SIZE_PROP);
+        if (size != null)
+        {
+            try
+            {
+                negativeCacheSize = Integer.parseInt(size.toString().trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Use the default.
+            }
+        }
+        m_negativeCache = (negativeCacheSize > 0)
+            ? new NegativeCache(negativeCacheSize) : null;
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -502,6 +540,7 @@ public class BundleWiringImpl implements BundleWiring
         m_classLoader = null;
         m_isDisposed = true;
         m_accessorLookupCache = null;
+        clearNegativeCache();
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -552,19 +591,17 @@ public class BundleWiringImpl implements BundleWiring
     {
         if (isInUse())
         {
-            List<BundleCapability> result = m_resolvedCaps;
-            if (namespace != null)
+            if (namespace == null)
             {
-                result = new ArrayList<BundleCapability>();
-                for (BundleCapability cap : m_resolvedCaps)
-                {
-                    if (cap.getNamespace().equals(namespace))
-                    {
-                        result.add(cap);
-                    }
-                }
+                return m_resolvedCaps;
             }
-            return result;
+            NamespaceIndex<BundleCapability> index = m_resolvedCapIndex;
+            if (index == null)
+            {
+                index = NamespaceIndex.forCapabilities(m_resolvedCaps);
+                m_resolvedCapIndex = index;
+            }
+            return index.get(namespace);
         }
         return null;
     }
@@ -591,7 +628,17 @@ public class BundleWiringImpl implements BundleWiring
                 result = searchReqs;
             }
 
-            if (namespace != null)
+            if ((namespace != null) && (wovenReqs == null))
+            {
+                NamespaceIndex<BundleRequirement> index = m_resolvedReqIndex;
+                if (index == null)
+                {
+                    index = NamespaceIndex.forRequirements(m_resolvedReqs);
+                    m_resolvedReqIndex = index;
+                }
+                result = index.get(namespace);
+            }
+            else if (namespace != null)
             {
                 result = new ArrayList<BundleRequirement>();
                 for (BundleRequirement req : searchReqs)
@@ -677,6 +724,7 @@ public class BundleWiringImpl implements BundleWiring
                     wire.getProviderWiring().getRevision());
 
             m_importedPkgs = importedPkgs;
+            clearNegativeCache();
         }
         // Update associated member values.
         // Technically, there is a window here where readers won't see
@@ -1542,6 +1590,18 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
+                // If the search is known to fail in the current resolver
+                // generation, then only implicit boot delegation is left,
+                // since it depends on the caller.
+                String negativeKey = isNegativeCacheable(pkgName)
+                    ? (isClass ? "c:" : "r:") + name : null;
+                long generation = (negativeKey != null) ? m_resolver.getGeneration() : -1;
+                if ((negativeKey != null) && isNegativeCached(negativeKey, generation))
+                {
+                    m_negativeCacheHits.incrementAndGet();
+                    return tryImplicitBootDelegation(name, isClass);
+                }
+
                 // Look in the revision's imports. Note that the search may
                 // be aborted if this method throws an exception, otherwise
                 // it continues if a null is returned.
@@ -1562,7 +1622,16 @@ public class BundleWiringImpl implements BundleWiring
                                             + m_revision.getSymbolicName()
                                             + " is no longer valid.");
                         }
-                        result = ((BundleClassLoader) cl).findClass(name);
+                        // Skip the content path if it has no such package.
+                        Set<String> localPkgs = getLocalPackages();
+                        if ((localPkgs != null) && !localPkgs.contains(pkgName))
+                        {
+                            m_localIndexSkips.incrementAndGet();
+                        }
+                        else
+                        {
+                            result = ((BundleClassLoader) cl).findClass(name);
+                        }
                     }
                     else
                     {
@@ -1572,7 +1641,8 @@ public class BundleWiringImpl implements BundleWiring
                     // If still not found, then try the revision's dynamic imports.
                     if (result == null)
                     {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        result = searchDynamicImports(
+                            pkgName, name, isClass, negativeKey, generation);
                     }
                 }
             }
@@ -1663,7 +1733,8 @@ public class BundleWiringImpl implements BundleWiring
     }
 
     private Object searchDynamicImports(
-            final String pkgName, final String name, final boolean isClass)
+            final String pkgName, final String name, final boolean isClass,
+            String negativeKey, long generation)
                     throws ClassNotFoundException, ResourceNotFoundException
     {
         // At this point, the module's imports were searched and so was the
@@ -1696,9 +1767,126 @@ public class BundleWiringImpl implements BundleWiring
                             : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
         }
 
+        // Remember that the search failed, unless the resolver state
+        // cannot be tracked.
+        if ((negativeKey != null) && (generation >= 0))
+        {
+            m_negativeCacheMisses.incrementAndGet();
+            synchronized (m_negativeCache)
+            {
+                m_negativeCache.put(negativeKey, generation);
+            }
+        }
+
         return tryImplicitBootDelegation(name, isClass);
     }
 
+    /**
+     * The negative cache is only used for packages which are neither imported
+     * nor required, since their lookups delegate to other wirings with their
+     * own caches, and only if the content path cannot change.
+    **/
+    private boolean isNegativeCacheable(String pkgName)
+    {
+        return (m_negativeCache != null)
+            && !m_importedPkgs.containsKey(pkgName)
+            && !m_requiredPkgs.containsKey(pkgName)
+            && (getLocalPackages() != null);
+    }
+
+    private boolean isNegativeCached(String key, long generation)
+    {
+        if (generation < 0)
+        {
+            return false;
+        }
+        synchronized (m_negativeCache)
+        {
+            Long cached = m_negativeCache.get(key);
+            if ((cached != null) && (cached.longValue() != generation))
+            {
+                m_negativeCache.remove(key);
+                cached = null;
+            }
+            return (cached != null);
+        }
+    }
+
+    private void clearNegativeCache()
+    {
+        if (m_negativeCache != null)
+        {
+            synchronized (m_negativeCache)
+            {
+                m_negativeCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the packages containing classes in the content path, which
+     * is calculated once if the content path only consists of JAR files.
+     * @return the packages or <tt>null</tt> if the content path may change.
+    **/
+    private Set<String> getLocalPackages()
+    {
+        if (!m_localPkgsIndexed)
+        {
+            Set<String> pkgs = new HashSet<String>();
+            List<Content> contentPath = m_revision.getContentPath();
+            for (int i = 0; (pkgs != null) && (contentPath != null)
+                && (i < contentPath.size()); i++)
+            {
+                Content content = contentPath.get(i);
+                if (!(content instanceof JarContent))
+                {
+                    pkgs = null;
+                    break;
+                }
+                Enumeration<String> e = content.getEntries();
+                while ((e != null) && e.hasMoreElements())
+                {
+                    String entry = e.nextElement();
+                    if (entry.endsWith(".class"))
+                    {
+                        int idx = entry.lastIndexOf('/');
+                        pkgs.add((idx < 0) ? "" : entry.substring(0, idx).replace('/', '.'));
+                    }
+                }
+            }
+            m_localPkgs = (contentPath == null) ? null : pkgs;
+            m_localPkgsIndexed = true;
+        }
+        return m_localPkgs;
+    }
+
+    /**
+     * Returns the number of class and resource lookups which were answered
+     * by the negative cache.
+    **/
+    public long getNegativeCacheHits()
+    {
+        return m_negativeCacheHits.get();
+    }
+
+    /**
+     * Returns the number of class and resource lookups which failed and were
+     * added to the negative cache.
+    **/
+    public long getNegativeCacheMisses()
+    {
+        return m_negativeCacheMisses.get();
+    }
+
+    /**
+     * Returns the number of class lookups which skipped the content path,
+     * since it does not contain the package of the class.
+    **/
+    public long getLocalIndexSkips()
+    {
+        return m_localIndexSkips.get();
+    }
+
     private Object tryImplicitBootDelegation(final String name, final boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
@@ -1894,6 +2082,27 @@ public class BundleWiringImpl implements BundleWiring
         return true;
     }
 
+    /**
+     * A map which evicts its least recently used entry once it holds more
+     * than the maximum number of entries.
+    **/
+    private static class NegativeCache extends LinkedHashMap<String, Long>
+    {
+        private final int m_maxSize;
+
+        NegativeCache(int maxSize)
+        {
+            super(16, 0.75f, true);
+            m_maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+        {
+            return size() > m_maxSize;
+        }
+    }
+
     static class ToLocalUrlEnumeration implements Enumeration
     {
         final Enumeration m_enumeration;
@@ -2039,19 +2248,29 @@ public class BundleWiringImpl implements BundleWiring
                 String actual = name.replace('.', '/') + ".class";
 
                 byte[] bytes = null;
+                ByteBuffer buffer = null;
 
-                // Check the bundle class path.
+                // Check the bundle class path. Classes of mapped JAR files
+                // are defined directly from the mapped file unless they
+                // are woven.
                 List<Content> contentPath = m_wiring.m_revision.getContentPath();
                 Content content = null;
                 for (int i = 0;
-                        (bytes == null) &&
+                        (bytes == null) && (buffer == null) &&
                         (i < contentPath.size()); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
                     content = contentPath.get(i);
+                    if (content instanceof MappedJarContent)
+                    {
+                        buffer = ((MappedJarContent) content).getEntryAsByteBuffer(actual);
+                    }
+                    else
+                    {
+                        bytes = content.getEntryAsBytes(actual);
+                    }
                 }
 
-                if (bytes != null)
+                if ((bytes != null) || (buffer != null))
                 {
                     // Get package name.
                     String pkgName = Util.getClassPackage(name);
@@ -2065,12 +2284,24 @@ public class BundleWiringImpl implements BundleWiring
                     // the error handling.
                     Felix felix = m_wiring.m_revision.getBundle().getFramework();
 
+                    StartupProfilerImpl profiler = felix.getStartupProfiler();
+                    long start = (profiler != null) ? System.nanoTime() : 0;
+                    int length = (bytes != null) ? bytes.length : buffer.remaining();
+
                     Set<ServiceReference<WeavingHook>> hooks =
                             felix.getHookRegistry().getHooks(WeavingHook.class);
 
                     Set<ServiceReference<WovenClassListener>> wovenClassListeners =
                             felix.getHookRegistry().getHooks(WovenClassListener.class);
 
+                    // Weaving hooks need the class bytes as an array.
+                    if ((buffer != null) && !hooks.isEmpty())
+                    {
+                        bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        buffer = null;
+                    }
+
                     WovenClassImpl wci = null;
                     if (!hooks.isEmpty())
                     {
@@ -2093,8 +2324,8 @@ public class BundleWiringImpl implements BundleWiring
 
                     try
                     {
-                        clazz = isParallel() ? defineClassParallel(name, felix, wovenClassListeners, wci, bytes, content, pkgName) :
-                            defineClassNotParallel(name, felix, wovenClassListeners, wci, bytes, content, pkgName);
+                        clazz = isParallel() ? defineClassParallel(name, felix, wovenClassListeners, wci, bytes, buffer, content, pkgName) :
+                            defineClassNotParallel(name, felix, wovenClassListeners, wci, bytes, buffer, content, pkgName);
                     }
                     catch (ClassFormatError e)
                     {
@@ -2105,6 +2336,15 @@ public class BundleWiringImpl implements BundleWiring
                         }
                         throw e;
                     }
+                    if (profiler != null)
+                    {
+                        profiler.classDefined(m_wiring.m_revision.getBundle(),
+                            length, System.nanoTime() - start);
+                    }
+                    if (felix.getClassPreloader() != null)
+                    {
+                        felix.getClassPreloader().classDefined(m_wiring.m_revision, name);
+                    }
 
                     // Perform deferred activation without holding the class loader lock,
                     // if the class we are returning is the instigating class.
@@ -2141,7 +2381,7 @@ public class BundleWiringImpl implements BundleWiring
         }
 
         Class defineClassParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
-            Content content, String pkgName) throws ClassFormatError
+            ByteBuffer buffer, Content content, String pkgName) throws ClassFormatError
         {
             Class clazz = null;
 
@@ -2160,7 +2400,7 @@ public class BundleWiringImpl implements BundleWiring
                     if (clazz == null)
                     {
                         clazz = defineClass(felix, wovenClassListeners, wci, name,
-                            bytes, content, pkgName);
+                            bytes, buffer, content, pkgName);
                     }
                 }
                 finally
@@ -2172,7 +2412,7 @@ public class BundleWiringImpl implements BundleWiring
         }
 
         Class defineClassNotParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
-            Content content, String pkgName) throws ClassFormatError
+            ByteBuffer buffer, Content content, String pkgName) throws ClassFormatError
         {
             Class clazz = findLoadedClass(name);
 
@@ -2184,7 +2424,7 @@ public class BundleWiringImpl implements BundleWiring
                     if (clazz == null)
                     {
                         clazz = defineClass(felix, wovenClassListeners, wci, name,
-                            bytes, content, pkgName);
+                            bytes, buffer, content, pkgName);
                     }
                 }
             }
@@ -2193,7 +2433,8 @@ public class BundleWiringImpl implements BundleWiring
 
         Class defineClass(Felix felix,
             Set<ServiceReference<WovenClassListener>> wovenClassListeners,
-            WovenClassImpl wci, String name, byte[] bytes, Content content, String pkgName)
+            WovenClassImpl wci, String name, byte[] bytes, ByteBuffer buffer,
+            Content content, String pkgName)
             throws ClassFormatError
         {
             // If we have a woven class then get the class bytes from
@@ -2272,6 +2513,7 @@ public class BundleWiringImpl implements BundleWiring
                             allWovenReqs.addAll(0, m_wiring.m_wovenReqs);
                         }
                         m_wiring.m_wovenReqs = allWovenReqs;
+                        m_wiring.clearNegativeCache();
                     }
                 }
             }
@@ -2339,7 +2581,12 @@ public class BundleWiringImpl implements BundleWiring
             // If we have a security context, then use it to
             // define the class with it for security purposes,
             // otherwise define the class without a protection domain.
-            if (m_wiring.m_revision.getProtectionDomain() != null)
+            if (buffer != null)
+            {
+                clazz = defineClass(name, buffer,
+                    m_wiring.m_revision.getProtectionDomain());
+            }
+            else if (m_wiring.m_revision.getProtectionDomain() != null)
             {
                 clazz = defineClass(name, bytes, 0, bytes.length,
                     m_wiring.m_revision.getProtectionDomain());
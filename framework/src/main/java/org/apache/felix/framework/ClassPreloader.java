@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.framework.util.Util;
+
+/**
+ * Loads the classes a bundle revision defined during a previous run in the
+ * background once the revision is resolved, so that the first requests
+ * after startup do not pay for reading, defining and verifying them. The
+ * names of the classes defined by the class loader of each revision are
+ * recorded while the framework runs and stored in the revision directory
+ * of the bundle cache when the revision is closed. Classes are loaded by
+ * a pool of low priority daemon threads, without being initialized, and
+ * revisions with a lazy activation policy are skipped since loading one
+ * of their classes would activate them.
+ * <p>
+ * Revisions resolved during startup are only preloaded once the framework
+ * has started, so that their classes are not defined before the weaving
+ * hooks of bundles started later on had a chance to be registered.
+**/
+class ClassPreloader
+{
+    static final String CLASS_LIST_FILE = "classes.list";
+
+    // Number of classes loaded by a single task.
+    private static final int BATCH_SIZE = 32;
+
+    private final Logger m_logger;
+    private final int m_parallelism;
+    // The class list file of each known revision.
+    private final ConcurrentMap<BundleRevisionImpl, File> m_files =
+        new ConcurrentHashMap<BundleRevisionImpl, File>();
+    // The names of the classes each revision defined during this run.
+    private final ConcurrentMap<BundleRevisionImpl, Set<String>> m_defined =
+        new ConcurrentHashMap<BundleRevisionImpl, Set<String>>();
+    private final AtomicLong m_preloaded = new AtomicLong();
+    private ThreadPoolExecutor m_executor = null;
+    // The wirings resolved before the framework has started.
+    private List<BundleWiringImpl> m_pending = new ArrayList<BundleWiringImpl>();
+
+    ClassPreloader(Logger logger, int parallelism)
+    {
+        m_logger = logger;
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Registers a new revision along with the file its class list is
+     * stored in.
+     * @param revision the revision.
+     * @param file the class list file of the revision.
+    **/
+    void addRevision(BundleRevisionImpl revision, File file)
+    {
+        m_files.put(revision, file);
+    }
+
+    /**
+     * Records that the class loader of a revision defined a class.
+     * @param revision the revision.
+     * @param name the name of the class.
+    **/
+    void classDefined(BundleRevisionImpl revision, String name)
+    {
+        if (m_files.containsKey(revision))
+        {
+            Set<String> names = m_defined.get(revision);
+            if (names == null)
+            {
+                names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> previous = m_defined.putIfAbsent(revision, names);
+                if (previous != null)
+                {
+                    names = previous;
+                }
+            }
+            names.add(name);
+        }
+    }
+
+    /**
+     * Loads the classes recorded for the revision of a new wiring in the
+     * background, or once the framework has started if it has not yet.
+     * @param wiring the new wiring.
+    **/
+    void preload(BundleWiringImpl wiring)
+    {
+        synchronized (this)
+        {
+            if (m_pending != null)
+            {
+                m_pending.add(wiring);
+                return;
+            }
+        }
+        schedule(wiring);
+    }
+
+    /**
+     * Starts preloading the wirings resolved during startup.
+    **/
+    void frameworkStarted()
+    {
+        List<BundleWiringImpl> pending;
+        synchronized (this)
+        {
+            pending = m_pending;
+            m_pending = null;
+        }
+        if (pending != null)
+        {
+            for (BundleWiringImpl wiring : pending)
+            {
+                schedule(wiring);
+            }
+        }
+    }
+
+    private void schedule(final BundleWiringImpl wiring)
+    {
+        final BundleRevisionImpl revision = (BundleRevisionImpl) wiring.getRevision();
+        final File file = m_files.get(revision);
+        if ((file == null)
+            || Util.isFragment(revision)
+            || (revision.getDeclaredActivationPolicy() == BundleRevisionImpl.LAZY_ACTIVATION)
+            || !Felix.m_secureAction.fileExists(file))
+        {
+            return;
+        }
+        execute(new Runnable()
+        {
+            public void run()
+            {
+                List<String> names = read(file);
+                for (int i = 0; i < names.size(); i += BATCH_SIZE)
+                {
+                    final List<String> batch =
+                        names.subList(i, Math.min(i + BATCH_SIZE, names.size()));
+                    execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            load(wiring, batch);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the names of the classes a revision defined during this run
+     * and forgets about the revision. The stored list is kept if the
+     * revision did not define any class.
+     * @param revision the revision being closed.
+    **/
+    void removeRevision(BundleRevisionImpl revision)
+    {
+        File file = m_files.remove(revision);
+        Set<String> names = m_defined.remove(revision);
+        if ((file != null) && (names != null) && !names.isEmpty())
+        {
+            write(file, names);
+        }
+    }
+
+    /**
+     * Stops the threads loading classes; pending classes are not loaded.
+    **/
+    synchronized void stop()
+    {
+        // Wait for the next startup again, should the framework be restarted.
+        m_pending = new ArrayList<BundleWiringImpl>();
+        if (m_executor != null)
+        {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+    }
+
+    long getPreloadedCount()
+    {
+        return m_preloaded.get();
+    }
+
+    private synchronized void execute(Runnable task)
+    {
+        if (m_executor == null)
+        {
+            m_executor = new ThreadPoolExecutor(
+                m_parallelism, m_parallelism,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    final AtomicInteger counter = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(
+                            r, "FelixClassPreloader-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            m_executor.allowCoreThreadTimeOut(true);
+        }
+        m_executor.execute(task);
+    }
+
+    private void load(BundleWiringImpl wiring, List<String> names)
+    {
+        for (String name : names)
+        {
+            // Stop as soon as the wiring is disposed, for instance because
+            // the bundle was refreshed or the framework is stopping.
+            ClassLoader loader = wiring.getClassLoader();
+            if ((loader == null) || Thread.currentThread().isInterrupted())
+            {
+                return;
+            }
+            try
+            {
+                Class.forName(name, false, loader);
+                m_preloaded.incrementAndGet();
+            }
+            catch (Throwable ex)
+            {
+                // The class may have been removed or may not be loadable
+                // anymore, which will be reported when it is actually used.
+                m_logger.log(wiring.getBundle(), Logger.LOG_DEBUG,
+                    "Unable to preload class " + name, ex);
+            }
+        }
+    }
+
+    private List<String> read(File file)
+    {
+        List<String> names = new ArrayList<String>();
+        Reader reader = null;
+        try
+        {
+            reader = new InputStreamReader(
+                Felix.m_secureAction.getFileInputStream(file), "UTF-8");
+            BufferedReader br = new BufferedReader(reader);
+            for (String line = br.readLine(); line != null; line = br.readLine())
+            {
+                if (line.length() > 0)
+                {
+                    names.add(line);
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Unable to read class list " + file, ex);
+        }
+        finally
+        {
+            close(reader);
+        }
+        return names;
+    }
+
+    private void write(File file, Set<String> names)
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                Felix.m_secureAction.getFileOutputStream(file), "UTF-8"));
+            for (String name : names)
+            {
+                writer.write(name);
+                writer.write('\n');
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Unable to write class list " + file, ex);
+        }
+        finally
+        {
+            close(writer);
+        }
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException ex)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+}
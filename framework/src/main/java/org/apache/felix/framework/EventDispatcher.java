@@ -20,6 +20,7 @@ package org.apache.felix.framework;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,10 +29,17 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
@@ -64,6 +72,8 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Index of service listeners by the object classes their filters require.
+    private ServiceListenerIndex m_svcListenerIndex = ServiceListenerIndex.EMPTY;
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -78,14 +88,48 @@ public class EventDispatcher
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // When the parallelism is greater than one, asynchronous events of this
+    // dispatcher are delivered by its own pool of threads, using one ordered
+    // queue per listener, instead of the shared dispatch thread.
+    private final int m_parallelism;
+    private volatile ThreadPoolExecutor m_executor = null;
+    private final Map<ListenerInfo, ListenerQueue> m_queues =
+        new IdentityHashMap<ListenerInfo, ListenerQueue>();
+    private final AtomicInteger m_pending = new AtomicInteger();
+    // Startup profiler which is told how long service listeners take.
+    private volatile StartupProfilerImpl m_startupProfiler = null;
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0);
+    }
+
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int parallelism)
     {
         m_logger = logger;
         m_registry = registry;
+        m_parallelism = parallelism;
+    }
+
+    void setStartupProfiler(StartupProfilerImpl profiler)
+    {
+        m_startupProfiler = profiler;
     }
 
     public void startDispatching()
     {
+        if (m_parallelism > 1)
+        {
+            synchronized (m_queues)
+            {
+                if (m_executor == null)
+                {
+                    m_executor = createExecutor(m_parallelism);
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +169,35 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_parallelism > 1)
+        {
+            ThreadPoolExecutor executor;
+            synchronized (m_queues)
+            {
+                executor = m_executor;
+                m_executor = null;
+            }
+            if (executor != null)
+            {
+                // Queued events are still delivered, but no new events are
+                // accepted. Don't wait if we are called by a listener, since
+                // that would wait for ourself.
+                executor.shutdown();
+                while (!(Thread.currentThread() instanceof DispatchThread)
+                    && !executor.isTerminated())
+                {
+                    try
+                    {
+                        executor.awaitTermination(1, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                    }
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -260,6 +333,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = m_svcListenerIndex.add(info);
             }
         }
         return null;
@@ -312,6 +386,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removed = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -329,6 +404,7 @@ public class EventDispatcher
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
                         idx = i;
+                        removed = info;
                         break;
                     }
                 }
@@ -338,6 +414,7 @@ public class EventDispatcher
             if (idx >= 0)
             {
                 listeners = removeListenerInfo(listeners, bc, idx);
+                removeQueue(removed);
             }
 
             if (clazz == FrameworkListener.class)
@@ -358,6 +435,10 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                if (removed != null)
+                {
+                    m_svcListenerIndex = m_svcListenerIndex.remove(removed);
+                }
             }
         }
 
@@ -375,6 +456,10 @@ public class EventDispatcher
 
         synchronized (this)
         {
+            // Forget the event queues of the removed asynchronous listeners.
+            removeQueues(m_fwkListeners.get(bc));
+            removeQueues(m_bndlListeners.get(bc));
+
             // Remove all framework listeners associated with the specified bundle.
             m_fwkListeners = removeListenerInfos(m_fwkListeners, bc);
 
@@ -386,6 +471,7 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
+            m_svcListenerIndex = m_svcListenerIndex.removeAll(m_svcListeners.get(bc));
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
     }
@@ -427,6 +513,8 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex = m_svcListenerIndex.replace(
+                            info, newInfo, m_svcListeners.get(bc));
                         return oldFilter;
                     }
                 }
@@ -533,13 +621,27 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        ServiceListenerIndex index = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            index = m_svcListenerIndex;
         }
 
-        // Use service registry hooks to filter target listeners.
-        listeners = filterListenersUsingHooks(event, felix, listeners);
+        HookRegistry hooks = m_registry.getHookRegistry();
+        if (hooks.getHooks(org.osgi.framework.hooks.service.EventHook.class).isEmpty()
+            && hooks.getHooks(org.osgi.framework.hooks.service.EventListenerHook.class).isEmpty())
+        {
+            // Without hooks we only need to deliver the event to those
+            // listeners whose filter could possibly match the service.
+            listeners = index.getCandidates(event.getServiceReference(), listeners);
+        }
+        else
+        {
+            // Use service registry hooks to filter target listeners; the
+            // hooks must see all listeners, so the index is not used here.
+            listeners = filterListenersUsingHooks(event, felix, listeners);
+        }
 
         // Fire all service events immediately on the calling thread.
         fireEventImmediately(
@@ -769,6 +871,12 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_parallelism > 1)
+        {
+            dispatcher.queueEvent(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -818,42 +926,55 @@ public class EventDispatcher
             {
                 for (ListenerInfo info : entry.getValue())
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
+                    invokeListener(dispatcher, type, info, event, oldProps);
+                }
+            }
+        }
+    }
 
-                    try
-                    {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
-                    }
-                    catch (Throwable th)
-                    {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
-                        {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
-                        }
-                    }
+    private static void invokeListener(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                StartupProfilerImpl profiler = dispatcher.m_startupProfiler;
+                long start = (profiler != null) ? System.nanoTime() : 0;
+                invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+                if (profiler != null)
+                {
+                    profiler.serviceEventDelivered(bundle, System.nanoTime() - start);
                 }
             }
         }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
     }
 
     private static void invokeFrameworkListenerCallback(
@@ -1160,6 +1281,298 @@ public class EventDispatcher
         }
     }
 
+    /**
+     * Returns the number of asynchronous event deliveries which are queued
+     * but not yet completed. If events are delivered by the shared dispatch
+     * thread, this is the number of queued events of all dispatchers.
+     * @return the number of pending asynchronous event deliveries.
+    **/
+    public int getQueueDepth()
+    {
+        if (m_parallelism > 1)
+        {
+            return m_pending.get();
+        }
+        synchronized (m_requestList)
+        {
+            return m_requestList.size();
+        }
+    }
+
+    /**
+     * Returns delivery statistics for the asynchronous listeners of this
+     * dispatcher. Statistics are only collected if events are delivered
+     * using per-listener queues, otherwise the returned list is empty.
+     * @return a snapshot of the statistics of each asynchronous listener.
+    **/
+    public List<ListenerStatistics> getListenerStatistics()
+    {
+        List<ListenerQueue> queues;
+        synchronized (m_queues)
+        {
+            queues = new ArrayList<ListenerQueue>(m_queues.values());
+        }
+        List<ListenerStatistics> stats = new ArrayList<ListenerStatistics>(queues.size());
+        for (ListenerQueue queue : queues)
+        {
+            stats.add(queue.getStatistics());
+        }
+        return stats;
+    }
+
+    private void queueEvent(
+        int type, Map<BundleContext, List<ListenerInfo>> listeners, EventObject event)
+    {
+        // If the dispatcher is stopped, then ignore the dispatch request.
+        ThreadPoolExecutor executor = m_executor;
+        if (executor == null)
+        {
+            return;
+        }
+
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            for (ListenerInfo info : entry.getValue())
+            {
+                ListenerQueue queue;
+                synchronized (m_queues)
+                {
+                    queue = m_queues.get(info);
+                    if (queue == null)
+                    {
+                        queue = new ListenerQueue(info);
+                        m_queues.put(info, queue);
+                    }
+                }
+                queue.add(type, event, executor);
+            }
+        }
+    }
+
+    private void removeQueue(ListenerInfo info)
+    {
+        if ((info != null) && (m_parallelism > 1))
+        {
+            // Events already queued for the listener are still delivered.
+            synchronized (m_queues)
+            {
+                m_queues.remove(info);
+            }
+        }
+    }
+
+    private void removeQueues(List<ListenerInfo> infos)
+    {
+        for (int i = 0; (infos != null) && (i < infos.size()); i++)
+        {
+            removeQueue(infos.get(i));
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(int parallelism)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism, parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new DispatchThread(
+                        r, "FelixDispatchQueue-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class DispatchThread extends Thread
+    {
+        DispatchThread(Runnable r, String name)
+        {
+            super(r, name);
+        }
+    }
+
+    /**
+     * An ordered queue of events for a single asynchronous listener. At most
+     * one thread drains a queue at any time, so each listener receives its
+     * events in the order they were fired, while independent listeners are
+     * served by different threads of the pool.
+    **/
+    private class ListenerQueue implements Runnable
+    {
+        private final ListenerInfo m_info;
+        private final ArrayDeque<QueuedEvent> m_events = new ArrayDeque<QueuedEvent>();
+        private boolean m_scheduled = false;
+        private long m_delivered = 0;
+        private long m_totalLatency = 0;
+        private long m_maxLatency = 0;
+        private long m_totalTime = 0;
+
+        ListenerQueue(ListenerInfo info)
+        {
+            m_info = info;
+        }
+
+        void add(int type, EventObject event, ThreadPoolExecutor executor)
+        {
+            boolean schedule;
+            synchronized (this)
+            {
+                m_events.add(new QueuedEvent(type, event, System.nanoTime()));
+                schedule = !m_scheduled;
+                m_scheduled = true;
+            }
+            m_pending.incrementAndGet();
+
+            if (schedule)
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // The dispatcher was stopped concurrently, so drop
+                    // the queued events.
+                    synchronized (this)
+                    {
+                        m_pending.addAndGet(-m_events.size());
+                        m_events.clear();
+                        m_scheduled = false;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                QueuedEvent qe;
+                synchronized (this)
+                {
+                    qe = m_events.poll();
+                    if (qe == null)
+                    {
+                        m_scheduled = false;
+                        return;
+                    }
+                }
+
+                long start = System.nanoTime();
+                invokeListener(EventDispatcher.this, qe.m_type, m_info, qe.m_event, null);
+                long end = System.nanoTime();
+
+                synchronized (this)
+                {
+                    long latency = end - qe.m_time;
+                    m_delivered++;
+                    m_totalLatency += latency;
+                    m_maxLatency = Math.max(m_maxLatency, latency);
+                    m_totalTime += end - start;
+                }
+                // Only release the pending count once the delivery is
+                // counted, so an empty queue implies complete statistics.
+                m_pending.decrementAndGet();
+            }
+        }
+
+        synchronized ListenerStatistics getStatistics()
+        {
+            return new ListenerStatistics(m_info.getBundle(), m_info.getListener(),
+                m_events.size(), m_delivered, m_totalLatency, m_maxLatency, m_totalTime);
+        }
+    }
+
+    private static class QueuedEvent
+    {
+        final int m_type;
+        final EventObject m_event;
+        final long m_time;
+
+        QueuedEvent(int type, EventObject event, long time)
+        {
+            m_type = type;
+            m_event = event;
+            m_time = time;
+        }
+    }
+
+    /**
+     * A snapshot of the delivery statistics of an asynchronous listener.
+     * Latencies are measured from the time an event was fired until the
+     * listener returned and are reported in nanoseconds.
+    **/
+    public static class ListenerStatistics
+    {
+        private final Bundle m_bundle;
+        private final EventListener m_listener;
+        private final int m_queueDepth;
+        private final long m_delivered;
+        private final long m_totalLatency;
+        private final long m_maxLatency;
+        private final long m_totalTime;
+
+        ListenerStatistics(Bundle bundle, EventListener listener, int queueDepth,
+            long delivered, long totalLatency, long maxLatency, long totalTime)
+        {
+            m_bundle = bundle;
+            m_listener = listener;
+            m_queueDepth = queueDepth;
+            m_delivered = delivered;
+            m_totalLatency = totalLatency;
+            m_maxLatency = maxLatency;
+            m_totalTime = totalTime;
+        }
+
+        public Bundle getBundle()
+        {
+            return m_bundle;
+        }
+
+        public EventListener getListener()
+        {
+            return m_listener;
+        }
+
+        public int getQueueDepth()
+        {
+            return m_queueDepth;
+        }
+
+        public long getDeliveredCount()
+        {
+            return m_delivered;
+        }
+
+        public long getAverageLatency()
+        {
+            return (m_delivered == 0) ? 0 : m_totalLatency / m_delivered;
+        }
+
+        public long getMaxLatency()
+        {
+            return m_maxLatency;
+        }
+
+        /**
+         * Returns the time spent in the listener callback itself, excluding
+         * the time events were waiting in the queue.
+        **/
+        public long getTotalCallbackTime()
+        {
+            return m_totalTime;
+        }
+    }
+
     private static class Request
     {
         public static final int FRAMEWORK_EVENT = 0;
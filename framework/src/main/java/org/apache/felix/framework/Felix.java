@@ -25,8 +25,10 @@ import org.apache.felix.framework.cache.BundleCache;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.ext.SecurityProvider;
+import org.apache.felix.framework.startup.StartupProfiler;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ListenerInfo;
+import org.apache.felix.framework.util.MapInterner;
 import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.ShrinkableCollection;
@@ -106,6 +108,14 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -131,6 +141,16 @@ public class Felix extends BundleImpl implements Framework
     // Resolver and resolver state.
     private final StatefulResolver m_resolver;
 
+    // Startup profiler, or null if profiling is disabled.
+    private final StartupProfilerImpl m_startupProfiler;
+
+    // Class preloader, or null if class preloading is disabled.
+    private final ClassPreloader m_classPreloader;
+
+    // Shares equal directives and attributes of declared capabilities and
+    // requirements across bundle revisions.
+    private final MapInterner m_mapInterner = new MapInterner();
+
     // Lock object used to determine if an individual bundle
     // lock or the global lock can be acquired.
     private final ReentrantLock m_bundleLock = new ReentrantLock(true);
@@ -160,6 +180,12 @@ public class Felix extends BundleImpl implements Framework
     private volatile Map[] m_installedBundles;
     private static final int LOCATION_MAP_IDX = 0;
     private static final int IDENTIFIER_MAP_IDX = 1;
+    // The threads starting the bundles of a start level in parallel and
+    // those of them which found a bundle locked by another one of them.
+    private final Set<Thread> m_parallelStartThreads =
+        Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private final Set<Thread> m_parallelStartConflicts =
+        Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
     // An array of uninstalled bundles before a refresh occurs.
     // CONCURRENCY: Access guarded by the global lock for writes,
     // but no lock for reads since it is copy on write.
@@ -453,8 +479,32 @@ public class Felix extends BundleImpl implements Framework
             throw new RuntimeException("Exception creating system bundle revision", ex);
         }
 
-        // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        // Create event dispatcher; by default all frameworks share a single
+        // thread for asynchronous event delivery.
+        int dispatchParallelism = 0;
+        try
+        {
+            String str = getProperty(FelixConstants.EVENTDISPATCHER_PARALLELISM);
+            if (str != null)
+            {
+                dispatchParallelism = Integer.parseInt(str);
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            // Ignore and just use the shared dispatch thread.
+        }
+        m_dispatcher = new EventDispatcher(m_logger, m_registry, dispatchParallelism);
+
+        // Create the startup profiler, if enabled.
+        m_startupProfiler = "true".equalsIgnoreCase(getProperty(FelixConstants.STARTUP_PROFILER_PROP))
+            ? new StartupProfilerImpl() : null;
+        m_dispatcher.setStartupProfiler(m_startupProfiler);
+
+        // Create the class preloader, if enabled.
+        m_classPreloader = "true".equalsIgnoreCase(getProperty(FelixConstants.CLASS_PRELOAD_PROP))
+            ? new ClassPreloader(m_logger, Runtime.getRuntime().availableProcessors())
+            : null;
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -477,6 +527,26 @@ public class Felix extends BundleImpl implements Framework
         return m_resolver;
     }
 
+    /**
+     * Returns the startup profiler while it is recording, i.e., if profiling
+     * is enabled and the framework has not started yet.
+    **/
+    StartupProfilerImpl getStartupProfiler()
+    {
+        return ((m_startupProfiler != null) && m_startupProfiler.isRecording())
+            ? m_startupProfiler : null;
+    }
+
+    ClassPreloader getClassPreloader()
+    {
+        return m_classPreloader;
+    }
+
+    MapInterner getMapInterner()
+    {
+        return m_mapInterner;
+    }
+
     BundleRevisionDependencies getDependencies()
     {
         return m_dependencies;
@@ -872,10 +942,19 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
+                // Reinstate the wirings of the previous run where possible.
+                loadWirings();
+
                 // Start services
                 m_resolver.start();
                 m_fwkWiring.start();
                 m_fwkStartLevel.start();
+                if (m_startupProfiler != null)
+                {
+                    m_registry.registerService(this,
+                        new String[] { StartupProfiler.class.getName() },
+                        m_startupProfiler, null);
+                }
 
                 try
                 {
@@ -1115,6 +1194,19 @@ public class Felix extends BundleImpl implements Framework
         // Fire started event for system bundle.
         fireBundleEvent(BundleEvent.STARTED, this);
 
+        if (m_startupProfiler != null)
+        {
+            // Stop recording, the profile is about the startup only.
+            m_startupProfiler.started();
+            m_dispatcher.setStartupProfiler(null);
+        }
+
+        // Only preload classes now that the weaving hooks are registered.
+        if (m_classPreloader != null)
+        {
+            m_classPreloader.frameworkStarted();
+        }
+
         // Send a framework event to indicate the framework has started.
         fireFrameworkEvent(FrameworkEvent.STARTED, this, null);
     }
@@ -1307,6 +1399,68 @@ public class Felix extends BundleImpl implements Framework
         }).start();
     }
 
+    /**
+     * Logs the asynchronous event delivery statistics at debug level, so
+     * that slow framework and bundle listeners can be identified.
+    **/
+    private void logEventDispatcherStatistics()
+    {
+        if (m_logger.getLogLevel() < Logger.LOG_DEBUG)
+        {
+            return;
+        }
+        List<EventDispatcher.ListenerStatistics> stats = m_dispatcher.getListenerStatistics();
+        if (stats.isEmpty())
+        {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Asynchronous event delivery: ")
+            .append(m_dispatcher.getQueueDepth()).append(" pending deliveries");
+        for (EventDispatcher.ListenerStatistics stat : stats)
+        {
+            sb.append("\n  ").append(stat.getBundle())
+                .append(' ').append(stat.getListener().getClass().getName())
+                .append(": delivered=").append(stat.getDeliveredCount())
+                .append(", pending=").append(stat.getQueueDepth())
+                .append(", avg latency=")
+                .append(TimeUnit.NANOSECONDS.toMillis(stat.getAverageLatency())).append("ms")
+                .append(", max latency=")
+                .append(TimeUnit.NANOSECONDS.toMillis(stat.getMaxLatency())).append("ms")
+                .append(", callback time=")
+                .append(TimeUnit.NANOSECONDS.toMillis(stat.getTotalCallbackTime())).append("ms");
+        }
+        m_logger.log(Logger.LOG_DEBUG, sb.toString());
+    }
+
+    /**
+     * Logs the class loading and dynamic import statistics of all bundles
+     * at debug level, so that the effect of the negative caches can be
+     * judged.
+    **/
+    private void logClassLoadingStatistics()
+    {
+        if (m_logger.getLogLevel() < Logger.LOG_DEBUG)
+        {
+            return;
+        }
+        long hits = 0, misses = 0, skips = 0;
+        for (Bundle bundle : getBundles())
+        {
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            BundleWiring wiring = (revision != null) ? revision.getWiring() : null;
+            if (wiring instanceof BundleWiringImpl)
+            {
+                hits += ((BundleWiringImpl) wiring).getNegativeCacheHits();
+                misses += ((BundleWiringImpl) wiring).getNegativeCacheMisses();
+                skips += ((BundleWiringImpl) wiring).getLocalIndexSkips();
+            }
+        }
+        m_logger.log(Logger.LOG_DEBUG, "Class loading: negative cache hits=" + hits
+            + ", negative cache misses=" + misses
+            + ", content lookups skipped=" + skips
+            + ", failed dynamic imports skipped=" + m_resolver.getDynamicMissHits());
+    }
+
     private void stopRefresh() throws BundleException
     {
         Object sm = System.getSecurityManager();
@@ -1456,10 +1610,18 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
+            // Bundles of the same start level may be started concurrently
+            // if configured, but by default they are started one at a time.
+            int parallelism = getStartLevelParallelism();
+            // The start level whose bundles have already been started in
+            // parallel, the remaining bundles of it are started serially.
+            int parallelLevel = -1;
+
             // Process bundles and stop or start them accordingly.
             while (bundlesRemaining)
             {
                 StartLevelTuple tuple;
+                List<StartLevelTuple> batch = null;
 
                 // Remove our tuple to be processed while holding the queue lock
                 // and update the active start level accordingly, which allows
@@ -1480,102 +1642,45 @@ public class Felix extends BundleImpl implements Framework
                     if ((tuple.m_level >= low) && (tuple.m_level <= high))
                     {
                         m_activeStartLevel = tuple.m_level;
-                    }
-                }
 
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
-                {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
-                    {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
-                        {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
-                        }
-                        else
+                        // When raising the start level in parallel, take all
+                        // bundles of the current start level at once.
+                        if (!isLowering && (parallelism > 1)
+                            && (tuple.m_level != parallelLevel))
                         {
-                            synchronized (m_startLevelBundles)
+                            batch = new ArrayList<StartLevelTuple>();
+                            for (StartLevelTuple t : m_startLevelBundles)
                             {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
+                                if (t.m_level != tuple.m_level)
+                                {
+                                    break;
+                                }
+                                batch.add(t);
                             }
                         }
-                        continue;
                     }
+                }
 
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                    }
-                    finally
+                if (batch != null)
+                {
+                    // Bundles which could not be started in parallel stay
+                    // queued and are started serially like all others.
+                    batch = startBundlesInParallel(batch, parallelism);
+                    parallelLevel = tuple.m_level;
+
+                    synchronized (m_startLevelBundles)
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        m_startLevelBundles.removeAll(batch);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
                     }
                 }
-
-                synchronized (m_startLevelBundles)
+                else if (processStartLevelTuple(tuple, isLowering))
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    synchronized (m_startLevelBundles)
+                    {
+                        m_startLevelBundles.remove(tuple);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    }
                 }
             }
 
@@ -1606,6 +1711,310 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops the bundle of the specified start level tuple, if its
+     * start level and state require it.
+     * @param tuple The bundle and its start level.
+     * @param isLowering Whether the active start level is being lowered.
+     * @return <tt>true</tt> if the tuple has been processed, <tt>false</tt>
+     *         if the bundle could not be locked and must be processed again.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Ignore the system bundle, since its start() and
+        // stop() methods get called explicitly in Felix.start()
+        // and Felix.stop(), respectively.
+        if (tuple.m_bundle.getBundleId() != 0)
+        {
+            // Lock the current bundle.
+            try
+            {
+                acquireBundleLock(tuple.m_bundle,
+                    Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                    | Bundle.STARTING | Bundle.STOPPING);
+            }
+            catch (IllegalStateException ex)
+            {
+                // Ignore if the bundle has been uninstalled.
+                if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error locking " + tuple.m_bundle._getLocation(), ex);
+                }
+                else
+                {
+                    return true;
+                }
+                return false;
+            }
+
+            try
+            {
+                // Start the bundle if necessary.
+                // Note that we only attempt to start the bundle if
+                // its start level is equal to the active start level,
+                // which means we assume lower bundles are in the state
+                // they should be in (i.e., we won't attempt to restart
+                // them if they previously failed to start).
+                if (!isLowering
+                    && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                        || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                        && (tuple.m_level == m_activeStartLevel)))
+                {
+                    try
+                    {
+// TODO: LAZY - Not sure if this is the best way...
+                        int options = Bundle.START_TRANSIENT;
+                        options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                            ? options | Bundle.START_ACTIVATION_POLICY
+                            : options;
+                        startBundle(tuple.m_bundle, options);
+                    }
+                    catch (Throwable th)
+                    {
+                        fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                        m_logger.log(tuple.m_bundle,
+                            Logger.LOG_ERROR,
+                            "Error starting " + tuple.m_bundle._getLocation(), th);
+                    }
+                }
+                // Stop the bundle if necessary.
+                else if (isLowering
+                    && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                        || (tuple.m_bundle.getState() == Bundle.STARTING))
+                        && (tuple.m_level == m_activeStartLevel)))
+                {
+                    try
+                    {
+                        stopBundle(tuple.m_bundle, false);
+                    }
+                    catch (Throwable th)
+                    {
+                        fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                        m_logger.log(tuple.m_bundle,
+                            Logger.LOG_ERROR,
+                            "Error stopping " + tuple.m_bundle._getLocation(), th);
+                    }
+                }
+            }
+            finally
+            {
+                // Always release bundle lock.
+                releaseBundleLock(tuple.m_bundle);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the bundles of a single start level concurrently on a bounded
+     * pool of threads and waits until all of them have been processed. The
+     * bundles are resolved up front in a single resolve operation. Bundles
+     * which fail to start for reasons other than activator errors or which
+     * conflict with a concurrently starting bundle, e.g., because their
+     * activators start each other, are not processed and must be started
+     * again serially.
+     * @param batch The bundles of the active start level.
+     * @param parallelism The maximum number of bundles started concurrently.
+     * @return The processed bundles.
+    **/
+    private List<StartLevelTuple> startBundlesInParallel(List<StartLevelTuple> batch, int parallelism)
+    {
+        // Resolving all bundles at once is cheaper than resolving them one
+        // by one and avoids most contention on the global lock once the
+        // activators run concurrently.
+        List<Bundle> unresolved = new ArrayList<Bundle>();
+        for (StartLevelTuple tuple : batch)
+        {
+            if ((tuple.m_bundle.getBundleId() != 0)
+                && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                && ((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING)))
+            {
+                unresolved.add(tuple.m_bundle);
+            }
+        }
+        if (!unresolved.isEmpty())
+        {
+            resolveBundles(unresolved);
+        }
+
+        final List<StartLevelTuple> retries =
+            Collections.synchronizedList(new ArrayList<StartLevelTuple>());
+        boolean interrupted = false;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, batch.size()),
+            new ThreadFactory()
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    // The name identifies start level threads in startBundle().
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.THREAD_NAME + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    m_parallelStartThreads.add(thread);
+                    return thread;
+                }
+            });
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+            for (final StartLevelTuple tuple : batch)
+            {
+                // Ignore the system bundle, as in the serial case.
+                if (tuple.m_bundle.getBundleId() != 0)
+                {
+                    futures.add(executor.submit(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (!startBundleConcurrently(tuple))
+                            {
+                                retries.add(tuple);
+                            }
+                        }
+                    }));
+                }
+            }
+
+            // The start level must not advance before the whole level is done.
+            for (Future<?> future : futures)
+            {
+                boolean done = false;
+                while (!done)
+                {
+                    try
+                    {
+                        future.get();
+                        done = true;
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        // Keep waiting, but remember the interrupt.
+                        interrupted = true;
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        done = true;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            m_parallelStartThreads.clear();
+            m_parallelStartConflicts.clear();
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        List<StartLevelTuple> processed = new ArrayList<StartLevelTuple>(batch);
+        processed.removeAll(retries);
+        return processed;
+    }
+
+    /**
+     * Starts the bundle of the specified tuple on a start level pool thread.
+     * @param tuple The bundle and its start level.
+     * @return <tt>false</tt> if starting the bundle failed or conflicted with
+     *         another bundle and must be retried serially, <tt>true</tt>
+     *         otherwise.
+    **/
+    private boolean startBundleConcurrently(StartLevelTuple tuple)
+    {
+        m_parallelStartConflicts.remove(Thread.currentThread());
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            return (tuple.m_bundle.getState() == Bundle.UNINSTALLED);
+        }
+
+        try
+        {
+            if (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                && (tuple.m_level == m_activeStartLevel))
+            {
+                int options = Bundle.START_TRANSIENT;
+                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                    ? options | Bundle.START_ACTIVATION_POLICY
+                    : options;
+                startBundle(tuple.m_bundle, options);
+            }
+        }
+        catch (BundleException ex)
+        {
+            // An activator that failed has already been called, so it must
+            // not be started again unless it failed because of a conflict;
+            // all other failures are retried serially, which also reports
+            // them if they persist.
+            if ((ex.getType() != BundleException.ACTIVATOR_ERROR)
+                || m_parallelStartConflicts.contains(Thread.currentThread()))
+            {
+                return false;
+            }
+            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+            m_logger.log(tuple.m_bundle,
+                Logger.LOG_ERROR,
+                "Error starting " + tuple.m_bundle._getLocation(), ex);
+        }
+        catch (IllegalStateException ex)
+        {
+            return (tuple.m_bundle.getState() == Bundle.UNINSTALLED);
+        }
+        catch (Throwable th)
+        {
+            if (m_parallelStartConflicts.contains(Thread.currentThread()))
+            {
+                return false;
+            }
+            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+            m_logger.log(tuple.m_bundle,
+                Logger.LOG_ERROR,
+                "Error starting " + tuple.m_bundle._getLocation(), th);
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+        // The activator may have handled a conflict itself, so start the
+        // bundle again serially, which does nothing if it is active.
+        return !m_parallelStartConflicts.contains(Thread.currentThread());
+    }
+
+    private int getStartLevelParallelism()
+    {
+        String str = getProperty(FelixConstants.STARTLEVEL_PARALLELISM);
+        if (str != null)
+        {
+            try
+            {
+                return Integer.parseInt(str);
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and start bundles serially.
+            }
+        }
+        return 0;
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2190,7 +2599,7 @@ public class Felix extends BundleImpl implements Framework
             // queued but processed synchronously.
             // Note: Don't queue starts from the start level thread, otherwise
             // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            if (!Thread.currentThread().getName().startsWith(FrameworkStartLevelImpl.THREAD_NAME))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2376,6 +2785,8 @@ public class Felix extends BundleImpl implements Framework
                 return;
             }
             
+            StartupProfilerImpl profiler = getStartupProfiler();
+            long activationStart = (profiler != null) ? System.nanoTime() : 0;
             Throwable rethrow = null;
             try
             {
@@ -2402,6 +2813,10 @@ public class Felix extends BundleImpl implements Framework
                     m_secureAction.startActivator(
                         bundle.getActivator(), bundle._getBundleContext());
                 }
+                if (profiler != null)
+                {
+                    profiler.activated(bundle, System.nanoTime() - activationStart);
+                }
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
 
@@ -4441,6 +4856,7 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Now refresh each bundle.
+        List<RefreshHelper> helpers = null;
         try
         {
             boolean restart = false;
@@ -4477,7 +4893,7 @@ public class Felix extends BundleImpl implements Framework
                     // packages from these bundles.
 
                     // Create refresh helpers for each bundle.
-                    List<RefreshHelper> helpers = new ArrayList<RefreshHelper>(bundles.size());
+                    helpers = new ArrayList<RefreshHelper>(bundles.size());
                     for (Bundle b : bundles)
                     {
                         // Remove any targeted bundles from the uninstalled bundles
@@ -4489,33 +4905,6 @@ public class Felix extends BundleImpl implements Framework
                         // Create refresh helper for bundle.
                         helpers.add(new RefreshHelper(b));
                     }
-
-                    // Stop all refreshing bundles.
-                    for (RefreshHelper helper : helpers)
-                    {
-                        if (helper != null)
-                        {
-                            helper.stop();
-                        }
-                    }
-
-                    // Refresh or remove all refreshing bundles first.
-                    for (RefreshHelper helper : helpers)
-                    {
-                        if (helper != null)
-                        {
-                            helper.refreshOrRemove();
-                        }
-                    }
-
-                    // Restart all refreshed bundles that were previously running.
-                    for (RefreshHelper helper : helpers)
-                    {
-                        if (helper != null)
-                        {
-                            helper.restart();
-                        }
-                    }
                 }
                 else
                 {
@@ -4548,6 +4937,11 @@ public class Felix extends BundleImpl implements Framework
             releaseGlobalLock();
         }
 
+        if (helpers != null)
+        {
+            refreshBundles(newTargets, helpers);
+        }
+
         fireFrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, this, null);
 
         if (listeners != null)
@@ -4569,6 +4963,78 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Refreshes the dependency closure of the specified bundles. The global
+     * lock is only held while the bundles are actually refreshed, not while
+     * they are stopped and restarted, which may take a while since it runs
+     * the bundle activators. Only the bundles of the closure are locked then,
+     * one at a time, so that operations on unrelated bundles, such as
+     * installing bundles, do not have to wait for the refresh to complete.
+     * If the calling thread already holds the global lock, it is held during
+     * the whole refresh.
+     * @param targets The bundles to refresh.
+     * @param helpers The refresh helpers of the dependency closure of the
+     *        bundles to refresh.
+    **/
+    private void refreshBundles(Collection<Bundle> targets, List<RefreshHelper> helpers)
+    {
+        // Stop all refreshing bundles.
+        for (RefreshHelper helper : helpers)
+        {
+            helper.stop();
+        }
+
+        // Acquire global lock.
+        boolean locked = acquireGlobalLock();
+        if (!locked)
+        {
+            throw new IllegalStateException(
+                "Unable to acquire global lock for refresh.");
+        }
+
+        try
+        {
+            // Other threads may have wired bundles to the refreshing bundles
+            // or started some of them since the closure was computed, so add
+            // any new dependent bundle and stop the bundles again, which does
+            // nothing for the bundles which are still stopped.
+            Set<Bundle> refreshing = new HashSet<Bundle>(helpers.size());
+            for (RefreshHelper helper : helpers)
+            {
+                refreshing.add(helper.m_bundle);
+            }
+            for (Bundle b : getDependencyClosure(targets))
+            {
+                if (refreshing.add(b))
+                {
+                    forgetUninstalledBundle((BundleImpl) b);
+                    helpers.add(new RefreshHelper(b));
+                }
+            }
+            for (RefreshHelper helper : helpers)
+            {
+                helper.stop();
+            }
+
+            // Refresh or remove all refreshing bundles first.
+            for (RefreshHelper helper : helpers)
+            {
+                helper.refreshOrRemove();
+            }
+        }
+        finally
+        {
+            // Always release the global lock.
+            releaseGlobalLock();
+        }
+
+        // Restart all refreshed bundles that were previously running.
+        for (RefreshHelper helper : helpers)
+        {
+            helper.restart();
+        }
+    }
+
     Collection<Bundle> getDependencyClosure(Collection<Bundle> targets)
     {
         // Acquire global lock.
@@ -5012,6 +5478,58 @@ public class Felix extends BundleImpl implements Framework
     // Private utility methods.
     //
 
+    private boolean isWiringCacheEnabled()
+    {
+        return "true".equalsIgnoreCase(_getProperty(FelixConstants.RESOLVER_CACHE_PROP));
+    }
+
+    boolean isManifestCacheEnabled()
+    {
+        return "true".equalsIgnoreCase(_getProperty(FelixConstants.MANIFEST_CACHE_PROP));
+    }
+
+    private void loadWirings()
+    {
+        if (isWiringCacheEnabled())
+        {
+            try
+            {
+                m_resolver.setWiringCache(WiringCache.load(
+                    m_cache.getSystemBundleDataFile(WiringCache.WIRING_CACHE_FILE), m_logger));
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Unable to load cached wirings.", ex);
+            }
+        }
+    }
+
+    private void saveWirings(Bundle[] bundles)
+    {
+        if (isWiringCacheEnabled())
+        {
+            List<BundleRevision> revisions = new ArrayList<BundleRevision>(bundles.length);
+            for (Bundle bundle : bundles)
+            {
+                BundleRevision revision = bundle.adapt(BundleRevision.class);
+                if (revision != null)
+                {
+                    revisions.add(revision);
+                }
+            }
+            try
+            {
+                WiringCache.save(
+                    m_cache.getSystemBundleDataFile(WiringCache.WIRING_CACHE_FILE),
+                    revisions, m_logger);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Unable to save cached wirings.", ex);
+            }
+        }
+    }
+
     /**
      * Generated the next valid bundle identifier.
     **/
@@ -5162,8 +5680,19 @@ public class Felix extends BundleImpl implements Framework
             m_fwkWiring.stop();
             // Stop framework start level thread.
             m_fwkStartLevel.stop();
+            // Stop class preloading threads.
+            if (m_classPreloader != null)
+            {
+                m_classPreloader.stop();
+            }
+
+            // Report the class loading statistics while the bundles are
+            // still wired.
+            logClassLoadingStatistics();
 
-            // Shutdown event dispatching queue.
+            // Report slow asynchronous listeners before shutting down the
+            // event dispatching queue.
+            logEventDispatcherStatistics();
             m_dispatcher.stopDispatching();
 
             // Since there may be updated and uninstalled bundles that
@@ -5208,8 +5737,11 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
-            // Dispose of the bundles to close their associated contents.
+            // Save the wirings of all remaining bundles for the next run.
             bundles = getBundles();
+            saveWirings(bundles);
+
+            // Dispose of the bundles to close their associated contents.
             for (int i = 0; i < bundles.length; i++)
             {
                 ((BundleImpl) bundles[i]).close();
@@ -5289,8 +5821,14 @@ public class Felix extends BundleImpl implements Framework
                     Bundle.ACTIVE | Bundle.STOPPING | Bundle.UNINSTALLED);
             try
             {
-                m_oldState = m_bundle.getState();
-                if (m_oldState != Bundle.UNINSTALLED)
+                // The bundle may be stopped more than once, in which case
+                // it must be restarted if it was active any of these times.
+                int state = m_bundle.getState();
+                if (m_oldState != Bundle.ACTIVE)
+                {
+                    m_oldState = state;
+                }
+                if (state != Bundle.UNINSTALLED)
                 {
                     if (!Util.isFragment(m_bundle.adapt(BundleRevision.class)))
                     {
@@ -5545,6 +6083,18 @@ public class Felix extends BundleImpl implements Framework
                 {
                     bundle.getLockingThread().interrupt();
                 }
+                // If a thread starting the bundles of a start level in
+                // parallel waited for a bundle locked by another one, e.g.,
+                // because their activators start each other's bundles, they
+                // might deadlock, so give up and start the bundle serially.
+                else if ((bundle.getLockingThread() != null)
+                    && m_parallelStartThreads.contains(Thread.currentThread())
+                    && m_parallelStartThreads.contains(bundle.getLockingThread()))
+                {
+                    m_parallelStartConflicts.add(Thread.currentThread());
+                    throw new IllegalStateException(
+                        "Bundle locked by a concurrently starting bundle.");
+                }
 
                 try
                 {
@@ -0,0 +1,552 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * The metadata of a bundle revision as parsed from its manifest headers by
+ * the <tt>ManifestParser</tt>. The parsed metadata can be stored in a
+ * binary file in the revision directory of the bundle cache and loaded from
+ * it on restart, which avoids parsing the headers of unchanged revisions
+ * again. The stored metadata is keyed by a digest of the manifest headers
+ * and the framework version, so it is reparsed whenever either changes.
+ * <p>
+ * Namespaces, directive and attribute names, as well as the values of the
+ * namespace attributes, i.e., package names and symbolic names, are interned
+ * when loaded, since they are duplicated across many bundles.
+ * <p>
+ * The warnings logged while parsing the headers are stored as well and are
+ * logged again when the metadata is loaded, so that problems in a manifest
+ * are reported on every start as if it had been parsed.
+**/
+class ParsedManifest
+{
+    static final String MANIFEST_CACHE_FILE = "manifest.cache";
+
+    private static final int MAGIC = 0x46504d32;
+
+    private static final byte STRING = 0;
+    private static final byte VERSION = 1;
+    private static final byte VERSION_RANGE = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte LIST = 5;
+
+    private final String m_manifestVersion;
+    private final boolean m_isExtension;
+    private final String m_symbolicName;
+    private final Version m_version;
+    private final int m_activationPolicy;
+    private final String m_activationIncludeDir;
+    private final String m_activationExcludeDir;
+    private final List<BundleCapability> m_capabilities;
+    private final List<BundleRequirement> m_requirements;
+    private final List<String> m_warnings;
+
+    ParsedManifest(ManifestParser mp)
+    {
+        this(mp, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param mp the parser of the manifest headers.
+     * @param warnings the warnings logged by the parser, as recorded by a
+     *        {@link WarningRecorder}.
+    **/
+    ParsedManifest(ManifestParser mp, List<String> warnings)
+    {
+        this(mp.getManifestVersion(), mp.isExtension(), mp.getSymbolicName(),
+            mp.getBundleVersion(), mp.getActivationPolicy(),
+            mp.getActivationIncludeDirective(), mp.getActivationExcludeDirective(),
+            mp.getCapabilities(), mp.getRequirements(), warnings);
+    }
+
+    private ParsedManifest(String manifestVersion, boolean isExtension,
+        String symbolicName, Version version, int activationPolicy,
+        String activationIncludeDir, String activationExcludeDir,
+        List<BundleCapability> capabilities, List<BundleRequirement> requirements,
+        List<String> warnings)
+    {
+        m_manifestVersion = manifestVersion;
+        m_isExtension = isExtension;
+        m_symbolicName = symbolicName;
+        m_version = version;
+        m_activationPolicy = activationPolicy;
+        m_activationIncludeDir = activationIncludeDir;
+        m_activationExcludeDir = activationExcludeDir;
+        m_capabilities = capabilities;
+        m_requirements = requirements;
+        m_warnings = warnings;
+    }
+
+    String getManifestVersion()
+    {
+        return m_manifestVersion;
+    }
+
+    boolean isExtension()
+    {
+        return m_isExtension;
+    }
+
+    String getSymbolicName()
+    {
+        return m_symbolicName;
+    }
+
+    Version getBundleVersion()
+    {
+        return m_version;
+    }
+
+    int getActivationPolicy()
+    {
+        return m_activationPolicy;
+    }
+
+    String getActivationIncludeDirective()
+    {
+        return m_activationIncludeDir;
+    }
+
+    String getActivationExcludeDirective()
+    {
+        return m_activationExcludeDir;
+    }
+
+    List<BundleCapability> getCapabilities()
+    {
+        return m_capabilities;
+    }
+
+    List<BundleRequirement> getRequirements()
+    {
+        return m_requirements;
+    }
+
+    /**
+     * Returns the warnings logged while parsing the headers.
+    **/
+    List<String> getWarnings()
+    {
+        return m_warnings;
+    }
+
+    /**
+     * Returns whether the metadata parsed from the specified headers can be
+     * stored. Native code clauses are selected based on the framework
+     * configuration and extension bundles are modified by the extension
+     * manager, so neither is stored.
+    **/
+    boolean isStorable(Map<String, Object> headerMap)
+    {
+        return !m_isExtension && (headerMap.get(Constants.BUNDLE_NATIVECODE) == null);
+    }
+
+    /**
+     * Calculates the key of the metadata parsed from the specified headers.
+     * @param frameworkVersion the version of the framework parsing the headers.
+     * @param headerMap the manifest headers.
+     * @return the key of the parsed metadata.
+    **/
+    static long getKey(String frameworkVersion, Map<String, Object> headerMap)
+    {
+        long key = digest(1125899906842597L, String.valueOf(frameworkVersion));
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(headerMap).entrySet())
+        {
+            key = digest(key, entry.getKey());
+            key = digest(key, String.valueOf(entry.getValue()));
+        }
+        return key;
+    }
+
+    private static long digest(long digest, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            digest = 31 * digest + s.charAt(i);
+        }
+        return 31 * digest + s.length();
+    }
+
+    /**
+     * Loads the parsed metadata from the specified file.
+     * @param logger the logger to report errors to.
+     * @param file the file to load from.
+     * @param key the expected key of the metadata.
+     * @param owner the revision declaring the capabilities and requirements.
+     * @return the parsed metadata or <tt>null</tt> if the file does not exist,
+     *         is unreadable, or was stored for a different key.
+    **/
+    static ParsedManifest load(Logger logger, File file, long key, BundleRevision owner)
+    {
+        InputStream is = null;
+        try
+        {
+            is = Felix.m_secureAction.getFileInputStream(file);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+            if ((in.readInt() != MAGIC) || (in.readLong() != key))
+            {
+                return null;
+            }
+
+            String manifestVersion = in.readUTF();
+            boolean isExtension = in.readBoolean();
+            String symbolicName = readString(in);
+            Version version = Version.parseVersion(in.readUTF());
+            int activationPolicy = in.readInt();
+            String activationIncludeDir = readString(in);
+            String activationExcludeDir = readString(in);
+
+            int count = in.readInt();
+            List<String> warnings = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++)
+            {
+                warnings.add(in.readUTF());
+            }
+
+            count = in.readInt();
+            List<BundleCapability> caps = new ArrayList<BundleCapability>(count);
+            for (int i = 0; i < count; i++)
+            {
+                String namespace = in.readUTF().intern();
+                Map<String, String> dirs = readDirectives(in);
+                Map<String, Object> attrs = readAttributes(in, namespace);
+                caps.add(new BundleCapabilityImpl(owner, namespace, dirs, attrs));
+            }
+
+            count = in.readInt();
+            List<BundleRequirement> reqs = new ArrayList<BundleRequirement>(count);
+            for (int i = 0; i < count; i++)
+            {
+                String namespace = in.readUTF().intern();
+                Map<String, String> dirs = readDirectives(in);
+                Map<String, Object> attrs = readAttributes(in, namespace);
+                SimpleFilter filter = SimpleFilter.parse(in.readUTF());
+                reqs.add(new BundleRequirementImpl(owner, namespace, dirs, attrs, filter));
+            }
+
+            return new ParsedManifest(manifestVersion, isExtension, symbolicName,
+                version, activationPolicy, activationIncludeDir, activationExcludeDir,
+                caps, reqs, warnings);
+        }
+        catch (FileNotFoundException ex)
+        {
+            // Nothing has been stored yet.
+            return null;
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_DEBUG, "Unable to load parsed manifest.", ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (is != null) is.close();
+            }
+            catch (Exception ex)
+            {
+                logger.log(Logger.LOG_WARNING, "Unable to close parsed manifest file.", ex);
+            }
+        }
+    }
+
+    /**
+     * Stores the parsed metadata in the specified file. If the metadata
+     * contains attribute values which cannot be stored, the file is removed
+     * instead, so that the headers are parsed again next time.
+     * @param logger the logger to report errors to.
+     * @param file the file to store to.
+     * @param key the key of the metadata.
+    **/
+    void store(Logger logger, File file, long key)
+    {
+        OutputStream os = null;
+        boolean failed = false;
+        try
+        {
+            os = Felix.m_secureAction.getFileOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeLong(key);
+            out.writeUTF(m_manifestVersion);
+            out.writeBoolean(m_isExtension);
+            writeString(out, m_symbolicName);
+            out.writeUTF(m_version.toString());
+            out.writeInt(m_activationPolicy);
+            writeString(out, m_activationIncludeDir);
+            writeString(out, m_activationExcludeDir);
+
+            out.writeInt(m_warnings.size());
+            for (String warning : m_warnings)
+            {
+                out.writeUTF(warning);
+            }
+
+            out.writeInt(m_capabilities.size());
+            for (BundleCapability cap : m_capabilities)
+            {
+                out.writeUTF(cap.getNamespace());
+                writeDirectives(out, cap.getDirectives());
+                writeAttributes(out, cap.getAttributes());
+            }
+
+            out.writeInt(m_requirements.size());
+            for (BundleRequirement req : m_requirements)
+            {
+                SimpleFilter filter = ((BundleRequirementImpl) req).getFilter();
+                if (filter == null)
+                {
+                    throw new IllegalArgumentException(
+                        "Requirement without filter: " + req);
+                }
+                out.writeUTF(req.getNamespace());
+                writeDirectives(out, req.getDirectives());
+                writeAttributes(out, req.getAttributes());
+                out.writeUTF(filter.toString());
+            }
+            out.flush();
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_DEBUG, "Unable to store parsed manifest.", ex);
+            failed = true;
+        }
+        finally
+        {
+            try
+            {
+                if (os != null) os.close();
+            }
+            catch (Exception ex)
+            {
+                logger.log(Logger.LOG_WARNING, "Unable to close parsed manifest file.", ex);
+            }
+        }
+        if (failed)
+        {
+            Felix.m_secureAction.deleteFile(file);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+        {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDirectives(DataOutputStream out, Map<String, String> dirs)
+        throws IOException
+    {
+        out.writeInt(dirs.size());
+        for (Map.Entry<String, String> entry : dirs.entrySet())
+        {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readDirectives(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if (count == 0)
+        {
+            return Collections.emptyMap();
+        }
+        Map<String, String> dirs = new LinkedHashMap<String, String>(count);
+        for (int i = 0; i < count; i++)
+        {
+            dirs.put(in.readUTF().intern(), in.readUTF());
+        }
+        return dirs;
+    }
+
+    private static void writeAttributes(DataOutputStream out, Map<String, Object> attrs)
+        throws IOException
+    {
+        out.writeInt(attrs.size());
+        for (Map.Entry<String, Object> entry : attrs.entrySet())
+        {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readAttributes(DataInputStream in, String namespace)
+        throws IOException
+    {
+        int count = in.readInt();
+        if (count == 0)
+        {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> attrs = new LinkedHashMap<String, Object>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String name = in.readUTF().intern();
+            Object value = readValue(in);
+            // The namespace attribute holds the package or symbolic name.
+            if (name.equals(namespace) && (value instanceof String))
+            {
+                value = ((String) value).intern();
+            }
+            attrs.put(name, value);
+        }
+        return attrs;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value instanceof String)
+        {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        }
+        else if (value instanceof Version)
+        {
+            out.writeByte(VERSION);
+            out.writeUTF(value.toString());
+        }
+        else if (value instanceof VersionRange)
+        {
+            out.writeByte(VERSION_RANGE);
+            out.writeUTF(value.toString());
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong(((Long) value).longValue());
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (value instanceof List)
+        {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object o : list)
+            {
+                writeValue(out, o);
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported attribute value: " + value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case STRING:
+                return in.readUTF();
+            case VERSION:
+                return Version.parseVersion(in.readUTF());
+            case VERSION_RANGE:
+                return new VersionRange(in.readUTF());
+            case LONG:
+                return Long.valueOf(in.readLong());
+            case DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case LIST:
+                int count = in.readInt();
+                List<Object> list = new ArrayList<Object>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown attribute type: " + type);
+        }
+    }
+
+    /**
+     * A logger which passes all messages on to the framework logger and
+     * records the warnings, so that they can be stored with the parsed
+     * metadata.
+    **/
+    static class WarningRecorder extends Logger
+    {
+        private final Logger m_logger;
+        private final List<String> m_warnings = new ArrayList<String>();
+
+        WarningRecorder(Logger logger)
+        {
+            m_logger = logger;
+            setLogLevel(Math.max(logger.getLogLevel(), LOG_WARNING));
+        }
+
+        List<String> getWarnings()
+        {
+            return m_warnings;
+        }
+
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+            if (level == LOG_WARNING)
+            {
+                m_warnings.add(msg);
+            }
+            m_logger.log(level, msg, throwable);
+        }
+    }
+}
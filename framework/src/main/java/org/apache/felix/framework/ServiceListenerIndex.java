@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * An immutable index over service listener filters. Listeners whose filter
+ * can only match services registered under a known set of object classes are
+ * indexed by those object classes, all other listeners are kept in a separate
+ * unindexed map. Since the object class of a service registration can never
+ * change, the index is valid for all service event types, including the
+ * <tt>MODIFIED_ENDMATCH</tt> processing of modified events.
+ * <p>
+ * Like the listener maps of the <tt>EventDispatcher</tt>, instances are never
+ * mutated; all modification methods return a new index.
+**/
+class ServiceListenerIndex
+{
+    static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(
+        Collections.EMPTY_MAP, Collections.EMPTY_MAP);
+
+    private final Map<String, Map<BundleContext, List<ListenerInfo>>> m_index;
+    private final Map<BundleContext, List<ListenerInfo>> m_unindexed;
+
+    private ServiceListenerIndex(
+        Map<String, Map<BundleContext, List<ListenerInfo>>> index,
+        Map<BundleContext, List<ListenerInfo>> unindexed)
+    {
+        m_index = index;
+        m_unindexed = unindexed;
+    }
+
+    public ServiceListenerIndex add(ListenerInfo info)
+    {
+        Set<String> classes = getObjectClasses(info);
+        if (classes == null)
+        {
+            return new ServiceListenerIndex(m_index, add(m_unindexed, info));
+        }
+
+        Map<String, Map<BundleContext, List<ListenerInfo>>> index =
+            new HashMap<String, Map<BundleContext, List<ListenerInfo>>>(m_index);
+        for (String clazz : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> listeners = index.get(clazz);
+            index.put(clazz, add(
+                (listeners == null) ? Collections.EMPTY_MAP : listeners, info));
+        }
+        return new ServiceListenerIndex(index, m_unindexed);
+    }
+
+    public ServiceListenerIndex remove(ListenerInfo info)
+    {
+        Set<String> classes = getObjectClasses(info);
+        if (classes == null)
+        {
+            return new ServiceListenerIndex(m_index, remove(m_unindexed, info));
+        }
+
+        Map<String, Map<BundleContext, List<ListenerInfo>>> index =
+            new HashMap<String, Map<BundleContext, List<ListenerInfo>>>(m_index);
+        for (String clazz : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> listeners = index.remove(clazz);
+            if (listeners != null)
+            {
+                listeners = remove(listeners, info);
+                if (!listeners.isEmpty())
+                {
+                    index.put(clazz, listeners);
+                }
+            }
+        }
+        return new ServiceListenerIndex(index, m_unindexed);
+    }
+
+    /**
+     * Replaces a listener whose filter was updated. The new listener takes
+     * the position of the old one in the registration order of its bundle
+     * context, even if it is indexed under other object classes.
+     * @param oldInfo the listener to replace.
+     * @param newInfo the listener with the updated filter.
+     * @param infos the listeners of the bundle context in registration order,
+     *        already containing the new listener in place of the old one.
+     * @return the updated index.
+    **/
+    public ServiceListenerIndex replace(
+        ListenerInfo oldInfo, ListenerInfo newInfo, List<ListenerInfo> infos)
+    {
+        ServiceListenerIndex removed = remove(oldInfo);
+        Set<String> classes = getObjectClasses(newInfo);
+        if (classes == null)
+        {
+            return new ServiceListenerIndex(removed.m_index,
+                insert(removed.m_unindexed, newInfo, infos));
+        }
+
+        Map<String, Map<BundleContext, List<ListenerInfo>>> index =
+            new HashMap<String, Map<BundleContext, List<ListenerInfo>>>(removed.m_index);
+        for (String clazz : classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> listeners = index.get(clazz);
+            index.put(clazz, insert(
+                (listeners == null) ? Collections.EMPTY_MAP : listeners, newInfo, infos));
+        }
+        return new ServiceListenerIndex(index, removed.m_unindexed);
+    }
+
+    public ServiceListenerIndex removeAll(List<ListenerInfo> infos)
+    {
+        ServiceListenerIndex index = this;
+        for (int i = 0; (infos != null) && (i < infos.size()); i++)
+        {
+            index = index.remove(infos.get(i));
+        }
+        return index;
+    }
+
+    /**
+     * Returns the subset of the given listeners which could possibly match
+     * the specified service reference. The returned map contains the same
+     * listener lists as the given map whenever possible, and preserves the
+     * registration order of the listeners of each bundle context.
+     * @param ref the service reference of the service event.
+     * @param listeners the complete map of service listeners this index was
+     *        built from.
+     * @return the candidate listeners for the service event.
+    **/
+    public Map<BundleContext, List<ListenerInfo>> getCandidates(
+        ServiceReference ref, Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        if (m_index.isEmpty())
+        {
+            return listeners;
+        }
+
+        Object classes = ref.getProperty(Constants.OBJECTCLASS);
+        if (!(classes instanceof String[]))
+        {
+            return listeners;
+        }
+
+        Map<BundleContext, List<ListenerInfo>> result = m_unindexed;
+        boolean copied = false;
+        for (String clazz : (String[]) classes)
+        {
+            Map<BundleContext, List<ListenerInfo>> matches = m_index.get(clazz);
+            if (matches == null)
+            {
+                continue;
+            }
+            if (result.isEmpty())
+            {
+                result = matches;
+                continue;
+            }
+            if (!copied)
+            {
+                result = new HashMap<BundleContext, List<ListenerInfo>>(result);
+                copied = true;
+            }
+            for (Entry<BundleContext, List<ListenerInfo>> entry : matches.entrySet())
+            {
+                List<ListenerInfo> existing = result.get(entry.getKey());
+                result.put(entry.getKey(), (existing == null)
+                    ? entry.getValue()
+                    : merge(listeners.get(entry.getKey()), existing, entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines the set of object classes of which a service must be
+     * registered under at least one in order to match the filter of the
+     * specified service listener.
+     * @param info the service listener.
+     * @return the object classes or <tt>null</tt> if the listener cannot
+     *         be indexed.
+    **/
+    static Set<String> getObjectClasses(ListenerInfo info)
+    {
+        Filter filter = info.getParsedFilter();
+        if ((filter == null) || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+        try
+        {
+            return getObjectClasses(SimpleFilter.parse(filter.toString()));
+        }
+        catch (Exception ex)
+        {
+            // Filters we cannot parse are simply not indexed.
+            return null;
+        }
+    }
+
+    static Set<String> getObjectClasses(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.EQ:
+                if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                    && (sf.getValue() instanceof String))
+                {
+                    return Collections.singleton((String) sf.getValue());
+                }
+                return null;
+            case SimpleFilter.AND:
+                // Any constrained operand constrains the whole conjunction,
+                // so pick the most selective one.
+                Set<String> smallest = null;
+                for (Object o : (List) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses((SimpleFilter) o);
+                    if ((classes != null)
+                        && ((smallest == null) || (classes.size() < smallest.size())))
+                    {
+                        smallest = classes;
+                    }
+                }
+                return smallest;
+            case SimpleFilter.OR:
+                // A disjunction is only constrained if all operands are.
+                Set<String> union = new HashSet<String>();
+                for (Object o : (List) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses((SimpleFilter) o);
+                    if (classes == null)
+                    {
+                        return null;
+                    }
+                    union.addAll(classes);
+                }
+                return union.isEmpty() ? null : union;
+            default:
+                return null;
+        }
+    }
+
+    private static Map<BundleContext, List<ListenerInfo>> add(
+        Map<BundleContext, List<ListenerInfo>> listeners, ListenerInfo info)
+    {
+        Map<BundleContext, List<ListenerInfo>> copy =
+            new HashMap<BundleContext, List<ListenerInfo>>(listeners);
+        List<ListenerInfo> infos = copy.get(info.getBundleContext());
+        infos = (infos == null)
+            ? new ArrayList<ListenerInfo>(1) : new ArrayList<ListenerInfo>(infos);
+        infos.add(info);
+        copy.put(info.getBundleContext(), infos);
+        return copy;
+    }
+
+    private static Map<BundleContext, List<ListenerInfo>> insert(
+        Map<BundleContext, List<ListenerInfo>> listeners, ListenerInfo info,
+        List<ListenerInfo> all)
+    {
+        Map<BundleContext, List<ListenerInfo>> copy =
+            new HashMap<BundleContext, List<ListenerInfo>>(listeners);
+        List<ListenerInfo> infos = copy.get(info.getBundleContext());
+        copy.put(info.getBundleContext(), merge(all,
+            (infos == null) ? Collections.<ListenerInfo>emptyList() : infos,
+            Collections.singletonList(info)));
+        return copy;
+    }
+
+    private static Map<BundleContext, List<ListenerInfo>> remove(
+        Map<BundleContext, List<ListenerInfo>> listeners, ListenerInfo info)
+    {
+        List<ListenerInfo> infos = listeners.get(info.getBundleContext());
+        for (int i = 0; (infos != null) && (i < infos.size()); i++)
+        {
+            // Listener infos are compared by identity, since equal infos
+            // may be registered for the same listener more than once.
+            if (infos.get(i) == info)
+            {
+                Map<BundleContext, List<ListenerInfo>> copy =
+                    new HashMap<BundleContext, List<ListenerInfo>>(listeners);
+                infos = new ArrayList<ListenerInfo>(infos);
+                infos.remove(i);
+                if (infos.isEmpty())
+                {
+                    copy.remove(info.getBundleContext());
+                }
+                else
+                {
+                    copy.put(info.getBundleContext(), infos);
+                }
+                return copy;
+            }
+        }
+        return listeners;
+    }
+
+    private static List<ListenerInfo> merge(
+        List<ListenerInfo> all, List<ListenerInfo> first, List<ListenerInfo> second)
+    {
+        Set<ListenerInfo> candidates = Collections.newSetFromMap(
+            new IdentityHashMap<ListenerInfo, Boolean>());
+        candidates.addAll(first);
+        candidates.addAll(second);
+        List<ListenerInfo> merged = new ArrayList<ListenerInfo>(candidates.size());
+        for (int i = 0; (all != null) && (i < all.size()); i++)
+        {
+            if (candidates.contains(all.get(i)))
+            {
+                merged.add(all.get(i));
+            }
+        }
+        return merged;
+    }
+}
@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.felix.framework.util.MapToDictionary;
+import org.apache.felix.framework.util.CaseInsensitiveMap;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -61,7 +62,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
     // Service factory interface.
     private volatile ServiceFactory m_factory;
     // Associated property dictionary.
-    private volatile Map<String, Object> m_propMap = new StringMap();
+    private volatile Map<String, Object> m_propMap = CaseInsensitiveMap.EMPTY;
     // Re-usable service reference.
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
@@ -336,8 +337,9 @@ class ServiceRegistrationImpl implements ServiceRegistration
             props.put(Constants.SERVICE_SCOPE, Constants.SCOPE_SINGLETON);
         }
 
-        // Update the service property map.
-        m_propMap = props;
+        // Update the service property map, which is looked up for every
+        // filter match and service event.
+        m_propMap = new CaseInsensitiveMap(props);
     }
 
     private Object getFactoryUnchecked(Bundle bundle)
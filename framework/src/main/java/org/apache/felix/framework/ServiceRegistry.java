@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -55,6 +56,14 @@ public class ServiceRegistry
     // Capability set for all service registrations.
     private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
 
+    // Maps object class to an immutable array of service references sorted
+    // by ranking, highest first. Arrays are replaced, never modified, so
+    // lookups by class name need no locking.
+    private final ConcurrentMap<String, ServiceReference<?>[]> m_snapshots = new ConcurrentHashMap<String, ServiceReference<?>[]>();
+
+    // Serializes snapshot updates.
+    private final Object m_snapshotLock = new Object();
+
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
 
@@ -136,6 +145,7 @@ public class ServiceRegistry
             regs.add(reg);
         }
         m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
+        updateSnapshots(reg.getReference(), true);
 
         return reg;
     }
@@ -163,6 +173,7 @@ public class ServiceRegistry
             }
         }
         m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+        updateSnapshots(reg.getReference(), false);
 
         // Notify callback objects about unregistering service.
         if (m_callbacks != null)
@@ -251,23 +262,30 @@ public class ServiceRegistry
 
     public Collection<Capability> getServiceReferences(final String className, SimpleFilter filter)
     {
-        if ((className == null) && (filter == null))
+        if (className != null)
         {
-            // Return all services.
-            filter = new SimpleFilter(null, null, SimpleFilter.MATCH_ALL);
-        }
-        else if ((className != null) && (filter == null))
-        {
-            // Return services matching the class name.
-            filter = new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ);
+            // Use the published snapshot for the class name, which is
+            // already sorted by ranking.
+            final ServiceReference<?>[] refs = m_snapshots.get(className);
+            if (refs == null)
+            {
+                return new ArrayList<Capability>(0);
+            }
+            final List<Capability> matches = new ArrayList<Capability>(refs.length);
+            for (final ServiceReference<?> ref : refs)
+            {
+                if ((filter == null)
+                    || CapabilitySet.matches((BundleCapabilityImpl) ref, filter))
+                {
+                    matches.add((BundleCapabilityImpl) ref);
+                }
+            }
+            return matches;
         }
-        else if ((className != null) && (filter != null))
+        else if (filter == null)
         {
-            // Return services matching the class name and filter.
-            final List<SimpleFilter> filters = new ArrayList<SimpleFilter>(2);
-            filters.add(new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ));
-            filters.add(filter);
-            filter = new SimpleFilter(null, filters, SimpleFilter.AND);
+            // Return all services.
+            filter = new SimpleFilter(null, null, SimpleFilter.MATCH_ALL);
         }
         // else just use the specified filter.
 
@@ -430,10 +448,23 @@ public class ServiceRegistry
     }
 
     // Increment the Atomic Long by 1, and ensure the result is at least 1.
-    // This method uses a loop, optimistic algorithm to do this in a threadsafe
-    // way without locks.
+    // The common case is a single atomic add, which cannot fail under
+    // contention; only a counter that dropped below zero falls back to a
+    // loop, optimistic algorithm to do this in a threadsafe way without locks.
     private void incrementToPositiveValue(AtomicLong al)
     {
+        final long fast = al.incrementAndGet();
+        if (fast >= 1L)
+        {
+            if (fast == Long.MAX_VALUE)
+            {
+                al.decrementAndGet();
+                checkCountOverflow(fast);
+            }
+            return;
+        }
+
+        // The counter was negative, so raise it to at least 1.
         boolean success = false;
 
         while (!success)
@@ -619,6 +650,8 @@ public class ServiceRegistry
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<?,?> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
+        // The ranking may have changed, so re-sort the snapshots.
+        sortSnapshots(reg.getReference());
         if (m_callbacks != null)
         {
             m_callbacks.serviceChanged(
@@ -631,6 +664,74 @@ public class ServiceRegistry
         return m_logger;
     }
 
+    /**
+     * Publishes new snapshots for every object class of the given service
+     * reference. The reference is removed from each snapshot and, if
+     * <tt>add</tt> is true, inserted again at the position given by its
+     * current ranking.
+     * @param ref the changed service reference.
+     * @param add <tt>true</tt> if the reference is registered.
+    **/
+    private void updateSnapshots(final ServiceReference<?> ref, final boolean add)
+    {
+        final String[] classNames = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+        synchronized (m_snapshotLock)
+        {
+            for (final String className : classNames)
+            {
+                final ServiceReference<?>[] refs = m_snapshots.get(className);
+                final List<ServiceReference<?>> list = new ArrayList<ServiceReference<?>>(
+                    (refs == null) ? 1 : refs.length + 1);
+                for (int i = 0; (refs != null) && (i < refs.length); i++)
+                {
+                    if (refs[i] != ref)
+                    {
+                        list.add(refs[i]);
+                    }
+                }
+                if (add)
+                {
+                    list.add(ref);
+                    Collections.sort(list, Collections.reverseOrder());
+                }
+                if (list.isEmpty())
+                {
+                    m_snapshots.remove(className);
+                }
+                else
+                {
+                    m_snapshots.put(className, list.toArray(new ServiceReference<?>[list.size()]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes re-sorted snapshots for every object class of the given
+     * service reference after its ranking may have changed. Snapshots which
+     * do not contain the reference are left alone, since the service may
+     * have been unregistered concurrently, so a reference is never added.
+     * @param ref the modified service reference.
+    **/
+    private void sortSnapshots(final ServiceReference<?> ref)
+    {
+        final String[] classNames = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+        synchronized (m_snapshotLock)
+        {
+            for (final String className : classNames)
+            {
+                final ServiceReference<?>[] refs = m_snapshots.get(className);
+                if ((refs == null) || !Arrays.asList(refs).contains(ref))
+                {
+                    continue;
+                }
+                final ServiceReference<?>[] sorted = refs.clone();
+                Arrays.sort(sorted, Collections.reverseOrder());
+                m_snapshots.put(className, sorted);
+            }
+        }
+    }
+
     /**
      * Obtain a UsageCount object, by looking for an existing one or creating a new one (if possible).
      * This method tries to find a UsageCount object in the {@code m_inUseMap}. If one is found then
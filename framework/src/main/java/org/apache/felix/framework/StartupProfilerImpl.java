@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.framework.startup.BundleStartupDTO;
+import org.apache.felix.framework.startup.StartupDTO;
+import org.apache.felix.framework.startup.StartupProfiler;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Resource;
+
+/**
+ * Records per bundle counters for the startup profiler. The framework only
+ * creates an instance if profiling is enabled, and callers skip measuring
+ * entirely otherwise, so profiling costs nothing when it is disabled.
+ * Recording stops once the framework has started.
+**/
+class StartupProfilerImpl implements StartupProfiler
+{
+    private final long m_initTime = System.nanoTime();
+    private volatile long m_startTime = -1;
+    private volatile boolean m_recording = true;
+    private final AtomicLong m_resolveTime = new AtomicLong();
+    private final ConcurrentMap<Long, Counters> m_counters =
+        new ConcurrentHashMap<Long, Counters>();
+
+    void started()
+    {
+        if (m_startTime < 0)
+        {
+            m_startTime = System.nanoTime() - m_initTime;
+        }
+        m_recording = false;
+    }
+
+    boolean isRecording()
+    {
+        return m_recording;
+    }
+
+    void resolved(Collection<Resource> revisions, long time)
+    {
+        if (!m_recording || revisions.isEmpty())
+        {
+            return;
+        }
+        m_resolveTime.addAndGet(time);
+        // Share the time of a batch among its bundles, so that it is
+        // only accounted for once.
+        long share = time / revisions.size();
+        for (Resource revision : revisions)
+        {
+            getCounters(((BundleRevision) revision).getBundle())
+                .m_resolveTime.addAndGet(share);
+        }
+    }
+
+    void activated(Bundle bundle, long time)
+    {
+        if (!m_recording)
+        {
+            return;
+        }
+        getCounters(bundle).m_activationTime.addAndGet(time);
+    }
+
+    void classDefined(Bundle bundle, int bytes, long time)
+    {
+        if (!m_recording)
+        {
+            return;
+        }
+        Counters counters = getCounters(bundle);
+        counters.m_classesDefined.incrementAndGet();
+        counters.m_bytesRead.addAndGet(bytes);
+        counters.m_classDefineTime.addAndGet(time);
+    }
+
+    void serviceEventDelivered(Bundle bundle, long time)
+    {
+        if (!m_recording)
+        {
+            return;
+        }
+        Counters counters = getCounters(bundle);
+        counters.m_serviceEvents.incrementAndGet();
+        counters.m_serviceEventTime.addAndGet(time);
+    }
+
+    public StartupDTO getStartupDTO()
+    {
+        List<BundleStartupDTO> bundles = new ArrayList<BundleStartupDTO>(m_counters.size());
+        for (Counters counters : m_counters.values())
+        {
+            BundleStartupDTO dto = new BundleStartupDTO();
+            dto.id = counters.m_id;
+            dto.symbolicName = counters.m_symbolicName;
+            dto.resolveTime = counters.m_resolveTime.get();
+            dto.activationTime = counters.m_activationTime.get();
+            dto.classesDefined = counters.m_classesDefined.get();
+            dto.bytesRead = counters.m_bytesRead.get();
+            dto.classDefineTime = counters.m_classDefineTime.get();
+            dto.serviceEvents = counters.m_serviceEvents.get();
+            dto.serviceEventTime = counters.m_serviceEventTime.get();
+            bundles.add(dto);
+        }
+        Collections.sort(bundles, new Comparator<BundleStartupDTO>()
+        {
+            public int compare(BundleStartupDTO o1, BundleStartupDTO o2)
+            {
+                return (o1.id < o2.id) ? -1 : ((o1.id == o2.id) ? 0 : 1);
+            }
+        });
+
+        StartupDTO dto = new StartupDTO();
+        dto.startTime = m_startTime;
+        dto.resolveTime = m_resolveTime.get();
+        dto.bundles = bundles.toArray(new BundleStartupDTO[bundles.size()]);
+        return dto;
+    }
+
+    private Counters getCounters(Bundle bundle)
+    {
+        Long id = bundle.getBundleId();
+        Counters counters = m_counters.get(id);
+        if (counters == null)
+        {
+            counters = new Counters(id, bundle.getSymbolicName());
+            Counters previous = m_counters.putIfAbsent(id, counters);
+            if (previous != null)
+            {
+                counters = previous;
+            }
+        }
+        return counters;
+    }
+
+    private static final class Counters
+    {
+        final long m_id;
+        final String m_symbolicName;
+        final AtomicLong m_resolveTime = new AtomicLong();
+        final AtomicLong m_activationTime = new AtomicLong();
+        final AtomicInteger m_classesDefined = new AtomicInteger();
+        final AtomicLong m_bytesRead = new AtomicLong();
+        final AtomicLong m_classDefineTime = new AtomicLong();
+        final AtomicInteger m_serviceEvents = new AtomicInteger();
+        final AtomicLong m_serviceEventTime = new AtomicLong();
+
+        Counters(long id, String symbolicName)
+        {
+            m_id = id;
+            m_symbolicName = symbolicName;
+        }
+    }
+}
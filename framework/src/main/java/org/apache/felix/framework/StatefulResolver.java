@@ -30,6 +30,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -37,6 +39,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
@@ -48,6 +51,7 @@ import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.apache.felix.resolver.PackageSpaceCache;
 import org.apache.felix.resolver.ResolverImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
@@ -79,10 +83,22 @@ class StatefulResolver
     private final ServiceRegistry m_registry;
     private final Executor m_executor;
     private final ResolverImpl m_resolver;
+    // Package spaces of resolved revisions, or null if disabled.
+    private final PackageSpaceCache m_packageSpaceCache;
     private boolean m_isResolving = false;
+    // Wirings persisted by a previous framework run, if any.
+    private volatile WiringCache m_wiringCache;
 
     // Set of all revisions.
     private final Set<BundleRevision> m_revisions;
+    // Incremented whenever the set of revisions changes.
+    private volatile long m_generation;
+    // Packages which could not be dynamically imported by a revision in
+    // the generation recorded with them.
+    private final ConcurrentMap<BundleRevision, Set<String>> m_dynamicMisses =
+        new ConcurrentHashMap<BundleRevision, Set<String>>();
+    private volatile long m_dynamicMissGeneration = -1;
+    private final AtomicLong m_dynamicMissHits = new AtomicLong();
     // Set of all fragments.
     private final Set<BundleRevision> m_fragments;
     // Capability sets.
@@ -98,7 +114,10 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        m_packageSpaceCache = "false".equalsIgnoreCase(
+            m_felix.getProperty(FelixConstants.RESOLVER_INCREMENTAL_PROP))
+            ? null : new PackageSpaceCache();
+        m_resolver = new ResolverImpl(m_logger, m_executor, m_packageSpaceCache);
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -174,6 +193,31 @@ class StatefulResolver
                 null);
     }
 
+    /**
+     * Sets the wirings persisted by a previous framework run, which are used
+     * instead of the resolver until the first resolve operation which cannot
+     * be satisfied from them.
+     * @param wiringCache the cached wirings or <tt>null</tt>.
+    **/
+    void setWiringCache(WiringCache wiringCache)
+    {
+        m_wiringCache = wiringCache;
+    }
+
+    /**
+     * Returns the generation of the resolver state, which changes whenever
+     * revisions are added, removed, or re-indexed after being resolved. Any
+     * resolve operation that failed in a generation fails again as long as
+     * the generation does not change, unless resolver hooks are involved.
+     * @return the current generation or <tt>-1</tt> if resolver hooks are
+     *         registered.
+    **/
+    long getGeneration()
+    {
+        return m_felix.getHookRegistry().getHooks(ResolverHookFactory.class).isEmpty()
+            ? m_generation : -1;
+    }
+
     synchronized void addRevision(BundleRevision br)
     {
         // Always attempt to remove the revision, since
@@ -182,6 +226,7 @@ class StatefulResolver
         removeRevision(br);
 
         m_revisions.add(br);
+        m_generation++;
 
         // Add singletons to the singleton map.
         boolean isSingleton = Util.isSingleton(br);
@@ -209,6 +254,12 @@ class StatefulResolver
     {
         if (m_revisions.remove(br))
         {
+            m_generation++;
+            if (m_packageSpaceCache != null)
+            {
+                m_packageSpaceCache.remove(br);
+            }
+            m_dynamicMisses.remove(br);
             m_fragments.remove(br);
             deindexCapabilities(br);
 
@@ -426,6 +477,8 @@ class StatefulResolver
         }
         m_isResolving = true;
 
+        StartupProfilerImpl profiler = m_felix.getStartupProfiler();
+        long start = (profiler != null) ? System.nanoTime() : 0;
         Map<Resource, List<Wire>> wireMap = null;
         try
         {
@@ -474,15 +527,20 @@ class StatefulResolver
             ResolutionException rethrow = null;
             try
             {
-                // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                // Try to reinstate the cached wirings first.
+                wireMap = getCachedWireMap(record, mandatory, optional);
+                if (wireMap == null)
+                {
+                    // Resolve the revision.
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
             }
             catch (ResolutionException ex)
             {
@@ -500,6 +558,10 @@ class StatefulResolver
 
             // Otherwise, mark all revisions as resolved.
             markResolvedRevisions(wireMap);
+            if (profiler != null)
+            {
+                profiler.resolved(wireMap.keySet(), System.nanoTime() - start);
+            }
         }
         finally
         {
@@ -512,11 +574,57 @@ class StatefulResolver
         fireResolvedEvents(wireMap);
     }
 
+    /**
+     * Calculates the wire map for the specified revisions from the cached
+     * wirings. The cached wirings are only used while all resolve operations
+     * can be satisfied from them, since any wiring computed by the resolver
+     * may be inconsistent with the cached ones; the same holds if resolver
+     * hooks or security may influence the result.
+     * @return the wire map or <tt>null</tt> if the resolver must be used.
+    **/
+    private synchronized Map<Resource, List<Wire>> getCachedWireMap(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        if (m_wiringCache == null)
+        {
+            return null;
+        }
+
+        Map<Resource, List<Wire>> wireMap = null;
+        if (record.getResolverHookRefs().isEmpty()
+            && (System.getSecurityManager() == null))
+        {
+            Set<BundleRevision> revisions = new HashSet<BundleRevision>(mandatory);
+            revisions.addAll(optional);
+            wireMap = m_wiringCache.getWireMap(revisions, m_revisions);
+        }
+
+        if (wireMap == null)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Cached wirings are out of date, using the resolver from now on.");
+            m_wiringCache = null;
+        }
+        return wireMap;
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolutionException, BundleException
     {
         BundleRevision provider = null;
 
+        // A dynamic import which failed cannot succeed before bundles are
+        // installed, uninstalled, resolved or refreshed, all of which change
+        // the generation, so do not look for candidates again until then.
+        long generation = getGeneration();
+        if ((revision.getWiring() != null) && isDynamicMiss(revision, pkgName, generation))
+        {
+            m_dynamicMissHits.incrementAndGet();
+            return null;
+        }
+
         // We cannot dynamically import if the revision is not already resolved
         // or if it is not allowed, so check that first. Note: We check if the
         // dynamic import is allowed without holding any locks, but this is
@@ -639,6 +747,13 @@ class StatefulResolver
                     if ((wireMap != null) && wireMap.containsKey(revision))
                     {
                         List<Wire> dynamicWires = wireMap.remove(revision);
+
+                        // Any other revision resolved along with the dynamic
+                        // import invalidates the cached wirings.
+                        if (!wireMap.isEmpty())
+                        {
+                            m_wiringCache = null;
+                        }
                         Wire dynamicWire = dynamicWires.get(0);
 
                         // Mark all revisions as resolved.
@@ -680,6 +795,11 @@ class StatefulResolver
                     }
                 }
             }
+            catch (ResolutionException ex)
+            {
+                addDynamicMiss(revision, pkgName, generation);
+                throw ex;
+            }
             finally
             {
                 // Clear resolving flag.
@@ -691,9 +811,56 @@ class StatefulResolver
             fireResolvedEvents(wireMap);
         }
 
+        if ((provider == null) && (revision.getWiring() != null))
+        {
+            addDynamicMiss(revision, pkgName, generation);
+        }
+
         return provider;
     }
 
+    private boolean isDynamicMiss(BundleRevision revision, String pkgName, long generation)
+    {
+        if ((generation == -1) || (generation != m_dynamicMissGeneration))
+        {
+            return false;
+        }
+        Set<String> pkgs = m_dynamicMisses.get(revision);
+        return (pkgs != null) && pkgs.contains(pkgName);
+    }
+
+    private synchronized void addDynamicMiss(
+        BundleRevision revision, String pkgName, long generation)
+    {
+        // Only record the miss if nothing changed since the lookup started,
+        // since generations are only incremented while holding this lock.
+        if ((generation == -1) || (generation != getGeneration()))
+        {
+            return;
+        }
+        if (generation != m_dynamicMissGeneration)
+        {
+            m_dynamicMisses.clear();
+            m_dynamicMissGeneration = generation;
+        }
+        Set<String> pkgs = m_dynamicMisses.get(revision);
+        if (pkgs == null)
+        {
+            pkgs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            m_dynamicMisses.put(revision, pkgs);
+        }
+        pkgs.add(pkgName);
+    }
+
+    /**
+     * Returns the number of dynamic imports which were not attempted because
+     * they already failed in the current generation.
+    **/
+    long getDynamicMissHits()
+    {
+        return m_dynamicMissHits.get();
+    }
+
     private BundleRequirementImpl findDynamicRequirement(List<BundleRequirement> dynamics, List<BundleCapability> candidates)
     {
         for (int dynIdx = 0; (candidates.size() > 0)  && (dynIdx < dynamics.size()); dynIdx++)
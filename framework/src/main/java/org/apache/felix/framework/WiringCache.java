@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * A persistent snapshot of the wirings of all resolved bundle revisions,
+ * which allows the framework to reinstate the wirings of an unchanged bundle
+ * cache on restart instead of resolving the bundles again. Revisions are
+ * identified by their revision identifier, which is stable across restarts,
+ * and validated against the last modified time of their bundle and a digest
+ * of their declared capabilities and requirements. Wires refer to the
+ * requirements and capabilities by their index in the declaring revision.
+ * <p>
+ * Since the snapshot is taken from a consistent framework state, any closure
+ * of it over required wires and attached fragments is also consistent, as
+ * long as all revisions it contains are still the same.
+**/
+class WiringCache
+{
+    static final String WIRING_CACHE_FILE = "wiring.info";
+
+    private static final String VERSION = "1";
+    private static final String REVISION = "R";
+    private static final String WIRE = "W";
+
+    // Persisted revision entries by revision identifier.
+    private final Map<String, RevisionEntry> m_entries;
+    // Fragment revision identifiers by host revision identifier.
+    private final Map<String, List<String>> m_fragments;
+    // Live revisions which have already been validated.
+    private final Map<BundleRevision, Boolean> m_validated =
+        new IdentityHashMap<BundleRevision, Boolean>();
+
+    private WiringCache(Map<String, RevisionEntry> entries)
+    {
+        m_entries = entries;
+        m_fragments = new HashMap<String, List<String>>();
+        for (RevisionEntry entry : entries.values())
+        {
+            if (entry.m_fragment)
+            {
+                for (WireEntry wire : entry.m_wires)
+                {
+                    List<String> fragments = m_fragments.get(wire.m_provider);
+                    if (fragments == null)
+                    {
+                        fragments = new ArrayList<String>();
+                        m_fragments.put(wire.m_provider, fragments);
+                    }
+                    fragments.add(entry.m_id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the wire map needed to resolve the specified revisions from
+     * the cached wirings. The wire map contains the specified revisions as
+     * well as all unresolved revisions they depend on or host, as would be
+     * returned by the resolver.
+     * @param revisions the revisions to resolve.
+     * @param live the revisions currently known to the resolver.
+     * @return the wire map or <tt>null</tt> if any live revision is not
+     *         cached or any revision of the closure has changed.
+    **/
+    synchronized Map<Resource, List<Wire>> getWireMap(
+        Collection<BundleRevision> revisions, Set<BundleRevision> live)
+    {
+        Map<String, BundleRevision> liveById = new HashMap<String, BundleRevision>();
+        for (BundleRevision br : live)
+        {
+            // A revision which has not been cached, e.g., a new fragment of
+            // a cached host or a new exporter, may change the wirings the
+            // resolver would choose for the cached revisions.
+            if (!m_entries.containsKey(getId(br)))
+            {
+                return null;
+            }
+            liveById.put(getId(br), br);
+        }
+
+        // Calculate the closure of unresolved revisions.
+        Map<String, BundleRevision> closure = new LinkedHashMap<String, BundleRevision>();
+        List<BundleRevision> pending = new ArrayList<BundleRevision>(revisions);
+        while (!pending.isEmpty())
+        {
+            BundleRevision br = pending.remove(pending.size() - 1);
+            String id = getId(br);
+            if ((br.getWiring() != null) || closure.containsKey(id))
+            {
+                continue;
+            }
+            RevisionEntry entry = m_entries.get(id);
+            if ((entry == null) || (liveById.get(id) != br) || !isValid(br, entry))
+            {
+                return null;
+            }
+            closure.put(id, br);
+
+            for (WireEntry wire : entry.m_wires)
+            {
+                BundleRevision provider = liveById.get(wire.m_provider);
+                if (provider == null)
+                {
+                    return null;
+                }
+                pending.add(provider);
+            }
+            List<String> fragments = m_fragments.get(id);
+            for (int i = 0; (fragments != null) && (i < fragments.size()); i++)
+            {
+                BundleRevision fragment = liveById.get(fragments.get(i));
+                if (fragment == null)
+                {
+                    return null;
+                }
+                // Fragments may already be attached to other hosts, in which
+                // case they have to be attached to this host as well.
+                if (fragment.getWiring() != null)
+                {
+                    if (!isValid(fragment, m_entries.get(fragments.get(i))))
+                    {
+                        return null;
+                    }
+                    closure.put(fragments.get(i), fragment);
+                }
+                else
+                {
+                    pending.add(fragment);
+                }
+            }
+        }
+
+        // Now create the wires of all revisions of the closure.
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        for (Map.Entry<String, BundleRevision> revision : closure.entrySet())
+        {
+            BundleRevision br = revision.getValue();
+            RevisionEntry entry = m_entries.get(revision.getKey());
+            List<Wire> wires = new ArrayList<Wire>(entry.m_wires.size());
+            for (WireEntry wire : entry.m_wires)
+            {
+                // Fragments can only attach to hosts which are resolved
+                // along with them, so skip wires to already resolved hosts.
+                if (entry.m_fragment && !closure.containsKey(wire.m_provider))
+                {
+                    continue;
+                }
+                BundleRevision provider = liveById.get(wire.m_provider);
+                BundleRevision reqOwner = liveById.get(wire.m_requirementOwner);
+                BundleRevision capOwner = liveById.get(wire.m_capabilityOwner);
+                if ((reqOwner == null) || (capOwner == null)
+                    || !isValid(reqOwner, m_entries.get(wire.m_requirementOwner))
+                    || !isValid(capOwner, m_entries.get(wire.m_capabilityOwner)))
+                {
+                    return null;
+                }
+                List<BundleRequirement> reqs = reqOwner.getDeclaredRequirements(null);
+                List<BundleCapability> caps = capOwner.getDeclaredCapabilities(null);
+                if ((wire.m_requirement >= reqs.size()) || (wire.m_capability >= caps.size()))
+                {
+                    return null;
+                }
+                wires.add(new BundleWireImpl(
+                    br, reqs.get(wire.m_requirement), provider, caps.get(wire.m_capability)));
+            }
+            if (entry.m_fragment && wires.isEmpty())
+            {
+                return null;
+            }
+            wireMap.put(br, wires);
+        }
+        return wireMap;
+    }
+
+    private boolean isValid(BundleRevision br, RevisionEntry entry)
+    {
+        if (entry == null)
+        {
+            return false;
+        }
+        Boolean valid = m_validated.get(br);
+        if (valid == null)
+        {
+            valid = Boolean.valueOf(
+                (entry.m_lastModified == br.getBundle().getLastModified())
+                && (entry.m_digest == getDigest(br)));
+            m_validated.put(br, valid);
+        }
+        return valid.booleanValue();
+    }
+
+    /**
+     * Loads the cached wirings from the specified file.
+     * @param file the file to load from.
+     * @param logger the logger to report errors to.
+     * @return the cached wirings or <tt>null</tt> if there are none.
+    **/
+    static WiringCache load(File file, Logger logger)
+    {
+        Map<String, RevisionEntry> entries = new HashMap<String, RevisionEntry>();
+        InputStream is = null;
+        BufferedReader br = null;
+        try
+        {
+            is = Felix.m_secureAction.getFileInputStream(file);
+            br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+
+            if (!VERSION.equals(br.readLine()))
+            {
+                return null;
+            }
+
+            RevisionEntry entry = null;
+            for (String line = br.readLine(); line != null; line = br.readLine())
+            {
+                String[] tokens = line.split(" ");
+                if (tokens[0].equals(REVISION))
+                {
+                    entry = new RevisionEntry(
+                        tokens[1],
+                        Long.parseLong(tokens[2]),
+                        Long.parseLong(tokens[3]),
+                        Boolean.valueOf(tokens[4]).booleanValue());
+                    entries.put(entry.m_id, entry);
+                }
+                else if (tokens[0].equals(WIRE) && (entry != null))
+                {
+                    entry.m_wires.add(new WireEntry(
+                        tokens[1],
+                        Integer.parseInt(tokens[2]),
+                        tokens[3],
+                        tokens[4],
+                        Integer.parseInt(tokens[5])));
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Invalid entry: " + line);
+                }
+            }
+        }
+        catch (FileNotFoundException ex)
+        {
+            // Nothing has been cached yet.
+            return null;
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_WARNING, "Unable to read cached wirings.", ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (br != null) br.close();
+                if (is != null) is.close();
+            }
+            catch (Exception ex)
+            {
+                logger.log(Logger.LOG_WARNING, "Unable to close cached wirings file.", ex);
+            }
+        }
+
+        return new WiringCache(entries);
+    }
+
+    /**
+     * Saves the wirings of the specified revisions to the specified file.
+     * Revisions which are not resolved or whose wires cannot be expressed in
+     * terms of declared requirements and capabilities are skipped. Dynamic
+     * wires are never saved, since they are established on demand.
+     * @param file the file to save to.
+     * @param revisions the current revisions of all installed bundles.
+     * @param logger the logger to report errors to.
+    **/
+    static void save(File file, Collection<BundleRevision> revisions, Logger logger)
+    {
+        OutputStream os = null;
+        BufferedWriter bw = null;
+        try
+        {
+            os = Felix.m_secureAction.getFileOutputStream(file);
+            bw = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+            bw.write(VERSION);
+            bw.newLine();
+
+            for (BundleRevision br : revisions)
+            {
+                BundleWiring wiring = br.getWiring();
+                if (wiring == null)
+                {
+                    continue;
+                }
+
+                List<String> wires = new ArrayList<String>();
+                for (BundleWire wire : wiring.getRequiredWires(null))
+                {
+                    if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                        wire.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+                    {
+                        continue;
+                    }
+                    BundleRevision reqOwner = wire.getRequirement().getRevision();
+                    BundleRevision capOwner = wire.getCapability().getRevision();
+                    int req = indexOf(reqOwner.getDeclaredRequirements(null), wire.getRequirement());
+                    int cap = indexOf(capOwner.getDeclaredCapabilities(null), wire.getCapability());
+                    if ((req < 0) || (cap < 0))
+                    {
+                        wires = null;
+                        break;
+                    }
+                    wires.add(WIRE
+                        + " " + getId(reqOwner)
+                        + " " + req
+                        + " " + getId(wire.getProvider())
+                        + " " + getId(capOwner)
+                        + " " + cap);
+                }
+                if (wires == null)
+                {
+                    continue;
+                }
+
+                bw.write(REVISION
+                    + " " + getId(br)
+                    + " " + br.getBundle().getLastModified()
+                    + " " + getDigest(br)
+                    + " " + ((br.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0));
+                bw.newLine();
+                for (String wire : wires)
+                {
+                    bw.write(wire);
+                    bw.newLine();
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_WARNING, "Unable to save cached wirings.", ex);
+            Felix.m_secureAction.deleteFile(file);
+        }
+        finally
+        {
+            try
+            {
+                if (bw != null) bw.close();
+                if (os != null) os.close();
+            }
+            catch (Exception ex)
+            {
+                logger.log(Logger.LOG_WARNING, "Unable to close cached wirings file.", ex);
+            }
+        }
+    }
+
+    private static String getId(BundleRevision br)
+    {
+        return ((BundleRevisionImpl) br).getId();
+    }
+
+    private static int indexOf(List<?> list, Object o)
+    {
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == o)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Calculates a digest of the declared capabilities and requirements of
+     * the specified revision, which also covers capabilities that are not
+     * derived from the bundle content, such as the system packages.
+    **/
+    static long getDigest(BundleRevision br)
+    {
+        long digest = 1125899906842597L;
+        for (BundleCapability cap : br.getDeclaredCapabilities(null))
+        {
+            digest = digest(digest, cap.getNamespace());
+            digest = digest(digest, cap.getDirectives().toString());
+            digest = digest(digest, cap.getAttributes().toString());
+        }
+        for (BundleRequirement req : br.getDeclaredRequirements(null))
+        {
+            digest = digest(digest, req.getNamespace());
+            digest = digest(digest, req.getDirectives().toString());
+            digest = digest(digest, req.getAttributes().toString());
+        }
+        return digest;
+    }
+
+    private static long digest(long digest, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            digest = 31 * digest + s.charAt(i);
+        }
+        return 31 * digest + s.length();
+    }
+
+    private static class RevisionEntry
+    {
+        final String m_id;
+        final long m_lastModified;
+        final long m_digest;
+        final boolean m_fragment;
+        final List<WireEntry> m_wires = new ArrayList<WireEntry>();
+
+        RevisionEntry(String id, long lastModified, long digest, boolean fragment)
+        {
+            m_id = id;
+            m_lastModified = lastModified;
+            m_digest = digest;
+            m_fragment = fragment;
+        }
+    }
+
+    private static class WireEntry
+    {
+        final String m_requirementOwner;
+        final int m_requirement;
+        final String m_provider;
+        final String m_capabilityOwner;
+        final int m_capability;
+
+        WireEntry(String requirementOwner, int requirement,
+            String provider, String capabilityOwner, int capability)
+        {
+            m_requirementOwner = requirementOwner;
+            m_requirement = requirement;
+            m_provider = provider;
+            m_capabilityOwner = capabilityOwner;
+            m_capability = capability;
+        }
+    }
+}
@@ -79,6 +79,9 @@ public class BundleArchive
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
     private final File m_archiveRootDir;
+    // The bundle cache index, if metadata is kept there instead of in
+    // the bundle info file.
+    private BundleCacheIndex m_index;
 
     private long m_id = -1;
     private String m_originalLocation = null;
@@ -124,8 +127,18 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir, long id, int startLevel, String location, InputStream is)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, archiveRootDir, id, startLevel,
+            location, is, null);
+    }
+
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        File archiveRootDir, long id, int startLevel, String location, InputStream is,
+        BundleCacheIndex index)
+        throws Exception
     {
         m_logger = logger;
+        m_index = index;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
         m_archiveRootDir = archiveRootDir;
@@ -163,13 +176,61 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, archiveRootDir, null, null);
+    }
+
+    /**
+     * <p>
+     * This constructor is called when an archive for a bundle is being
+     * reconstructed from the bundle cache index. If there is no index entry
+     * for the archive, then its state is read from the archive directory and
+     * added to the index.
+     * </p>
+     * @param logger the logger to be used by the archive.
+     * @param archiveRootDir the archive root directory for storing state.
+     * @param configMap configMap for BundleArchive
+     * @param index the bundle cache index or <tt>null</tt>.
+     * @param entry the index entry of the archive or <tt>null</tt>.
+     * @throws Exception if any error occurs.
+    **/
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        File archiveRootDir, BundleCacheIndex index, BundleCacheIndex.ArchiveEntry entry)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
         m_archiveRootDir = archiveRootDir;
+        m_index = index;
+
+        if ((entry != null) && !entry.m_revisions.isEmpty())
+        {
+            m_id = entry.m_id;
+            m_originalLocation = entry.m_location;
+            m_persistentState = entry.m_state;
+            m_startLevel = entry.m_startLevel;
+            m_lastModified = entry.m_lastModified;
+            m_refreshCount = entry.m_refreshCount;
+
+            // The index knows all revisions, so there is no need to look
+            // at the archive directory at all.
+            for (Long revNum : entry.m_revisions.keySet())
+            {
+                m_revisions.put(revNum, null);
+            }
+            Long currentRevNum = m_revisions.lastKey();
+            m_revisions.remove(currentRevNum);
+            reviseInternal(true, currentRevNum,
+                entry.m_revisions.get(currentRevNum).m_location, null);
+            return;
+        }
 
         readBundleInfo();
+        if (m_index != null)
+        {
+            writeBundleInfo();
+        }
 
         // Add a revision number for each revision that exists in the file
         // system. The file system might contain more than one revision if
@@ -213,6 +274,19 @@ public class BundleArchive
 
         // Add the revision object for the most recent revision.
         reviseInternal(true, currentRevNum, getRevisionLocation(currentRevNum), null);
+
+        // Record the older revisions in the index, so they can be purged
+        // even if the archive is reloaded from the index.
+        if (m_index != null)
+        {
+            for (Long revNum : m_revisions.keySet())
+            {
+                if (!revNum.equals(currentRevNum))
+                {
+                    m_index.writeRevision(m_id, revNum, getRevisionLocation(revNum), null, null);
+                }
+            }
+        }
     }
 
     /**
@@ -488,6 +562,24 @@ public class BundleArchive
             setRevisionLocation(location, revNum);
         }
 
+        if (m_index != null)
+        {
+            Map<String, Object> headers = isReload
+                ? m_index.getManifestHeader(m_id, revNum, revision.getManifestFile())
+                : null;
+            if (headers != null)
+            {
+                revision.setCachedManifestHeader(headers);
+            }
+            else
+            {
+                // Record the manifest header so that the next reload does
+                // not have to read it from the bundle content.
+                m_index.writeRevision(m_id, revNum, location,
+                    revision.getManifestFile(), revision.getManifestHeader());
+            }
+        }
+
         // Add new revision to revision map.
         m_revisions.put(revNum, revision);
     }
@@ -515,6 +607,11 @@ public class BundleArchive
         Long revNum = m_revisions.lastKey();
         BundleArchiveRevision revision = m_revisions.remove(revNum);
 
+        if (m_index != null)
+        {
+            m_index.removeRevision(m_id, revNum);
+        }
+
         try
         {
             revision.close();
@@ -538,6 +635,13 @@ public class BundleArchive
 
     private synchronized String getRevisionLocation(Long revNum) throws Exception
     {
+        BundleCacheIndex.ArchiveEntry entry =
+            (m_index != null) ? m_index.getEntry(m_id) : null;
+        if ((entry != null) && entry.m_revisions.containsKey(revNum))
+        {
+            return entry.m_revisions.get(revNum).m_location;
+        }
+
         InputStream is = null;
         BufferedReader br = null;
         try
@@ -614,6 +718,19 @@ public class BundleArchive
     {
         // Close the revisions and delete the archive directory.
         close();
+        if (m_index != null)
+        {
+            try
+            {
+                m_index.delete(m_id);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to remove archive from bundle cache index - " + m_id, ex);
+            }
+        }
         if (!BundleCache.deleteDirectoryTree(m_archiveRootDir))
         {
             m_logger.log(
@@ -652,6 +769,10 @@ public class BundleArchive
         {
             if (!revNum.equals(currentRevNum))
             {
+                if (m_index != null)
+                {
+                    m_index.removeRevision(m_id, revNum);
+                }
                 File revisionDir = new File(
                     m_archiveRootDir,
                     REVISION_DIRECTORY + refreshCount + "." + revNum.toString());
@@ -706,6 +827,10 @@ public class BundleArchive
             // need to initialize since it has already been done.
             if (BundleCache.getSecureAction().fileExists(m_archiveRootDir))
             {
+                if (m_index != null)
+                {
+                    writeBundleInfo();
+                }
                 return;
             }
 
@@ -718,7 +843,13 @@ public class BundleArchive
                 throw new IOException("Unable to create archive directory.");
             }
 
-            writeBundleInfo();
+            // Always write the bundle info file, so the archive can still
+            // be reloaded if the bundle cache index is lost.
+            writeBundleFile();
+            if (m_index != null)
+            {
+                writeBundleInfo();
+            }
         }
         finally
         {
@@ -892,7 +1023,32 @@ public class BundleArchive
         }
     }
 
+    /**
+     * <p>
+     * Stops using the bundle cache index for this archive by writing its
+     * state to the bundle info file again.
+     * </p>
+     * @throws Exception if any error occurs.
+    **/
+    synchronized void detachIndex() throws Exception
+    {
+        m_index = null;
+        writeBundleInfo();
+    }
+
     private void writeBundleInfo() throws Exception
+    {
+        if (m_index != null)
+        {
+            m_index.writeArchive(m_id, m_originalLocation, m_persistentState,
+                m_startLevel, m_lastModified, m_refreshCount);
+            return;
+        }
+
+        writeBundleFile();
+    }
+
+    private void writeBundleFile() throws Exception
     {
         // Write the bundle start level.
         OutputStream os = null;
@@ -22,6 +22,7 @@ import java.io.File;
 import java.util.Map;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
 
 /**
  * <p>
@@ -45,6 +46,7 @@ public abstract class BundleArchiveRevision
     private final Map m_configMap;
     private final File m_revisionRootDir;
     private final String m_location;
+    private volatile Map<String, Object> m_cachedHeader;
 
     /**
      * <p>
@@ -126,6 +128,36 @@ public abstract class BundleArchiveRevision
     **/
     public abstract Map<String, Object> getManifestHeader() throws Exception;
 
+    /**
+     * <p>
+     * Returns the file from which the manifest header of the revision is read,
+     * which is used to detect whether cached manifest headers are still valid.
+     * </p>
+     * @return the manifest file or <tt>null</tt> if headers cannot be cached.
+    **/
+    File getManifestFile()
+    {
+        return null;
+    }
+
+    /**
+     * <p>
+     * Returns a copy of the manifest header restored from the bundle cache
+     * index, if any.
+     * </p>
+     * @return the cached manifest header or <tt>null</tt>.
+    **/
+    Map<String, Object> getCachedManifestHeader()
+    {
+        Map<String, Object> headers = m_cachedHeader;
+        return (headers == null) ? null : new StringMap(headers);
+    }
+
+    void setCachedManifestHeader(Map<String, Object> headers)
+    {
+        m_cachedHeader = headers;
+    }
+
     public abstract Content getContent() throws Exception;
 
     /**
@@ -32,8 +32,10 @@ import java.lang.ref.SoftReference;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>
@@ -75,6 +77,18 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.index</tt> - Enables or disables keeping the metadata
+ *       of all bundle archives in a single binary index file instead of a
+ *       set of small files per archive, which makes reloading the cache a
+ *       single sequential read; the default value is <tt>false</tt>. If the
+ *       index is disabled again later, the per archive files are restored.
+ *   </li>
+ *   <li><tt>felix.cache.mmap</tt> - Enables or disables memory mapping bundle
+ *       JAR files to read their entries, which allows defining classes from
+ *       stored entries without copying them; the default value is
+ *       <tt>false</tt>. Mapped files cannot be deleted on some platforms
+ *       until the mapping is garbage collected.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +101,8 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_INDEX_PROP = "felix.cache.index";
+    public static final String CACHE_MMAP_PROP = "felix.cache.mmap";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
@@ -101,6 +117,7 @@ public class BundleCache
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
     private final Object m_lock;
+    private BundleCacheIndex m_index;
 
     public BundleCache(Logger logger, Map configMap)
         throws Exception
@@ -369,6 +386,11 @@ public class BundleCache
 
     public synchronized void release()
     {
+        if (m_index != null)
+        {
+            m_index.close();
+            m_index = null;
+        }
         if (m_lock != null)
         {
             try
@@ -393,6 +415,11 @@ public class BundleCache
 
     public synchronized void delete() throws Exception
     {
+        if (m_index != null)
+        {
+            m_index.close();
+            m_index = null;
+        }
         // Delete the cache directory.
         File cacheDir = determineCacheDir(m_configMap);
         deleteDirectoryTree(cacheDir);
@@ -417,7 +444,18 @@ public class BundleCache
 
         // Create the existing bundle archives in the directory, if any exist.
         File cacheDir = determineCacheDir(m_configMap);
+
+        // If the index is disabled but exists, then read it one last time
+        // to restore the per archive files.
+        boolean useIndex = isIndexEnabled();
+        BundleCacheIndex index = null;
+        if (useIndex || BundleCacheIndex.exists(cacheDir))
+        {
+            index = getIndex(cacheDir);
+        }
+
         List archiveList = new ArrayList();
+        Set<Long> ids = new HashSet<Long>();
         File[] children = getSecureAction().listDirectory(cacheDir);
         for (int i = 0; (children != null) && (i < children.length); i++)
         {
@@ -427,11 +465,18 @@ public class BundleCache
                 !children[i].getName().equals(BUNDLE_DIR_PREFIX + Long.toString(0)))
             {
                 // Recreate the bundle archive.
+                long id = getArchiveId(children[i]);
                 try
                 {
-                    archiveList.add(
-                        new BundleArchive(
-                            m_logger, m_configMap, m_zipFactory, children[i]));
+                    BundleArchive archive = new BundleArchive(
+                        m_logger, m_configMap, m_zipFactory, children[i],
+                        index, (index != null) ? index.getEntry(id) : null);
+                    if (!useIndex && (index != null))
+                    {
+                        archive.detachIndex();
+                    }
+                    archiveList.add(archive);
+                    ids.add(archive.getId());
                 }
                 catch (Exception ex)
                 {
@@ -443,10 +488,70 @@ public class BundleCache
             }
         }
 
+        if (index != null)
+        {
+            if (useIndex)
+            {
+                // Forget about archives whose directory no longer exists.
+                for (Long id : index.getIds())
+                {
+                    if (!ids.contains(id))
+                    {
+                        index.delete(id);
+                    }
+                }
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    m_index.close();
+                    m_index = null;
+                }
+                BundleCacheIndex.delete(cacheDir);
+            }
+        }
+
         return (BundleArchive[])
             archiveList.toArray(new BundleArchive[archiveList.size()]);
     }
 
+    private boolean isIndexEnabled()
+    {
+        Object index = m_configMap.get(CACHE_INDEX_PROP);
+        return (index != null) && Boolean.valueOf(index.toString()).booleanValue();
+    }
+
+    private synchronized BundleCacheIndex getIndex(File cacheDir)
+    {
+        if (m_index == null)
+        {
+            try
+            {
+                m_index = BundleCacheIndex.open(m_logger, cacheDir);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_ERROR,
+                    "Unable to open bundle cache index, using bundle info files.", ex);
+            }
+        }
+        return m_index;
+    }
+
+    private static long getArchiveId(File archiveRootDir)
+    {
+        try
+        {
+            return Long.parseLong(
+                archiveRootDir.getName().substring(BUNDLE_DIR_PREFIX.length()));
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
     public BundleArchive create(long id, int startLevel, String location, InputStream is)
         throws Exception
     {
@@ -462,7 +567,8 @@ public class BundleCache
             BundleArchive ba =
                 new BundleArchive(
                     m_logger, m_configMap, m_zipFactory, archiveRootDir,
-                    id, startLevel, location, is);
+                    id, startLevel, location, is,
+                    isIndexEnabled() ? getIndex(cacheDir) : null);
             return ba;
         }
         catch (Exception ex)
@@ -0,0 +1,541 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
+
+/**
+ * <p>
+ * This class implements a single binary index file for the metadata of all
+ * bundle archives in the bundle cache, which replaces the per archive
+ * <tt>bundle.info</tt> and <tt>revision.location</tt> files when reading
+ * the cache. The index is an append-only log of records; every change of an
+ * archive's state appends a small record, and the complete state of the cache
+ * is reconstructed by reading the log sequentially on startup. The log is
+ * compacted on startup once it holds more outdated than current records.
+ * </p>
+ * <p>
+ * Besides the archive state, the index also records the manifest headers of
+ * the archive revisions along with the last modified time and length of the
+ * file they were read from, which allows reusing them without opening the
+ * bundle content as long as the file is unchanged.
+ * </p>
+ * @see org.apache.felix.framework.cache.BundleCache
+**/
+class BundleCacheIndex
+{
+    static final String INDEX_FILE = "cache.index";
+    // The previous index, which is kept while a compacted index replaces it.
+    static final String BACKUP_FILE = INDEX_FILE + ".bak";
+
+    private static final int MAGIC = 0x46434931;
+
+    private static final byte ARCHIVE = 1;
+    private static final byte REVISION = 2;
+    private static final byte REMOVE_REVISION = 3;
+    private static final byte DELETE = 4;
+
+    private final Logger m_logger;
+    private final File m_file;
+    // Maps a Long bundle identifier to its archive entry.
+    private final Map<Long, ArchiveEntry> m_entries = new HashMap<Long, ArchiveEntry>();
+    private OutputStream m_out;
+    private int m_records;
+
+    private BundleCacheIndex(Logger logger, File file)
+    {
+        m_logger = logger;
+        m_file = file;
+    }
+
+    /**
+     * Opens the index in the specified cache directory, creating it if it
+     * does not exist yet.
+     * @param logger the logger to be used by the index.
+     * @param cacheDir the bundle cache directory.
+     * @return the opened index.
+     * @throws IOException if the index cannot be written.
+    **/
+    static BundleCacheIndex open(Logger logger, File cacheDir) throws IOException
+    {
+        BundleCacheIndex index = new BundleCacheIndex(logger, new File(cacheDir, INDEX_FILE));
+        // Recover the previous index if compacting was interrupted before
+        // the new index was in place.
+        File backup = new File(cacheDir, BACKUP_FILE);
+        if (BundleCache.getSecureAction().fileExists(backup)
+            && !BundleCache.getSecureAction().fileExists(index.m_file))
+        {
+            BundleCache.getSecureAction().renameFile(backup, index.m_file);
+        }
+        boolean compact = !index.read();
+        int live = 0;
+        for (ArchiveEntry entry : index.m_entries.values())
+        {
+            live += 1 + entry.m_revisions.size();
+        }
+        if (compact || (index.m_records > (2 * live)))
+        {
+            index.compact();
+        }
+        else
+        {
+            index.m_out = BundleCache.getSecureAction().getFileAppendStream(index.m_file);
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether an index exists in the specified cache directory.
+    **/
+    static boolean exists(File cacheDir)
+    {
+        return BundleCache.getSecureAction().fileExists(new File(cacheDir, INDEX_FILE))
+            || BundleCache.getSecureAction().fileExists(new File(cacheDir, BACKUP_FILE));
+    }
+
+    /**
+     * Deletes the index in the specified cache directory.
+    **/
+    static void delete(File cacheDir)
+    {
+        BundleCache.getSecureAction().deleteFile(new File(cacheDir, INDEX_FILE));
+        BundleCache.getSecureAction().deleteFile(new File(cacheDir, BACKUP_FILE));
+    }
+
+    synchronized ArchiveEntry getEntry(long id)
+    {
+        return m_entries.get(id);
+    }
+
+    synchronized Long[] getIds()
+    {
+        return m_entries.keySet().toArray(new Long[m_entries.size()]);
+    }
+
+    synchronized void writeArchive(long id, String location, int state,
+        int startLevel, long lastModified, long refreshCount) throws IOException
+    {
+        ArchiveEntry entry = m_entries.get(id);
+        if (entry == null)
+        {
+            entry = new ArchiveEntry(id);
+            m_entries.put(id, entry);
+        }
+        entry.m_location = location;
+        entry.m_state = state;
+        entry.m_startLevel = startLevel;
+        entry.m_lastModified = lastModified;
+        entry.m_refreshCount = refreshCount;
+        append(entry, null);
+    }
+
+    synchronized void writeRevision(long id, Long revNum, String location,
+        File manifestFile, Map<String, Object> headers) throws IOException
+    {
+        ArchiveEntry entry = m_entries.get(id);
+        if (entry == null)
+        {
+            throw new IOException("No index entry for bundle archive " + id);
+        }
+        RevisionEntry revision = new RevisionEntry(revNum, location);
+        if ((manifestFile != null) && (headers != null))
+        {
+            revision.m_manifestLastModified = manifestFile.lastModified();
+            revision.m_manifestLength = manifestFile.length();
+            revision.m_headers = new StringMap(headers);
+        }
+        entry.m_revisions.put(revNum, revision);
+        append(entry, revision);
+    }
+
+    synchronized void removeRevision(long id, Long revNum) throws IOException
+    {
+        ArchiveEntry entry = m_entries.get(id);
+        if ((entry != null) && (entry.m_revisions.remove(revNum) != null))
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(REMOVE_REVISION);
+            out.writeLong(id);
+            out.writeLong(revNum.longValue());
+            appendRecord(bytes.toByteArray());
+        }
+    }
+
+    synchronized void delete(long id) throws IOException
+    {
+        if (m_entries.remove(id) != null)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DELETE);
+            out.writeLong(id);
+            appendRecord(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Returns the cached manifest headers of the specified revision if the
+     * specified file has not changed since they were recorded.
+     * @return a copy of the cached headers or <tt>null</tt>.
+    **/
+    synchronized Map<String, Object> getManifestHeader(long id, Long revNum, File manifestFile)
+    {
+        ArchiveEntry entry = m_entries.get(id);
+        RevisionEntry revision = (entry == null) ? null : entry.m_revisions.get(revNum);
+        if ((revision == null) || (revision.m_headers == null) || (manifestFile == null)
+            || (revision.m_manifestLastModified != manifestFile.lastModified())
+            || (revision.m_manifestLength != manifestFile.length()))
+        {
+            return null;
+        }
+        return new StringMap(revision.m_headers);
+    }
+
+    synchronized void close()
+    {
+        if (m_out != null)
+        {
+            try
+            {
+                m_out.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Unable to close bundle cache index.", ex);
+            }
+            m_out = null;
+        }
+    }
+
+    /**
+     * Reads all records of the index.
+     * @return <tt>false</tt> if the index is missing, damaged or truncated,
+     *         in which case it must be rewritten.
+    **/
+    private boolean read()
+    {
+        if (!BundleCache.getSecureAction().fileExists(m_file))
+        {
+            return false;
+        }
+        FileInputStream is = null;
+        try
+        {
+            is = BundleCache.getSecureAction().getFileInputStream(m_file);
+            long remaining = is.getChannel().size() - 4;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+            if (in.readInt() != MAGIC)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Ignoring bundle cache index with unknown format: " + m_file);
+                m_entries.clear();
+                return false;
+            }
+            while (true)
+            {
+                int length;
+                try
+                {
+                    length = in.readInt();
+                }
+                catch (EOFException ex)
+                {
+                    return true;
+                }
+                // Do not trust a damaged length with the allocation.
+                remaining -= 4;
+                if ((length < 0) || (length > remaining))
+                {
+                    throw new EOFException("Invalid record length: " + length);
+                }
+                remaining -= length;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                apply(new DataInputStream(new ByteArrayInputStream(record)));
+                m_records++;
+            }
+        }
+        catch (Exception ex)
+        {
+            // A record was only partially written, which can happen if the
+            // framework did not exit cleanly; everything before it is valid.
+            m_logger.log(Logger.LOG_WARNING,
+                "Bundle cache index is truncated, ignoring last record: " + m_file, ex);
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                if (is != null) is.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        long id = in.readLong();
+        if (type == DELETE)
+        {
+            m_entries.remove(id);
+            return;
+        }
+
+        ArchiveEntry entry = m_entries.get(id);
+        if (entry == null)
+        {
+            entry = new ArchiveEntry(id);
+            m_entries.put(id, entry);
+        }
+        if (type == ARCHIVE)
+        {
+            entry.m_location = readString(in);
+            entry.m_state = in.readInt();
+            entry.m_startLevel = in.readInt();
+            entry.m_lastModified = in.readLong();
+            entry.m_refreshCount = in.readLong();
+        }
+        else if (type == REVISION)
+        {
+            RevisionEntry revision = new RevisionEntry(in.readLong(), readString(in));
+            revision.m_manifestLastModified = in.readLong();
+            revision.m_manifestLength = in.readLong();
+            int count = in.readInt();
+            if (count >= 0)
+            {
+                revision.m_headers = new StringMap();
+                for (int i = 0; i < count; i++)
+                {
+                    revision.m_headers.put(readString(in), readString(in));
+                }
+            }
+            entry.m_revisions.put(revision.m_revNum, revision);
+        }
+        else if (type == REMOVE_REVISION)
+        {
+            entry.m_revisions.remove(in.readLong());
+        }
+        else
+        {
+            throw new IOException("Unknown bundle cache index record: " + type);
+        }
+    }
+
+    private void append(ArchiveEntry entry, RevisionEntry revision) throws IOException
+    {
+        appendRecord(toRecord(entry, revision));
+    }
+
+    private void appendRecord(byte[] record) throws IOException
+    {
+        if (m_out == null)
+        {
+            throw new IOException("Bundle cache index is closed.");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(record.length);
+        out.write(record);
+        // Write the record at once to keep the log consistent.
+        m_out.write(bytes.toByteArray());
+        m_out.flush();
+        m_records++;
+    }
+
+    private static byte[] toRecord(ArchiveEntry entry, RevisionEntry revision) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (revision == null)
+        {
+            out.writeByte(ARCHIVE);
+            out.writeLong(entry.m_id);
+            writeString(out, entry.m_location);
+            out.writeInt(entry.m_state);
+            out.writeInt(entry.m_startLevel);
+            out.writeLong(entry.m_lastModified);
+            out.writeLong(entry.m_refreshCount);
+        }
+        else
+        {
+            out.writeByte(REVISION);
+            out.writeLong(entry.m_id);
+            out.writeLong(revision.m_revNum.longValue());
+            writeString(out, revision.m_location);
+            out.writeLong(revision.m_manifestLastModified);
+            out.writeLong(revision.m_manifestLength);
+            if (revision.m_headers == null)
+            {
+                out.writeInt(-1);
+            }
+            else
+            {
+                out.writeInt(revision.m_headers.size());
+                for (Map.Entry<String, Object> header : revision.m_headers.entrySet())
+                {
+                    writeString(out, header.getKey());
+                    writeString(out, String.valueOf(header.getValue()));
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rewrites the index with only the current records and reopens it for
+     * appending. The new index is written to a temporary file first, so that
+     * the old index remains intact if writing fails.
+    **/
+    private void compact() throws IOException
+    {
+        File tmp = new File(m_file.getParentFile(), INDEX_FILE + ".tmp");
+        OutputStream os = null;
+        m_records = 0;
+        try
+        {
+            os = BundleCache.getSecureAction().getFileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            for (ArchiveEntry entry : m_entries.values())
+            {
+                writeRecord(out, toRecord(entry, null));
+                for (RevisionEntry revision : entry.m_revisions.values())
+                {
+                    writeRecord(out, toRecord(entry, revision));
+                }
+            }
+            out.flush();
+        }
+        finally
+        {
+            if (os != null) os.close();
+        }
+
+        // Keep the old index until the new one is in place; open() recovers
+        // it if we fail in between.
+        File backup = new File(m_file.getParentFile(), BACKUP_FILE);
+        BundleCache.getSecureAction().deleteFile(backup);
+        if (BundleCache.getSecureAction().fileExists(m_file)
+            && !BundleCache.getSecureAction().renameFile(m_file, backup))
+        {
+            throw new IOException("Unable to replace bundle cache index: " + m_file);
+        }
+        if (!BundleCache.getSecureAction().renameFile(tmp, m_file))
+        {
+            BundleCache.getSecureAction().renameFile(backup, m_file);
+            throw new IOException("Unable to replace bundle cache index: " + m_file);
+        }
+        BundleCache.getSecureAction().deleteFile(backup);
+        m_out = BundleCache.getSecureAction().getFileAppendStream(m_file);
+    }
+
+    private void writeRecord(DataOutputStream out, byte[] record) throws IOException
+    {
+        out.writeInt(record.length);
+        out.write(record);
+        m_records++;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        // Records are read from memory, so the available bytes are exact.
+        if (length > in.available())
+        {
+            throw new EOFException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    static class ArchiveEntry
+    {
+        final long m_id;
+        String m_location;
+        int m_state;
+        int m_startLevel;
+        long m_lastModified;
+        long m_refreshCount;
+        // Maps a Long revision number to its revision entry.
+        final SortedMap<Long, RevisionEntry> m_revisions = new TreeMap<Long, RevisionEntry>();
+
+        ArchiveEntry(long id)
+        {
+            m_id = id;
+        }
+    }
+
+    static class RevisionEntry
+    {
+        final Long m_revNum;
+        final String m_location;
+        long m_manifestLastModified;
+        long m_manifestLength;
+        Map<String, Object> m_headers;
+
+        RevisionEntry(long revNum, String location)
+        {
+            m_revNum = Long.valueOf(revNum);
+            m_location = location;
+        }
+    }
+}
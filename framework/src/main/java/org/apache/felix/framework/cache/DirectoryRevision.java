@@ -70,10 +70,21 @@ class DirectoryRevision extends BundleArchiveRevision
     public Map<String, Object> getManifestHeader()
         throws Exception
     {
-        File manifest = new File(m_refDir, "META-INF/MANIFEST.MF");
+        Map<String, Object> cached = getCachedManifestHeader();
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        File manifest = getManifestFile();
         return manifest.isFile() ? BundleCache.getMainAttributes(new StringMap(), BundleCache.getSecureAction().getFileInputStream(manifest), manifest.length()) : null;
     }
 
+    File getManifestFile()
+    {
+        return new File(m_refDir, "META-INF/MANIFEST.MF");
+    }
+
     public Content getContent() throws Exception
     {
         return new DirectoryContent(getLogger(), getConfig(), m_zipFactory,
@@ -398,6 +398,36 @@ public class JarContent implements Content
         return m_file;
     }
 
+    Logger getLogger()
+    {
+        return m_logger;
+    }
+
+    Map getConfig()
+    {
+        return m_configMap;
+    }
+
+    WeakZipFileFactory getZipFactory()
+    {
+        return m_zipFactory;
+    }
+
+    Object getRevisionLock()
+    {
+        return m_revisionLock;
+    }
+
+    File getRootDir()
+    {
+        return m_rootDir;
+    }
+
+    WeakZipFile getZipFile()
+    {
+        return m_zipFile;
+    }
+
     private static class DevNullRunnable implements Runnable
     {
         private final InputStream m_in;
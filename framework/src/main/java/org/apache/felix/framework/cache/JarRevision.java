@@ -97,6 +97,12 @@ class JarRevision extends BundleArchiveRevision
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
+        Map<String, Object> cached = getCachedManifestHeader();
+        if (cached != null)
+        {
+            return cached;
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
@@ -105,8 +111,27 @@ class JarRevision extends BundleArchiveRevision
         return manifest;
     }
 
+    File getManifestFile()
+    {
+        return m_bundleFile;
+    }
+
     public Content getContent() throws Exception
     {
+        Object mmap = getConfig().get(BundleCache.CACHE_MMAP_PROP);
+        if ((mmap != null) && Boolean.valueOf(mmap.toString()).booleanValue())
+        {
+            try
+            {
+                return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                    this, getRevisionRootDir(), m_bundleFile, m_zipFile);
+            }
+            catch (IOException ex)
+            {
+                getLogger().log(Logger.LOG_DEBUG,
+                    "Unable to map JAR file, reading it instead: " + m_bundleFile, ex);
+            }
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
+
+/**
+ * <p>
+ * A JAR content which maps the JAR file into memory once and reads its
+ * entries directly from the mapped file, using an index of the central
+ * directory which keeps the offset, sizes, and compression method of all
+ * entries in primitive arrays. Stored entries are returned as slices of the
+ * mapped file by <tt>getEntryAsByteBuffer()</tt>, which allows defining
+ * classes from them without copying, while deflated entries are inflated
+ * directly from the mapped file.
+ * </p>
+ * <p>
+ * Extracting embedded JAR files and native libraries is left to the
+ * underlying <tt>JarContent</tt>, since it is rare and involves copying
+ * anyway. ZIP64 archives are not supported by the index, so creating a
+ * mapped content for them fails and the plain JAR content must be used.
+ * </p>
+**/
+public class MappedJarContent extends JarContent
+{
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOC_HEADER = 30;
+    private static final int CEN_HEADER = 46;
+    private static final int END_HEADER = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final CentralDirectory m_directory;
+
+    public MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
+        throws IOException
+    {
+        this(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile,
+            new CentralDirectory(file));
+    }
+
+    private MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, WeakZipFile zipFile,
+        CentralDirectory directory)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile);
+        m_directory = directory;
+    }
+
+    public boolean hasEntry(String name)
+    {
+        return m_directory.find(name) >= 0;
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        // Spec says to return null if there are no entries.
+        return (m_directory.m_names.length > 0)
+            ? Collections.enumeration(Arrays.asList(m_directory.m_names))
+            : null;
+    }
+
+    public byte[] getEntryAsBytes(String name)
+    {
+        int idx = m_directory.find(name);
+        if (idx < 0)
+        {
+            return null;
+        }
+        try
+        {
+            ByteBuffer buffer = m_directory.getData(idx);
+            byte[] bytes = new byte[m_directory.m_sizes[idx]];
+            if (m_directory.m_methods[idx] == STORED)
+            {
+                buffer.get(bytes);
+            }
+            else
+            {
+                inflate(buffer, bytes);
+            }
+            return bytes;
+        }
+        catch (Exception ex)
+        {
+            getLogger().log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name
+                + " in ZIP file " + getFile().getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the named entry as a byte buffer. Stored entries are returned
+     * as a read-only slice of the mapped JAR file, all others are inflated
+     * into a new heap buffer.
+     * @param name The name of the entry to retrieve as a byte buffer.
+     * @return A byte buffer if the corresponding entry was found, <tt>null</tt>
+     *         otherwise.
+    **/
+    public ByteBuffer getEntryAsByteBuffer(String name)
+    {
+        int idx = m_directory.find(name);
+        if ((idx >= 0) && (m_directory.m_methods[idx] == STORED))
+        {
+            try
+            {
+                return m_directory.getData(idx);
+            }
+            catch (Exception ex)
+            {
+                getLogger().log(
+                    Logger.LOG_ERROR,
+                    "MappedJarContent: Unable to read file " + name
+                    + " in ZIP file " + getFile().getAbsolutePath(), ex);
+                return null;
+            }
+        }
+        byte[] bytes = (idx >= 0) ? getEntryAsBytes(name) : null;
+        return (bytes != null) ? ByteBuffer.wrap(bytes) : null;
+    }
+
+    public InputStream getEntryAsStream(String name) throws IOException
+    {
+        int idx = m_directory.find(name);
+        if (idx < 0)
+        {
+            return null;
+        }
+        if (m_directory.m_methods[idx] == STORED)
+        {
+            return new ByteBufferInputStream(m_directory.getData(idx), false);
+        }
+        // An inflater without ZLIB header may need an extra dummy byte
+        // after the deflated data, like ZipFile provides it.
+        return new InflaterInputStream(
+            new ByteBufferInputStream(m_directory.getData(idx), true), new Inflater(true));
+    }
+
+    public Content getEntryAsContent(String entryName)
+    {
+        // If the entry name refers to the content itself, then
+        // return a content sharing the mapped file.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new MappedJarContent(getLogger(), getConfig(), getZipFactory(),
+                getRevisionLock(), getRootDir(), getFile(), getZipFile(), m_directory);
+        }
+        return super.getEntryAsContent(entryName);
+    }
+
+    public String toString()
+    {
+        return "Mapped " + super.toString();
+    }
+
+    private static void inflate(ByteBuffer buffer, byte[] bytes)
+        throws DataFormatException, IOException
+    {
+        byte[] compressed = new byte[buffer.remaining()];
+        buffer.get(compressed);
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(compressed);
+            int off = 0;
+            while (off < bytes.length)
+            {
+                int n = inflater.inflate(bytes, off, bytes.length - off);
+                if ((n == 0) && (inflater.finished() || inflater.needsInput()))
+                {
+                    throw new IOException("Unexpected end of ZIP entry.");
+                }
+                off += n;
+            }
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The index of the central directory of a mapped JAR file, which is
+     * shared by all contents of the same JAR file.
+    **/
+    private static class CentralDirectory
+    {
+        private final ByteBuffer m_buffer;
+        private final String[] m_names;
+        private final int[] m_offsets;
+        private final int[] m_compressedSizes;
+        private final int[] m_sizes;
+        private final short[] m_methods;
+        // Maps entry names to their index.
+        private final Map<String, Integer> m_index;
+
+        CentralDirectory(File file) throws IOException
+        {
+            FileChannel channel = BundleCache.getSecureAction()
+                .getFileInputStream(file).getChannel();
+            try
+            {
+                if (channel.size() > Integer.MAX_VALUE)
+                {
+                    throw new IOException("JAR file too large to map: " + file);
+                }
+                m_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            finally
+            {
+                channel.close();
+            }
+
+            int end = findEnd(m_buffer);
+            int count = m_buffer.getShort(end + 10) & 0xffff;
+            long cenOffset = m_buffer.getInt(end + 16) & 0xffffffffL;
+            if ((count == 0xffff) || (cenOffset == 0xffffffffL))
+            {
+                throw new IOException("ZIP64 archives cannot be mapped: " + file);
+            }
+
+            m_names = new String[count];
+            m_offsets = new int[count];
+            m_compressedSizes = new int[count];
+            m_sizes = new int[count];
+            m_methods = new short[count];
+            m_index = new HashMap<String, Integer>(count * 4 / 3 + 1);
+
+            int pos = (int) cenOffset;
+            for (int i = 0; i < count; i++)
+            {
+                if (m_buffer.getInt(pos) != CEN_SIG)
+                {
+                    throw new IOException("Invalid central directory: " + file);
+                }
+                int flags = m_buffer.getShort(pos + 8) & 0xffff;
+                m_methods[i] = m_buffer.getShort(pos + 10);
+                m_compressedSizes[i] = m_buffer.getInt(pos + 20);
+                m_sizes[i] = m_buffer.getInt(pos + 24);
+                int nameLength = m_buffer.getShort(pos + 28) & 0xffff;
+                int extraLength = m_buffer.getShort(pos + 30) & 0xffff;
+                int commentLength = m_buffer.getShort(pos + 32) & 0xffff;
+                m_offsets[i] = m_buffer.getInt(pos + 42);
+                if (((flags & 1) != 0) || (m_offsets[i] < 0)
+                    || (m_sizes[i] < 0) || (m_compressedSizes[i] < 0)
+                    || ((m_methods[i] != STORED) && (m_methods[i] != DEFLATED)))
+                {
+                    throw new IOException("Unsupported ZIP entry in " + file);
+                }
+
+                byte[] name = new byte[nameLength];
+                ByteBuffer slice = m_buffer.duplicate();
+                slice.position(pos + CEN_HEADER);
+                slice.get(name);
+                m_names[i] = new String(name, "UTF-8");
+                // The first entry of a name wins, like for ZipFile.
+                if (!m_index.containsKey(m_names[i]))
+                {
+                    m_index.put(m_names[i], i);
+                }
+
+                pos += CEN_HEADER + nameLength + extraLength + commentLength;
+            }
+        }
+
+        private static int findEnd(ByteBuffer buffer) throws IOException
+        {
+            int min = Math.max(0, buffer.limit() - END_HEADER - 0xffff);
+            for (int pos = buffer.limit() - END_HEADER; pos >= min; pos--)
+            {
+                if (buffer.getInt(pos) == END_SIG)
+                {
+                    return pos;
+                }
+            }
+            throw new IOException("No end of central directory found.");
+        }
+
+        /**
+         * Finds the index of the named entry. Like <tt>ZipFile</tt>, this
+         * also finds directory entries by their name without trailing slash.
+        **/
+        int find(String name)
+        {
+            Integer idx = m_index.get(name);
+            if ((idx == null) && !name.endsWith("/"))
+            {
+                idx = m_index.get(name + "/");
+            }
+            return (idx == null) ? -1 : idx.intValue();
+        }
+
+        /**
+         * Returns a read-only slice of the mapped file holding the data of
+         * the entry with the specified index.
+        **/
+        ByteBuffer getData(int idx) throws IOException
+        {
+            ByteBuffer buffer = m_buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int pos = m_offsets[idx];
+            if (buffer.getInt(pos) != LOC_SIG)
+            {
+                throw new IOException("Invalid local header for " + m_names[idx]);
+            }
+            int data = pos + LOC_HEADER
+                + (buffer.getShort(pos + 26) & 0xffff)
+                + (buffer.getShort(pos + 28) & 0xffff);
+            buffer.limit(data + m_compressedSizes[idx]);
+            buffer.position(data);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buffer;
+        private boolean m_pad;
+
+        ByteBufferInputStream(ByteBuffer buffer, boolean pad)
+        {
+            m_buffer = buffer;
+            m_pad = pad;
+        }
+
+        public int read()
+        {
+            if (m_buffer.hasRemaining())
+            {
+                return m_buffer.get() & 0xff;
+            }
+            if (m_pad)
+            {
+                m_pad = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_buffer.hasRemaining())
+            {
+                if (m_pad)
+                {
+                    m_pad = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            len = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, len);
+            return len;
+        }
+
+        public int available()
+        {
+            return m_buffer.remaining();
+        }
+    }
+}
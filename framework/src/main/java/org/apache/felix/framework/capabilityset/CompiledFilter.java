@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.util.SecureAction;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+/**
+ * An evaluator for a {@link SimpleFilter}, built once per filter node and
+ * cached by the node. Children of AND and OR nodes are ordered so that
+ * cheap and selective comparisons run first, and the operand of each
+ * comparison is converted to the attribute type once and then reused,
+ * so matching does not need to parse or reflect on every call.
+**/
+abstract class CompiledFilter
+{
+    private static final SecureAction m_secureAction = new SecureAction();
+    private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
+    private static final String VALUE_OF_METHOD_NAME = "valueOf";
+
+    private static final CompiledFilter MATCH_ALL = new CompiledFilter()
+    {
+        boolean matches(Map<String, Object> attrs)
+        {
+            return true;
+        }
+
+        int getCost()
+        {
+            return 0;
+        }
+    };
+
+    private static final Comparator<CompiledFilter> COST_COMPARATOR =
+        new Comparator<CompiledFilter>()
+        {
+            public int compare(CompiledFilter f1, CompiledFilter f2)
+            {
+                return f1.getCost() - f2.getCost();
+            }
+        };
+
+    /**
+     * Evaluates the filter against the given attributes.
+     * @param attrs the attributes to match.
+     * @return <tt>true</tt> if the attributes match the filter.
+    **/
+    abstract boolean matches(Map<String, Object> attrs);
+
+    /**
+     * Returns the relative cost of evaluating this filter, where lower
+     * values are cheaper or more likely to decide the result of an AND.
+    **/
+    abstract int getCost();
+
+    static CompiledFilter compile(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.MATCH_ALL:
+                return MATCH_ALL;
+            case SimpleFilter.AND:
+                return new And(compileChildren(sf, true));
+            case SimpleFilter.OR:
+                return new Or(compileChildren(sf, true));
+            case SimpleFilter.NOT:
+                return new Not(compileChildren(sf, false));
+            default:
+                return new Leaf(sf.getName(), sf.getValue(), sf.getOperation());
+        }
+    }
+
+    private static CompiledFilter[] compileChildren(SimpleFilter sf, boolean sort)
+    {
+        List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+        CompiledFilter[] children = new CompiledFilter[sfs.size()];
+        for (int i = 0; i < children.length; i++)
+        {
+            children[i] = sfs.get(i).getCompiled();
+        }
+        if (sort)
+        {
+            // Evaluation has no side effects, so the order is free to choose.
+            Arrays.sort(children, COST_COMPARATOR);
+        }
+        return children;
+    }
+
+    private static final class And extends CompiledFilter
+    {
+        private final CompiledFilter[] m_children;
+
+        And(CompiledFilter[] children)
+        {
+            m_children = children;
+        }
+
+        boolean matches(Map<String, Object> attrs)
+        {
+            for (int i = 0; i < m_children.length; i++)
+            {
+                if (!m_children[i].matches(attrs))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int getCost()
+        {
+            return 4;
+        }
+    }
+
+    private static final class Or extends CompiledFilter
+    {
+        private final CompiledFilter[] m_children;
+
+        Or(CompiledFilter[] children)
+        {
+            m_children = children;
+        }
+
+        boolean matches(Map<String, Object> attrs)
+        {
+            for (int i = 0; i < m_children.length; i++)
+            {
+                if (m_children[i].matches(attrs))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int getCost()
+        {
+            return 4;
+        }
+    }
+
+    private static final class Not extends CompiledFilter
+    {
+        private final CompiledFilter[] m_children;
+
+        Not(CompiledFilter[] children)
+        {
+            m_children = children;
+        }
+
+        boolean matches(Map<String, Object> attrs)
+        {
+            // Only the last subfilter decides the result.
+            return (m_children.length == 0)
+                || !m_children[m_children.length - 1].matches(attrs);
+        }
+
+        int getCost()
+        {
+            return 4;
+        }
+    }
+
+    private static final class Leaf extends CompiledFilter
+    {
+        private final String m_name;
+        private final Object m_value;
+        private final int m_op;
+        // The operand converted to the type of the last attribute value
+        // seen, which is almost always the type of every value.
+        private volatile Operand m_operand;
+
+        Leaf(String name, Object value, int op)
+        {
+            m_name = name;
+            m_value = value;
+            m_op = op;
+        }
+
+        boolean matches(Map<String, Object> attrs)
+        {
+            Object lhs = attrs.get(m_name);
+            return (lhs != null) && compare(lhs);
+        }
+
+        int getCost()
+        {
+            switch (m_op)
+            {
+                case SimpleFilter.EQ:
+                    return 1;
+                case SimpleFilter.PRESENT:
+                    return 3;
+                default:
+                    return 2;
+            }
+        }
+
+        /**
+         * Returns the operand converted to the type of the given value,
+         * or <tt>null</tt> if it cannot be converted.
+        **/
+        private Object coerce(Object lhs)
+        {
+            Operand operand = m_operand;
+            if ((operand == null) || (operand.m_type != lhs.getClass()))
+            {
+                Object rhs;
+                try
+                {
+                    rhs = coerceType(lhs, (String) m_value);
+                }
+                catch (Exception ex)
+                {
+                    rhs = null;
+                }
+                operand = new Operand(lhs.getClass(), rhs);
+                m_operand = operand;
+            }
+            return operand.m_value;
+        }
+
+        private boolean compare(Object lhs)
+        {
+            if (lhs == null)
+            {
+                return false;
+            }
+
+            // If this is a PRESENT operation, then just return true immediately
+            // since we wouldn't be here if the attribute wasn't present.
+            if (m_op == SimpleFilter.PRESENT)
+            {
+                return true;
+            }
+
+            //Need a special case here when lhs is a Version and rhs is a VersionRange
+            //Version is comparable so we need to check this first
+            if ((lhs instanceof Version) && (m_op == SimpleFilter.EQ))
+            {
+                Object rhs = coerce(lhs);
+                if (rhs instanceof VersionRange)
+                {
+                    return ((VersionRange) rhs).includes((Version) lhs);
+                }
+            }
+
+            // If the type is comparable, then we can just return the
+            // result immediately.
+            if (lhs instanceof Comparable)
+            {
+                // Spec says SUBSTRING is false for all types other than string.
+                if (m_op == SimpleFilter.SUBSTRING)
+                {
+                    return (lhs instanceof String)
+                        && SimpleFilter.compareSubstring((List<String>) m_value, (String) lhs);
+                }
+
+                Object rhs = coerce(lhs);
+                if (rhs == null)
+                {
+                    return false;
+                }
+
+                switch (m_op)
+                {
+                    case SimpleFilter.EQ :
+                        try
+                        {
+                            return (((Comparable) lhs).compareTo(rhs) == 0);
+                        }
+                        catch (Exception ex)
+                        {
+                            return false;
+                        }
+                    case SimpleFilter.GTE :
+                        try
+                        {
+                            return (((Comparable) lhs).compareTo(rhs) >= 0);
+                        }
+                        catch (Exception ex)
+                        {
+                            return false;
+                        }
+                    case SimpleFilter.LTE :
+                        try
+                        {
+                            return (((Comparable) lhs).compareTo(rhs) <= 0);
+                        }
+                        catch (Exception ex)
+                        {
+                            return false;
+                        }
+                    case SimpleFilter.APPROX :
+                        return compareApproximate(lhs, rhs);
+                    default:
+                        throw new RuntimeException(
+                            "Unknown comparison operator: " + m_op);
+                }
+            }
+            // Booleans do not implement comparable, so special case them.
+            else if (lhs instanceof Boolean)
+            {
+                Object rhs = coerce(lhs);
+                if (rhs == null)
+                {
+                    return false;
+                }
+
+                switch (m_op)
+                {
+                    case SimpleFilter.EQ :
+                    case SimpleFilter.GTE :
+                    case SimpleFilter.LTE :
+                    case SimpleFilter.APPROX :
+                        return (lhs.equals(rhs));
+                    default:
+                        throw new RuntimeException(
+                            "Unknown comparison operator: " + m_op);
+                }
+            }
+
+            // If the LHS is an array or a collection, then call compare()
+            // on each element until a match is found.
+            if (lhs.getClass().isArray())
+            {
+                if (lhs instanceof Object[])
+                {
+                    Object[] array = (Object[]) lhs;
+                    for (int i = 0; i < array.length; i++)
+                    {
+                        if (compare(array[i]))
+                        {
+                            return true;
+                        }
+                    }
+                }
+                else
+                {
+                    int len = Array.getLength(lhs);
+                    for (int i = 0; i < len; i++)
+                    {
+                        if (compare(Array.get(lhs, i)))
+                        {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+            else if (lhs instanceof Collection)
+            {
+                for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
+                {
+                    if (compare(iter.next()))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            // Spec says SUBSTRING is false for all types other than string.
+            if (m_op == SimpleFilter.SUBSTRING)
+            {
+                return false;
+            }
+
+            // Since we cannot identify the LHS type, then we can only perform
+            // equality comparison.
+            Object rhs = coerce(lhs);
+            return (rhs != null) && lhs.equals(rhs);
+        }
+    }
+
+    private static final class Operand
+    {
+        final Class<?> m_type;
+        final Object m_value;
+
+        Operand(Class<?> type, Object value)
+        {
+            m_type = type;
+            m_value = value;
+        }
+    }
+
+    private static boolean compareApproximate(Object lhs, Object rhs)
+    {
+        if (rhs instanceof String)
+        {
+            return removeWhitespace((String) lhs)
+                .equalsIgnoreCase(removeWhitespace((String) rhs));
+        }
+        else if (rhs instanceof Character)
+        {
+            return Character.toLowerCase(((Character) lhs))
+                == Character.toLowerCase(((Character) rhs));
+        }
+        return lhs.equals(rhs);
+    }
+
+    private static String removeWhitespace(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (!Character.isWhitespace(s.charAt(i)))
+            {
+                sb.append(s.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    {
+        // If the LHS expects a string, then we can just return
+        // the RHS since it is a string.
+        if (lhs.getClass() == rhsString.getClass())
+        {
+            return rhsString;
+        }
+
+        // Try to convert the RHS type to the LHS type by using
+        // the string constructor of the LHS class, if it has one.
+        Object rhs = null;
+        try
+        {
+            // The Character class is a special case, since its constructor
+            // does not take a string, so handle it separately.
+            if (lhs instanceof Character)
+            {
+                rhs = new Character(rhsString.charAt(0));
+            }
+            else if(lhs instanceof Version && rhsString.indexOf(',') >= 0)
+            {
+                rhs = new VersionRange(rhsString);
+            }
+            else
+            {
+                // Spec says we should trim number types.
+                if ((lhs instanceof Number) || (lhs instanceof Boolean))
+                {
+                    rhsString = rhsString.trim();
+                }
+
+                // The common types are converted directly, which gives
+                // the same result as their static valueOf methods.
+                rhs = valueOf(lhs.getClass(), rhsString);
+
+                if (rhs == null)
+                {
+                    try
+                    {
+                        // Try to find a suitable static valueOf method
+                        Method valueOfMethod = m_secureAction.getDeclaredMethod(
+                            lhs.getClass(), VALUE_OF_METHOD_NAME, STRING_CLASS);
+                        if (valueOfMethod.getReturnType().isAssignableFrom(lhs.getClass())
+                            && ((valueOfMethod.getModifiers() & Modifier.STATIC) > 0))
+                        {
+                            m_secureAction.setAccesssible(valueOfMethod);
+                            rhs = valueOfMethod.invoke(null, new Object[] { rhsString });
+                        }
+                    }
+                    catch (Exception ex)
+                    {
+                        // Static valueOf fails, try the next conversion mechanism
+                    }
+                }
+
+                if (rhs == null)
+                {
+                    Constructor ctor = m_secureAction.getConstructor(lhs.getClass(), STRING_CLASS);
+                    m_secureAction.setAccesssible(ctor);
+                    rhs = ctor.newInstance(new Object[] { rhsString });
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            throw new Exception(
+                "Could not instantiate class "
+                    + lhs.getClass().getName()
+                    + " from string constructor with argument '"
+                    + rhsString + "' because " + ex);
+        }
+
+        return rhs;
+    }
+
+    private static Object valueOf(Class<?> type, String s)
+    {
+        if (type == Integer.class)
+        {
+            return Integer.valueOf(s);
+        }
+        else if (type == Long.class)
+        {
+            return Long.valueOf(s);
+        }
+        else if (type == Double.class)
+        {
+            return Double.valueOf(s);
+        }
+        else if (type == Float.class)
+        {
+            return Float.valueOf(s);
+        }
+        else if (type == Short.class)
+        {
+            return Short.valueOf(s);
+        }
+        else if (type == Byte.class)
+        {
+            return Byte.valueOf(s);
+        }
+        else if (type == Boolean.class)
+        {
+            return Boolean.valueOf(s);
+        }
+        return null;
+    }
+}
@@ -42,6 +42,7 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    private volatile CompiledFilter m_compiled;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -65,6 +66,17 @@ public class SimpleFilter
         return m_op;
     }
 
+    CompiledFilter getCompiled()
+    {
+        CompiledFilter compiled = m_compiled;
+        if (compiled == null)
+        {
+            compiled = CompiledFilter.compile(this);
+            m_compiled = compiled;
+        }
+        return compiled;
+    }
+
     public String toString()
     {
         String s = null;
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.startup;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the startup profile of a bundle. All times are
+ * in nanoseconds.
+**/
+public class BundleStartupDTO extends DTO
+{
+    /**
+     * The id of the bundle.
+    **/
+    public long id;
+
+    /**
+     * The symbolic name of the bundle.
+    **/
+    public String symbolicName;
+
+    /**
+     * The share of the bundle in the time spent in resolve operations. The
+     * time of an operation resolving several bundles at once is divided
+     * evenly among them.
+    **/
+    public long resolveTime;
+
+    /**
+     * The time spent to activate the bundle, including the creation of its
+     * activator and its <tt>BundleActivator.start</tt> method.
+    **/
+    public long activationTime;
+
+    /**
+     * The number of classes defined by the class loader of the bundle.
+    **/
+    public int classesDefined;
+
+    /**
+     * The number of bytes of the classes defined by the class loader of the
+     * bundle.
+    **/
+    public long bytesRead;
+
+    /**
+     * The time spent to weave and define the classes of the bundle.
+    **/
+    public long classDefineTime;
+
+    /**
+     * The number of service events delivered to service listeners of the
+     * bundle.
+    **/
+    public int serviceEvents;
+
+    /**
+     * The time spent in service listeners of the bundle.
+    **/
+    public long serviceEventTime;
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.startup;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the startup profile of the framework. All times
+ * are in nanoseconds.
+**/
+public class StartupDTO extends DTO
+{
+    /**
+     * The time from the creation of the framework to the
+     * {@link org.osgi.framework.FrameworkEvent#STARTED STARTED} event, or
+     * <tt>-1</tt> if the framework has not started yet.
+    **/
+    public long startTime;
+
+    /**
+     * The time spent in resolve operations, which is roughly the sum of
+     * the resolve times of the bundles.
+    **/
+    public long resolveTime;
+
+    /**
+     * The profile of each bundle, in bundle id order.
+    **/
+    public BundleStartupDTO[] bundles;
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.startup;
+
+/**
+ * Service registered by the framework when startup profiling is enabled
+ * with the <tt>felix.startup.profiler</tt> configuration property. It
+ * reports where the time to start the framework and its bundles went.
+ * Profiling stops with the {@link org.osgi.framework.FrameworkEvent#STARTED
+ * STARTED} event, so bundles installed or started later are not reported.
+**/
+public interface StartupProfiler
+{
+    /**
+     * Returns a snapshot of the profiling data recorded so far.
+     * @return the profiling data.
+    **/
+    StartupDTO getStartupDTO();
+}
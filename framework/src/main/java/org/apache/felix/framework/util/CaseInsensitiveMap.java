@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map for string-based keys which are compared ignoring case,
+ * in the same way as {@link StringComparator}. Unlike {@link StringMap},
+ * lookups hash the key instead of comparing it against the keys of a
+ * tree, and all entries are kept in flat arrays, so this map is meant for
+ * maps which are read far more often than they are built, such as service
+ * properties and bundle headers. Entries keep the iteration order of the
+ * map they were copied from.
+ **/
+public final class CaseInsensitiveMap extends AbstractMap<String, Object>
+{
+    public static final CaseInsensitiveMap EMPTY =
+        new CaseInsensitiveMap(new StringMap());
+
+    private final String[] m_keys;
+    private final Object[] m_values;
+    private final int[] m_hashes;
+    // Open addressing table of entry indexes plus one, zero being empty.
+    private final int[] m_table;
+    private Set<Map.Entry<String, Object>> m_entrySet;
+
+    /**
+     * Copies the given map. Keys are converted to a <tt>String</tt> using
+     * the <tt>toString()</tt> method. If several keys only differ by case,
+     * the first key is kept with the value of the last one, as if they
+     * were put in a {@link StringMap}.
+     * @param map the map to copy.
+    **/
+    public CaseInsensitiveMap(Map<?, ?> map)
+    {
+        int size = map.size();
+        int capacity = 2;
+        while (capacity < size * 2)
+        {
+            capacity <<= 1;
+        }
+        String[] keys = new String[size];
+        Object[] values = new Object[size];
+        int[] hashes = new int[size];
+        int[] table = new int[capacity];
+        int count = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet())
+        {
+            String key = entry.getKey().toString();
+            int hash = hash(key);
+            int idx = indexOf(keys, hashes, table, key, hash);
+            if (idx >= 0)
+            {
+                values[idx] = entry.getValue();
+            }
+            else
+            {
+                keys[count] = key;
+                values[count] = entry.getValue();
+                hashes[count] = hash;
+                int slot = hash & (capacity - 1);
+                while (table[slot] != 0)
+                {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = ++count;
+            }
+        }
+        if (count < size)
+        {
+            String[] k = new String[count];
+            Object[] v = new Object[count];
+            int[] h = new int[count];
+            System.arraycopy(keys, 0, k, 0, count);
+            System.arraycopy(values, 0, v, 0, count);
+            System.arraycopy(hashes, 0, h, 0, count);
+            keys = k;
+            values = v;
+            hashes = h;
+        }
+        m_keys = keys;
+        m_values = values;
+        m_hashes = hashes;
+        m_table = table;
+    }
+
+    @Override
+    public int size()
+    {
+        return m_keys.length;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return m_keys.length == 0;
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        if (key instanceof String)
+        {
+            int idx = indexOf(m_keys, m_hashes, m_table, (String) key, hash((String) key));
+            if (idx >= 0)
+            {
+                return m_values[idx];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return (key instanceof String)
+            && (indexOf(m_keys, m_hashes, m_table, (String) key, hash((String) key)) >= 0);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        if (m_entrySet == null)
+        {
+            m_entrySet = new AbstractSet<Map.Entry<String, Object>>()
+            {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator()
+                {
+                    return new Iterator<Map.Entry<String, Object>>()
+                    {
+                        private int m_idx = 0;
+
+                        public boolean hasNext()
+                        {
+                            return m_idx < m_keys.length;
+                        }
+
+                        public Map.Entry<String, Object> next()
+                        {
+                            if (m_idx >= m_keys.length)
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, Object> entry =
+                                new SimpleImmutableEntry<String, Object>(m_keys[m_idx], m_values[m_idx]);
+                            m_idx++;
+                            return entry;
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return m_keys.length;
+                }
+            };
+        }
+        return m_entrySet;
+    }
+
+    private static int indexOf(
+        String[] keys, int[] hashes, int[] table, String key, int hash)
+    {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        int idx;
+        while ((idx = table[slot]) != 0)
+        {
+            idx--;
+            if ((hashes[idx] == hash) && equalsIgnoreCase(keys[idx], key))
+            {
+                return idx;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(String s)
+    {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            h = 31 * h + fold(s.charAt(i));
+        }
+        // Spread the high bits, since the table uses the low bits only.
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String s1, String s2)
+    {
+        if (s1 == s2)
+        {
+            return true;
+        }
+        int n = s1.length();
+        if (n != s2.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(i);
+            if ((c1 != c2) && (fold(c1) != fold(c2)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Two characters are equal for StringComparator if and only if they
+    // fold to the same character.
+    private static char fold(char c)
+    {
+        if (c <= 128)
+        {
+            return ((c >= 'A') && (c <= 'Z')) ? (char) (c + 'a' - 'A') : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
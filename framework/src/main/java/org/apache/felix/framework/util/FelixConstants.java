@@ -47,14 +47,22 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String LOG_LOGGER_PROP = "felix.log.logger";
     String SYSTEMBUNDLE_ACTIVATORS_PROP = "felix.systembundle.activators";
     String BUNDLE_STARTLEVEL_PROP = "felix.startlevel.bundle";
+    String STARTLEVEL_PARALLELISM = "felix.startlevel.parallelism";
     String SERVICE_URLHANDLERS_PROP = "felix.service.urlhandlers";
     String IMPLICIT_BOOT_DELEGATION_PROP = "felix.bootdelegation.implicit";
+    String NEGATIVE_CACHE_SIZE_PROP = "felix.classloader.negativecache.size";
     String BOOT_CLASSLOADERS_PROP = "felix.bootdelegation.classloaders";
     String USE_LOCALURLS_PROP = "felix.jarurls";
     String NATIVE_OS_NAME_ALIAS_PREFIX = "felix.native.osname.alias";
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_CACHE_PROP = "felix.resolver.cache";
+    String RESOLVER_INCREMENTAL_PROP = "felix.resolver.incremental";
+    String MANIFEST_CACHE_PROP = "felix.manifest.cache";
+    String STARTUP_PROFILER_PROP = "felix.startup.profiler";
+    String CLASS_PRELOAD_PROP = "felix.class.preload";
+    String EVENTDISPATCHER_PARALLELISM = "felix.eventdispatcher.parallelism";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
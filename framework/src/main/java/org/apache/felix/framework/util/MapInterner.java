@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares equal maps which are never modified, such as the directives and
+ * attributes of the capabilities and requirements declared in the manifests
+ * of bundle revisions, many of which are the same across revisions, e.g.,
+ * the filter directive of a package import. Each framework has its own
+ * interner, which is only used when a revision is created. The interned
+ * maps are spread over several segments, each with its own lock, to keep
+ * concurrent installs from contending. Shared maps are only weakly
+ * referenced by the interner, so they are garbage collected once no
+ * capability or requirement uses them anymore. Maps are only compared with
+ * <tt>equals()</tt>, so only maps whose lookups behave the same may be
+ * interned, e.g., not a {@link StringMap}, which ignores case, along with
+ * plain maps. The maps parsed from manifests are all plain maps.
+**/
+public final class MapInterner
+{
+    private static final int SEGMENTS = 16;
+
+    private final Map<Map<?, ?>, WeakReference<Map<?, ?>>>[] m_segments;
+
+    public MapInterner()
+    {
+        m_segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+        {
+            m_segments[i] = new WeakHashMap<Map<?, ?>, WeakReference<Map<?, ?>>>();
+        }
+    }
+
+    /**
+     * Returns a previously interned map equal to the specified map, or the
+     * specified map itself, which is then interned. The specified map must
+     * not be modified after calling this method.
+     * @param map the map to intern, possibly <tt>null</tt>.
+     * @return the shared map.
+    **/
+    public <K, V> Map<K, V> intern(Map<K, V> map)
+    {
+        if ((map == null) || map.isEmpty())
+        {
+            return map;
+        }
+        int hash = map.hashCode();
+        Map<Map<?, ?>, WeakReference<Map<?, ?>>> segment =
+            m_segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        synchronized (segment)
+        {
+            WeakReference<Map<?, ?>> ref = segment.get(map);
+            Map<?, ?> shared = (ref != null) ? ref.get() : null;
+            if (shared == null)
+            {
+                segment.put(map, new WeakReference<Map<?, ?>>(map));
+                return map;
+            }
+            return (Map<K, V>) shared;
+        }
+    }
+}
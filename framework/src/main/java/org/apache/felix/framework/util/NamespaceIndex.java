@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * Immutable list of capabilities or requirements partitioned by namespace,
+ * so that the capabilities or requirements of a given namespace can be
+ * returned without scanning the whole list or allocating a new one. Since
+ * resources only use a handful of namespaces, which are usually interned
+ * constants, namespaces are looked up by identity first in a flat array.
+**/
+public final class NamespaceIndex<T>
+{
+    private final List<T> m_all;
+    private final String[] m_namespaces;
+    private final List<T>[] m_lists;
+
+    private NamespaceIndex(List<T> all, List<String> namespaces)
+    {
+        m_all = all;
+        List<String> distinct = new ArrayList<String>();
+        List<List<T>> lists = new ArrayList<List<T>>();
+        for (int i = 0; i < all.size(); i++)
+        {
+            String namespace = namespaces.get(i);
+            int idx = distinct.indexOf(namespace);
+            if (idx < 0)
+            {
+                idx = distinct.size();
+                distinct.add(namespace);
+                lists.add(new ArrayList<T>());
+            }
+            lists.get(idx).add(all.get(i));
+        }
+        m_namespaces = distinct.toArray(new String[distinct.size()]);
+        m_lists = new List[lists.size()];
+        for (int i = 0; i < m_lists.length; i++)
+        {
+            m_lists[i] = Util.newImmutableList(lists.get(i));
+        }
+    }
+
+    /**
+     * Partitions capabilities by namespace.
+     * @param caps the capabilities, which must not be modified anymore.
+     * @return the partitioned capabilities.
+    **/
+    public static <T extends Capability> NamespaceIndex<T> forCapabilities(List<T> caps)
+    {
+        List<String> namespaces = new ArrayList<String>(caps.size());
+        for (T cap : caps)
+        {
+            namespaces.add(cap.getNamespace());
+        }
+        return new NamespaceIndex<T>(caps, namespaces);
+    }
+
+    /**
+     * Partitions requirements by namespace.
+     * @param reqs the requirements, which must not be modified anymore.
+     * @return the partitioned requirements.
+    **/
+    public static <T extends Requirement> NamespaceIndex<T> forRequirements(List<T> reqs)
+    {
+        List<String> namespaces = new ArrayList<String>(reqs.size());
+        for (T req : reqs)
+        {
+            namespaces.add(req.getNamespace());
+        }
+        return new NamespaceIndex<T>(reqs, namespaces);
+    }
+
+    /**
+     * Returns the capabilities or requirements of a namespace, in their
+     * original order.
+     * @param namespace the namespace or <tt>null</tt> for all namespaces.
+     * @return an unmodifiable list, which is empty if there are no
+     *         capabilities or requirements in the namespace.
+    **/
+    public List<T> get(String namespace)
+    {
+        if (namespace == null)
+        {
+            return m_all;
+        }
+        for (int i = 0; i < m_namespaces.length; i++)
+        {
+            if (m_namespaces[i] == namespace)
+            {
+                return m_lists[i];
+            }
+        }
+        for (int i = 0; i < m_namespaces.length; i++)
+        {
+            if (m_namespaces[i].equals(namespace))
+            {
+                return m_lists[i];
+            }
+        }
+        return Collections.emptyList();
+    }
+}
@@ -480,6 +480,31 @@ public class SecureAction
         }
     }
 
+    public FileOutputStream getFileAppendStream(File file) throws IOException
+    {
+        if (System.getSecurityManager() != null)
+        {
+            try
+            {
+                Actions actions = (Actions) m_actions.get();
+                actions.set(Actions.GET_FILE_APPEND_ACTION, file);
+                return (FileOutputStream) AccessController.doPrivileged(actions, m_acc);
+            }
+            catch (PrivilegedActionException ex)
+            {
+                if (ex.getException() instanceof IOException)
+                {
+                    throw (IOException) ex.getException();
+                }
+                throw (RuntimeException) ex.getException();
+            }
+        }
+        else
+        {
+            return new FileOutputStream(file, true);
+        }
+    }
+
     public URI toURI(File file)
     {
         if (System.getSecurityManager() != null)
@@ -1609,6 +1634,7 @@ public class SecureAction
         public static final int INVOKE_WOVEN_CLASS_LISTENER = 56;
         public static final int GET_CANONICAL_PATH = 57;
         public static final int CREATE_PROXY = 58;
+        public static final int GET_FILE_APPEND_ACTION = 59;
 
         private int m_action = -1;
         private Object m_arg1 = null;
@@ -1746,6 +1772,8 @@ public class SecureAction
                     return new FileInputStream((File) arg1);
                 case GET_FILE_OUTPUT_ACTION:
                     return new FileOutputStream((File) arg1);
+                case GET_FILE_APPEND_ACTION:
+                    return new FileOutputStream((File) arg1, true);
                 case TO_URI_ACTION:
                     return ((File) arg1).toURI();
                 case GET_METHOD_ACTION:
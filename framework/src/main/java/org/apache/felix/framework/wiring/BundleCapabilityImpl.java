@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.MapInterner;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.osgi.framework.Constants;
@@ -59,12 +60,13 @@ public class BundleCapabilityImpl implements BundleCapability
         String value = m_dirs.get(Constants.USES_DIRECTIVE);
         if (value != null)
         {
-            // Parse these uses directive.
+            // Parse these uses directive. The package names are interned,
+            // since the same packages are used by many capabilities.
             StringTokenizer tok = new StringTokenizer(value, ",");
             uses = new ArrayList(tok.countTokens());
             while (tok.hasMoreTokens())
             {
-                uses.add(tok.nextToken().trim());
+                uses.add(tok.nextToken().trim().intern());
             }
         }
         m_uses = uses;
@@ -125,6 +127,24 @@ public class BundleCapabilityImpl implements BundleCapability
         m_mandatory = mandatory;
     }
 
+    /**
+     * Creates a copy of the specified capability which shares its directives
+     * and attributes with equal capabilities of other revisions.
+     * @param cap the capability to copy.
+     * @param interner the interner of the framework.
+    **/
+    public BundleCapabilityImpl(BundleCapabilityImpl cap, MapInterner interner)
+    {
+        m_revision = cap.m_revision;
+        m_namespace = cap.m_namespace;
+        m_dirs = interner.intern(cap.m_dirs);
+        m_attrs = interner.intern(cap.m_attrs);
+        m_uses = cap.m_uses;
+        m_includeFilter = cap.m_includeFilter;
+        m_excludeFilter = cap.m_excludeFilter;
+        m_mandatory = cap.m_mandatory;
+    }
+
     public BundleRevision getResource()
     {
         return m_revision;
@@ -150,6 +170,11 @@ public class BundleCapabilityImpl implements BundleCapability
         return m_attrs;
     }
 
+    public boolean hasMandatoryAttributes()
+    {
+        return !m_mandatory.isEmpty();
+    }
+
     public boolean isAttributeMandatory(String name)
     {
         return !m_mandatory.isEmpty() && m_mandatory.contains(name);
@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Map;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.MapInterner;
 import org.apache.felix.framework.util.Util;
 import org.osgi.framework.Constants;
 import org.osgi.framework.wiring.BundleCapability;
@@ -64,6 +65,22 @@ public class BundleRequirementImpl implements BundleRequirement
         this(revision, namespace, dirs, Collections.EMPTY_MAP, SimpleFilter.convert(attrs));
     }
 
+    /**
+     * Creates a copy of the specified requirement which shares its directives
+     * and attributes with equal requirements of other revisions.
+     * @param req the requirement to copy.
+     * @param interner the interner of the framework.
+    **/
+    public BundleRequirementImpl(BundleRequirementImpl req, MapInterner interner)
+    {
+        m_revision = req.m_revision;
+        m_namespace = req.m_namespace;
+        m_dirs = interner.intern(req.m_dirs);
+        m_attrs = interner.intern(req.m_attrs);
+        m_filter = req.m_filter;
+        m_optional = req.m_optional;
+    }
+
     public String getNamespace()
     {
         return m_namespace;
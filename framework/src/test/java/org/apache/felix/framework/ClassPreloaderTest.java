@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ClassPreloaderTest extends TestCase
+{
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        stopFramework();
+        deleteDir(cacheDir);
+    }
+
+    public void testPreloadRecordedClasses() throws Exception
+    {
+        startFramework();
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: preloaded\n",
+            Used.class, Unused.class).toURI().toString());
+        bundle.start();
+        bundle.loadClass(Used.class.getName());
+        stopFramework();
+
+        // The classes used during the first run are loaded after restart.
+        startFramework();
+        ClassPreloader preloader = ((Felix) felix).getClassPreloader();
+        for (int i = 0; (i < 100) && (preloader.getPreloadedCount() == 0); i++)
+        {
+            Thread.sleep(100);
+        }
+        assertEquals(1, preloader.getPreloadedCount());
+    }
+
+    public void testPreloadWaitsForStartup() throws Exception
+    {
+        startFramework();
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: preloaded\n",
+            Used.class).toURI().toString());
+        bundle.start();
+        bundle.loadClass(Used.class.getName());
+        stopFramework();
+
+        // Nothing is loaded before the framework has started.
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.CLASS_PRELOAD_PROP, "true");
+        felix = new Felix(params);
+        felix.init();
+        assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+        ClassPreloader preloader = ((Felix) felix).getClassPreloader();
+        Thread.sleep(500);
+        assertEquals(0, preloader.getPreloadedCount());
+
+        felix.start();
+        for (int i = 0; (i < 100) && (preloader.getPreloadedCount() == 0); i++)
+        {
+            Thread.sleep(100);
+        }
+        assertEquals(1, preloader.getPreloadedCount());
+    }
+
+    public void testLazyBundlesAreNotPreloaded() throws Exception
+    {
+        startFramework();
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: lazy\n"
+            + "Bundle-ActivationPolicy: lazy\n",
+            Used.class).toURI().toString());
+        bundle.start(Bundle.START_ACTIVATION_POLICY);
+        bundle.loadClass(Used.class.getName());
+        stopFramework();
+
+        startFramework();
+        bundle = felix.getBundleContext().getBundle(bundle.getBundleId());
+        Thread.sleep(500);
+        assertEquals(0, ((Felix) felix).getClassPreloader().getPreloadedCount());
+        assertEquals(Bundle.STARTING, bundle.getState());
+    }
+
+    public static class Used
+    {
+    }
+
+    public static class Unused
+    {
+    }
+
+    private void startFramework() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.CLASS_PRELOAD_PROP, "true");
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+    }
+
+    private void stopFramework() throws Exception
+    {
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            felix = null;
+        }
+    }
+
+    private File createBundle(String manifest, Class... classes) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        for (Class clazz : classes)
+        {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry(path));
+
+            InputStream is = clazz.getClassLoader().getResourceAsStream(path);
+            byte[] buffer = new byte[8 * 1024];
+            for (int i = is.read(buffer); i != -1; i = is.read(buffer))
+            {
+                os.write(buffer, 0, i);
+            }
+            is.close();
+            os.closeEntry();
+        }
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Map;
 
 import org.apache.felix.framework.cache.BundleArchive;
 import org.apache.felix.framework.cache.BundleArchiveRevision;
+import org.apache.felix.framework.util.MapInterner;
 import org.mockito.Mockito;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
@@ -64,6 +65,7 @@ public class CollisionHookTest extends TestCase
         // Mock the framework
         StatefulResolver mockResolver = Mockito.mock(StatefulResolver.class);
         Felix felixMock = Mockito.mock(Felix.class);
+        Mockito.when(felixMock.getMapInterner()).thenReturn(new MapInterner());
         HookRegistry hReg = mock(HookRegistry.class);
         when(hReg.getHooks(CollisionHook.class)).thenReturn(Collections.singleton(chRef));
         when(felixMock.getHookRegistry()).thenReturn(hReg);
@@ -129,6 +131,7 @@ public class CollisionHookTest extends TestCase
         // Mock the framework
         StatefulResolver mockResolver = Mockito.mock(StatefulResolver.class);
         Felix felixMock = Mockito.mock(Felix.class);
+        Mockito.when(felixMock.getMapInterner()).thenReturn(new MapInterner());
         Mockito.when(felixMock.getConfig()).thenReturn(config);
         HookRegistry hReg = mock(HookRegistry.class);
         when(hReg.getHooks(CollisionHook.class)).thenReturn(Collections.singleton(chRef));
@@ -188,6 +191,7 @@ public class CollisionHookTest extends TestCase
         // Mock the framework
         StatefulResolver mockResolver = Mockito.mock(StatefulResolver.class);
         Felix felixMock = Mockito.mock(Felix.class);
+        Mockito.when(felixMock.getMapInterner()).thenReturn(new MapInterner());
         Mockito.when(felixMock.getConfig()).thenReturn(config);
         HookRegistry hReg = mock(HookRegistry.class);
         when(hReg.getHooks(CollisionHook.class)).thenReturn(Collections.singleton(chRef));
@@ -235,6 +239,7 @@ public class CollisionHookTest extends TestCase
         // Mock the framework
         StatefulResolver mockResolver = Mockito.mock(StatefulResolver.class);
         Felix felixMock = Mockito.mock(Felix.class);
+        Mockito.when(felixMock.getMapInterner()).thenReturn(new MapInterner());
         Mockito.when(felixMock.getConfig()).thenReturn(config);
         Mockito.when(felixMock.getResolver()).thenReturn(mockResolver);
         Mockito.when(felixMock.getBundles()).thenReturn(new Bundle[]
@@ -267,6 +272,7 @@ public class CollisionHookTest extends TestCase
         // Mock the framework
         StatefulResolver mockResolver = Mockito.mock(StatefulResolver.class);
         Felix felixMock = Mockito.mock(Felix.class);
+        Mockito.when(felixMock.getMapInterner()).thenReturn(new MapInterner());
         HookRegistry hReg = Mockito.mock(HookRegistry.class);
         Mockito.when(felixMock.getHookRegistry()).thenReturn(hReg);
         Mockito.when(felixMock.getResolver()).thenReturn(mockResolver);
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures service events per second delivered by the <tt>EventDispatcher</tt>
+ * as the number of registered service listeners grows. Each listener uses an
+ * object class filter (as used by service trackers and SCR references) and
+ * the same run is repeated with filters on a non-indexable property for
+ * comparison. Run with <tt>java ... EventDispatcherBenchmark [counts...]</tt>.
+ */
+public class EventDispatcherBenchmark
+{
+    private static final int EVENTS = 20000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] counts = { 10, 100, 1000, 3000, 6000 };
+        if (args.length > 0)
+        {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("listeners\tobjectClass events/sec\tproperty events/sec");
+        for (int count : counts)
+        {
+            // Warm up before measuring.
+            run(count, true);
+            run(count, false);
+            System.out.println(count
+                + "\t" + (long) run(count, true)
+                + "\t" + (long) run(count, false));
+        }
+    }
+
+    private static double run(int listeners, boolean objectClassFilters) throws Exception
+    {
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        Bundle bundle = createBundle();
+        final int[] delivered = new int[1];
+        ServiceListener listener = new AllServiceListener()
+        {
+            public void serviceChanged(ServiceEvent event)
+            {
+                delivered[0]++;
+            }
+        };
+
+        // Each listener gets its own bundle context, as if every listener
+        // belonged to a different bundle.
+        for (int i = 0; i < listeners; i++)
+        {
+            String filter = objectClassFilters
+                ? "(objectClass=org.example.Service" + i + ")"
+                : "(service.pid=org.example.Service" + i + ")";
+            ed.addListener(createBundleContext(bundle), ServiceListener.class,
+                listener, FrameworkUtil.createFilter(filter));
+        }
+
+        ServiceReference[] refs = new ServiceReference[Math.min(listeners, 100)];
+        for (int i = 0; i < refs.length; i++)
+        {
+            Hashtable props = new Hashtable();
+            props.put("service.pid", "org.example.Service" + i);
+            refs[i] = registry.registerService(bundle,
+                new String[] { "org.example.Service" + i }, new Object(), props)
+                .getReference();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++)
+        {
+            ed.fireServiceEvent(
+                new ServiceEvent(ServiceEvent.MODIFIED, refs[i % refs.length]),
+                null, null);
+        }
+        long time = System.nanoTime() - start;
+
+        if (delivered[0] != EVENTS)
+        {
+            throw new IllegalStateException(
+                "Expected " + EVENTS + " deliveries but got " + delivered[0]);
+        }
+        return EVENTS / (time / 1000000000.0);
+    }
+
+    private static Bundle createBundle()
+    {
+        return (Bundle) Proxy.newProxyInstance(
+            EventDispatcherBenchmark.class.getClassLoader(),
+            new Class[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getState"))
+                    {
+                        return Bundle.ACTIVE;
+                    }
+                    else if (method.getName().equals("getBundleId"))
+                    {
+                        return 1L;
+                    }
+                    return identity(proxy, method, args);
+                }
+            });
+    }
+
+    private static BundleContext createBundleContext(final Bundle bundle)
+    {
+        return (BundleContext) Proxy.newProxyInstance(
+            EventDispatcherBenchmark.class.getClassLoader(),
+            new Class[] { BundleContext.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getBundle"))
+                    {
+                        return bundle;
+                    }
+                    return identity(proxy, method, args);
+                }
+            });
+    }
+
+    private static Object identity(Object proxy, Method method, Object[] args)
+    {
+        if (method.getName().equals("hashCode"))
+        {
+            return System.identityHashCode(proxy);
+        }
+        else if (method.getName().equals("equals"))
+        {
+            return proxy == args[0];
+        }
+        else if (method.getName().equals("toString"))
+        {
+            return "proxy@" + System.identityHashCode(proxy);
+        }
+        return null;
+    }
+}
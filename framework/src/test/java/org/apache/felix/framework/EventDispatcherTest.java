@@ -18,14 +18,24 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.framework.util.FelixConstants;
 import org.easymock.EasyMock;
+import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -137,6 +147,253 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventUsesListenerIndex() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener sl1 = new TestAllServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl1,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        ServiceListener sl2 = new TestAllServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+        ServiceListener sl3 = new TestAllServiceListener(fired);
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, sl3,
+            FrameworkUtil.createFilter(
+                "(|(objectClass=java.lang.Long)(&(objectClass=java.lang.String)(foo=bar)))"));
+        ServiceListener sl4 = new TestAllServiceListener(fired);
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, sl4,
+            FrameworkUtil.createFilter("(foo=bar)"));
+
+        Hashtable props = new Hashtable();
+        props.put("foo", "bar");
+        ServiceReference sr = registry.registerService(
+            b1, new String[] { "java.lang.String" }, "hello", props).getReference();
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(3, fired.size());
+        assertTrue(fired.contains(sl1));
+        assertTrue(fired.contains(sl3));
+        assertTrue(fired.contains(sl4));
+
+        // Updating the filter must move the listener in the index.
+        fired.clear();
+        ed.updateListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        ed.removeListener(b1.getBundleContext(), ServiceListener.class, sl1);
+        ed.removeListeners(b2.getBundleContext());
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(1, fired.size());
+        assertSame(sl2, fired.get(0));
+    }
+
+    public void testUpdateListenerKeepsRegistrationOrder() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener sl1 = new TestAllServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl1,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        ServiceListener sl2 = new TestAllServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+        ServiceListener sl3 = new TestAllServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, sl3,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+
+        // Updated listeners keep their place, whether or not they move
+        // to another object class of the index.
+        ed.updateListener(b1.getBundleContext(), ServiceListener.class, sl1,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        ed.updateListener(b1.getBundleContext(), ServiceListener.class, sl2,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+
+        ServiceReference sr = registry.registerService(
+            b1, new String[] { "java.lang.String" }, "hello", new Hashtable()).getReference();
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(Arrays.asList(sl1, sl2, sl3), fired);
+    }
+
+    public void testFireBundleEventWithListenerQueues() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, 2);
+        ed.startDispatching();
+        try
+        {
+            // A blocked listener must not prevent delivery to other listeners.
+            final CountDownLatch blocker = new CountDownLatch(1);
+            BundleListener slow = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    try
+                    {
+                        blocker.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            ed.addListener(b1.getBundleContext(), BundleListener.class, slow, null);
+
+            final List received = Collections.synchronizedList(new ArrayList());
+            final CountDownLatch done = new CountDownLatch(10);
+            BundleListener fast = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    received.add(event);
+                    done.countDown();
+                }
+            };
+            ed.addListener(b2.getBundleContext(), BundleListener.class, fast, null);
+
+            List fired = new ArrayList();
+            for (int i = 0; i < 10; i++)
+            {
+                BundleEvent event = new BundleEvent(BundleEvent.INSTALLED, b1);
+                fired.add(event);
+                ed.fireBundleEvent(event, null);
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(fired, received);
+            assertTrue(ed.getQueueDepth() >= 9);
+
+            blocker.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((ed.getQueueDepth() > 0) && (System.currentTimeMillis() < deadline))
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(0, ed.getQueueDepth());
+
+            List<EventDispatcher.ListenerStatistics> stats = ed.getListenerStatistics();
+            assertEquals(2, stats.size());
+            for (EventDispatcher.ListenerStatistics stat : stats)
+            {
+                assertEquals(10, stat.getDeliveredCount());
+                assertEquals(0, stat.getQueueDepth());
+                assertTrue(stat.getMaxLatency() >= stat.getAverageLatency());
+            }
+
+            ed.removeListeners(b1.getBundleContext());
+            assertEquals(1, ed.getListenerStatistics().size());
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+    }
+
+    private static class TestAllServiceListener implements AllServiceListener
+    {
+        private final List m_fired;
+
+        TestAllServiceListener(List fired)
+        {
+            m_fired = fired;
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+            m_fired.add(this);
+        }
+    }
+
+    public void testListenerStatisticsLoggedOnShutdown() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        Logger logger = new Logger()
+        {
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable)
+            {
+                messages.add(msg);
+            }
+        };
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.LOG_LOGGER_PROP, logger);
+        params.put(FelixConstants.LOG_LEVEL_PROP, "4");
+        params.put(FelixConstants.EVENTDISPATCHER_PARALLELISM, "2");
+        Felix felix = new Felix(params);
+        try
+        {
+            felix.init();
+            final CountDownLatch started = new CountDownLatch(1);
+            felix.getBundleContext().addFrameworkListener(new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.STARTED)
+                    {
+                        started.countDown();
+                    }
+                }
+            });
+            felix.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            felix.stop();
+            felix.waitForStop(10000);
+
+            String stats = null;
+            synchronized (messages)
+            {
+                for (String msg : messages)
+                {
+                    if (msg.startsWith("Asynchronous event delivery"))
+                    {
+                        stats = msg;
+                    }
+                }
+            }
+            assertNotNull(messages.toString(), stats);
+            assertTrue(stats, stats.contains("delivered="));
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class NegativeCacheTest extends TestCase
+{
+    private File cacheDir;
+    private Framework felix;
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.LOG_LOGGER_PROP, new Logger()
+        {
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable)
+            {
+                messages.add(msg);
+            }
+        });
+        params.put(FelixConstants.LOG_LEVEL_PROP, "4");
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        felix.stop();
+        felix.waitForStop(10000);
+        deleteDir(cacheDir);
+    }
+
+    public void testMissesAreCachedPerGeneration() throws Exception
+    {
+        Bundle importer = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: importer\n"
+            + "DynamicImport-Package: org.example.api\n",
+            "org/example/impl/Impl.class").toURI().toString());
+        importer.start();
+        BundleWiringImpl wiring = (BundleWiringImpl) importer.adapt(BundleWiring.class);
+
+        assertNull(importer.getResource("org/example/api/foo.txt"));
+        assertEquals(0, wiring.getNegativeCacheHits());
+        assertEquals(1, wiring.getNegativeCacheMisses());
+        assertNull(importer.getResource("org/example/api/foo.txt"));
+        assertEquals(1, wiring.getNegativeCacheHits());
+
+        // A new exporter must make the dynamic import succeed.
+        felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: exporter\n"
+            + "Export-Package: org.example.api\n",
+            "org/example/api/foo.txt").toURI().toString());
+        assertNotNull(importer.getResource("org/example/api/foo.txt"));
+        assertEquals(1, wiring.getNegativeCacheHits());
+    }
+
+    public void testDynamicImportMissesAreCachedPerPackage() throws Exception
+    {
+        Bundle importer = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: importer\n"
+            + "DynamicImport-Package: org.example.*\n",
+            "org/example/impl/Impl.class").toURI().toString());
+        importer.start();
+        StatefulResolver resolver = ((Felix) felix).getResolver();
+
+        assertNull(importer.getResource("org/example/api/foo.txt"));
+        assertEquals(0, resolver.getDynamicMissHits());
+        // Another resource of the same package must not resolve again.
+        assertNull(importer.getResource("org/example/api/bar.txt"));
+        assertEquals(1, resolver.getDynamicMissHits());
+
+        // A new exporter must make the dynamic import succeed.
+        felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: exporter\n"
+            + "Export-Package: org.example.api\n",
+            "org/example/api/bar.txt").toURI().toString());
+        assertNotNull(importer.getResource("org/example/api/bar.txt"));
+        assertEquals(1, resolver.getDynamicMissHits());
+    }
+
+    public void testLocalPackageIndex() throws Exception
+    {
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: local\n",
+            "org/example/impl/Impl.class").toURI().toString());
+        bundle.start();
+        BundleWiringImpl wiring = (BundleWiringImpl) bundle.adapt(BundleWiring.class);
+
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                bundle.loadClass("org.example.missing.Missing");
+                fail("Class should not be found");
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Expected.
+            }
+        }
+        assertEquals(1, wiring.getLocalIndexSkips());
+        assertEquals(1, wiring.getNegativeCacheHits());
+    }
+
+    public void testStatisticsAreLoggedOnShutdown() throws Exception
+    {
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: local\n",
+            "org/example/impl/Impl.class").toURI().toString());
+        bundle.start();
+        assertNull(bundle.getResource("org/example/impl/missing.txt"));
+        assertNull(bundle.getResource("org/example/impl/missing.txt"));
+
+        felix.stop();
+        felix.waitForStop(10000);
+        String stats = null;
+        synchronized (messages)
+        {
+            for (String msg : messages)
+            {
+                if (msg.startsWith("Class loading:"))
+                {
+                    stats = msg;
+                }
+            }
+        }
+        assertNotNull(messages.toString(), stats);
+        assertTrue(stats, stats.contains("negative cache hits=1,"));
+        assertTrue(stats, stats.contains("negative cache misses=1,"));
+    }
+
+    private File createBundle(String manifest, String entry) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.putNextEntry(new ZipEntry(entry));
+        os.write(new byte[] { 1, 2, 3 });
+        os.closeEntry();
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ParallelStartLevelTest extends TestCase
+{
+    private static final int BUNDLES = 4;
+
+    public void testSerialStartLevel() throws Exception
+    {
+        assertEquals(1, startLevel(null));
+    }
+
+    public void testParallelStartLevel() throws Exception
+    {
+        assertTrue(startLevel("4") > 1);
+    }
+
+    public void testParallelActivatorsStartingEachOther() throws Exception
+    {
+        MutualActivator.reset();
+
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_BUNDLE_PARENT, Constants.FRAMEWORK_BUNDLE_PARENT_APP);
+        params.put(Constants.FRAMEWORK_BOOTDELEGATION, "org.apache.felix.framework");
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM, "2");
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+        try
+        {
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (int i = 0; i < 2; i++)
+            {
+                Bundle b = f.getBundleContext().installBundle(createBundle(
+                    "mutual.test." + i, MutualActivator.class, cacheDir).toURI().toString());
+                b.adapt(BundleStartLevel.class).setStartLevel(2);
+                b.start();
+                bundles.add(b);
+            }
+
+            final CountDownLatch changed = new CountDownLatch(1);
+            f.adapt(FrameworkStartLevel.class).setStartLevel(2, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.STARTLEVEL_CHANGED)
+                    {
+                        changed.countDown();
+                    }
+                }
+            });
+            // Waiting for each other's bundle would deadlock the start level.
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+            for (Bundle b : bundles)
+            {
+                assertEquals(Bundle.ACTIVE, b.getState());
+            }
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private int startLevel(String parallelism) throws Exception
+    {
+        ConcurrentActivator.reset();
+
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        // Load the activator from the test class path so that all bundles
+        // share its counters.
+        params.put(Constants.FRAMEWORK_BUNDLE_PARENT, Constants.FRAMEWORK_BUNDLE_PARENT_APP);
+        params.put(Constants.FRAMEWORK_BOOTDELEGATION, "org.apache.felix.framework");
+        if (parallelism != null)
+        {
+            params.put(FelixConstants.STARTLEVEL_PARALLELISM, parallelism);
+        }
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+        try
+        {
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                Bundle b = f.getBundleContext().installBundle(
+                    createBundle("parallel.test." + i, cacheDir).toURI().toString());
+                b.adapt(BundleStartLevel.class).setStartLevel(2);
+                b.start();
+                assertEquals(Bundle.INSTALLED, b.getState());
+                bundles.add(b);
+            }
+
+            final CountDownLatch changed = new CountDownLatch(1);
+            final List<Integer> states = new ArrayList<Integer>();
+            final List<Bundle> started = bundles;
+            f.adapt(FrameworkStartLevel.class).setStartLevel(2, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.STARTLEVEL_CHANGED)
+                    {
+                        for (Bundle b : started)
+                        {
+                            states.add(b.getState());
+                        }
+                        changed.countDown();
+                    }
+                }
+            });
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+
+            // The start level only changes once the whole level is started.
+            assertEquals(BUNDLES, states.size());
+            for (Integer state : states)
+            {
+                assertEquals(Bundle.ACTIVE, state.intValue());
+            }
+            assertEquals(BUNDLES, ConcurrentActivator.STARTED.get());
+            return ConcurrentActivator.MAX_CONCURRENT.get();
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(String bsn, File tempDir) throws IOException
+    {
+        return createBundle(bsn, ConcurrentActivator.class, tempDir);
+    }
+
+    private static File createBundle(String bsn, Class activator, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        String manifest = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Bundle-Activator: " + activator.getName() + "\n";
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class ConcurrentActivator implements BundleActivator
+    {
+        static final AtomicInteger STARTED = new AtomicInteger();
+        static final AtomicInteger CONCURRENT = new AtomicInteger();
+        static final AtomicInteger MAX_CONCURRENT = new AtomicInteger();
+
+        static void reset()
+        {
+            STARTED.set(0);
+            CONCURRENT.set(0);
+            MAX_CONCURRENT.set(0);
+        }
+
+        public void start(BundleContext context) throws Exception
+        {
+            int concurrent = CONCURRENT.incrementAndGet();
+            synchronized (MAX_CONCURRENT)
+            {
+                MAX_CONCURRENT.set(Math.max(MAX_CONCURRENT.get(), concurrent));
+            }
+            Thread.sleep(500);
+            CONCURRENT.decrementAndGet();
+            STARTED.incrementAndGet();
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+
+    public static class MutualActivator implements BundleActivator
+    {
+        static CountDownLatch ENTERED;
+
+        static void reset()
+        {
+            ENTERED = new CountDownLatch(2);
+        }
+
+        public void start(BundleContext context) throws Exception
+        {
+            // Make sure both activators run at the same time.
+            ENTERED.countDown();
+            ENTERED.await(5, TimeUnit.SECONDS);
+
+            String other = context.getBundle().getSymbolicName().endsWith("0")
+                ? "mutual.test.1" : "mutual.test.0";
+            for (Bundle b : context.getBundles())
+            {
+                if (other.equals(b.getSymbolicName()))
+                {
+                    try
+                    {
+                        b.start(Bundle.START_TRANSIENT);
+                    }
+                    catch (BundleException ex)
+                    {
+                        // The other bundle is starting.
+                    }
+                }
+            }
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class ParsedManifestTest extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        file = File.createTempFile("felix-manifest", ".cache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        file.delete();
+    }
+
+    public void testStoreAndLoad() throws Exception
+    {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "test.bundle;singleton:=true");
+        headers.put(Constants.BUNDLE_VERSION, "1.2.3");
+        headers.put(Constants.EXPORT_PACKAGE,
+            "org.example.a;version=1.0;uses:=\"org.example.b,org.example.c\","
+            + "org.example.b;version=2.0;mandatory:=x;x=y");
+        headers.put(Constants.IMPORT_PACKAGE,
+            "org.example.c;version=\"[1,2)\",org.example.d;resolution:=optional");
+        headers.put(Constants.PROVIDE_CAPABILITY,
+            "test.ns;test.ns=foo;count:Long=5;ratio:Double=0.5;"
+            + "versions:List<Version>=\"1.0,2.0\"");
+        headers.put(Constants.REQUIRE_CAPABILITY,
+            "test.ns;filter:=\"(&(test.ns=foo)(count>=3))\"");
+        headers.put(Constants.BUNDLE_ACTIVATIONPOLICY, "lazy;include:=\"org.example.a\"");
+
+        BundleRevision owner = mock(BundleRevision.class);
+        ParsedManifest parsed = new ParsedManifest(
+            new ManifestParser(new Logger(), new HashMap<String, Object>(), owner, headers));
+        assertTrue(parsed.isStorable(headers));
+
+        long key = ParsedManifest.getKey("1.0.0", headers);
+        parsed.store(new Logger(), file, key);
+
+        ParsedManifest loaded = ParsedManifest.load(new Logger(), file, key, owner);
+        assertNotNull(loaded);
+        assertEquals(parsed.getManifestVersion(), loaded.getManifestVersion());
+        assertEquals(parsed.getSymbolicName(), loaded.getSymbolicName());
+        assertEquals(parsed.getBundleVersion(), loaded.getBundleVersion());
+        assertEquals(parsed.getActivationPolicy(), loaded.getActivationPolicy());
+        assertEquals(parsed.getActivationIncludeDirective(),
+            loaded.getActivationIncludeDirective());
+        assertNull(loaded.getActivationExcludeDirective());
+
+        List<BundleCapability> caps = parsed.getCapabilities();
+        assertEquals(caps.size(), loaded.getCapabilities().size());
+        for (int i = 0; i < caps.size(); i++)
+        {
+            BundleCapabilityImpl expected = (BundleCapabilityImpl) caps.get(i);
+            BundleCapabilityImpl actual = (BundleCapabilityImpl) loaded.getCapabilities().get(i);
+            assertSame(owner, actual.getRevision());
+            assertEquals(expected.getNamespace(), actual.getNamespace());
+            assertEquals(expected.getDirectives(), actual.getDirectives());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+            assertEquals(expected.getUses(), actual.getUses());
+        }
+
+        List<BundleRequirement> reqs = parsed.getRequirements();
+        assertEquals(reqs.size(), loaded.getRequirements().size());
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            BundleRequirementImpl expected = (BundleRequirementImpl) reqs.get(i);
+            BundleRequirementImpl actual = (BundleRequirementImpl) loaded.getRequirements().get(i);
+            assertSame(owner, actual.getRevision());
+            assertEquals(expected.getNamespace(), actual.getNamespace());
+            assertEquals(expected.getDirectives(), actual.getDirectives());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+            assertEquals(expected.getFilter().toString(), actual.getFilter().toString());
+            assertEquals(expected.isOptional(), actual.isOptional());
+        }
+
+        // Package names are interned.
+        BundleCapability export = loaded.getCapabilities().get(3);
+        assertEquals(BundleRevision.PACKAGE_NAMESPACE, export.getNamespace());
+        assertSame("org.example.a", export.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE));
+        assertSame("org.example.b", ((BundleCapabilityImpl) export).getUses().get(0));
+    }
+
+    public void testChangedHeadersAreNotLoaded() throws Exception
+    {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "test.bundle");
+        headers.put(Constants.EXPORT_PACKAGE, "org.example.a");
+
+        BundleRevision owner = mock(BundleRevision.class);
+        ParsedManifest parsed = new ParsedManifest(
+            new ManifestParser(new Logger(), new HashMap<String, Object>(), owner, headers));
+        parsed.store(new Logger(), file, ParsedManifest.getKey("1.0.0", headers));
+
+        assertNull(ParsedManifest.load(new Logger(), file,
+            ParsedManifest.getKey("1.0.1", headers), owner));
+        headers.put(Constants.EXPORT_PACKAGE, "org.example.b");
+        assertNull(ParsedManifest.load(new Logger(), file,
+            ParsedManifest.getKey("1.0.0", headers), owner));
+
+        headers.put(Constants.BUNDLE_NATIVECODE, "lib/foo.so");
+        assertFalse(parsed.isStorable(headers));
+    }
+
+    public void testWarningsAreStored() throws Exception
+    {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "test.bundle");
+        headers.put(Constants.IMPORT_PACKAGE, "org.example.a;foo=bar");
+
+        RecordingLogger logger = new RecordingLogger();
+        logger.setLogLevel(Logger.LOG_WARNING);
+        ParsedManifest.WarningRecorder recorder = new ParsedManifest.WarningRecorder(logger);
+        BundleRevision owner = mock(BundleRevision.class);
+        ParsedManifest parsed = new ParsedManifest(
+            new ManifestParser(recorder, new HashMap<String, Object>(), owner, headers),
+            recorder.getWarnings());
+        // The warning is still passed on to the framework logger.
+        assertEquals(Arrays.asList("Unknown R3 import attribute: foo"), logger.messages);
+        assertEquals(logger.messages, parsed.getWarnings());
+
+        long key = ParsedManifest.getKey("1.0.0", headers);
+        parsed.store(new Logger(), file, key);
+        ParsedManifest loaded = ParsedManifest.load(new Logger(), file, key, owner);
+        assertNotNull(loaded);
+        assertEquals(parsed.getWarnings(), loaded.getWarnings());
+    }
+
+    public void testCachedManifestOnRestart() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+        File bundleFile = File.createTempFile("felix-bundle", ".jar");
+        try
+        {
+            Manifest mf = new Manifest();
+            mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+            mf.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "test.bundle");
+            mf.getMainAttributes().putValue(Constants.IMPORT_PACKAGE, "org.example.a;foo=bar");
+            new JarOutputStream(new FileOutputStream(bundleFile), mf).close();
+
+            RecordingLogger logger = new RecordingLogger();
+            Framework felix = startFramework(cacheDir, logger);
+            try
+            {
+                felix.getBundleContext().installBundle(bundleFile.toURI().toString());
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+            assertTrue(new File(cacheDir, "bundle1/version0.0/"
+                + ParsedManifest.MANIFEST_CACHE_FILE).isFile());
+            assertTrue(logger.messages.contains("Unknown R3 import attribute: foo"));
+
+            // The warning is logged again when the stored metadata is used.
+            logger.messages.clear();
+            felix = startFramework(cacheDir, logger);
+            try
+            {
+                assertTrue(logger.messages.contains("Unknown R3 import attribute: foo"));
+            }
+            finally
+            {
+                felix.stop();
+                felix.waitForStop(10000);
+            }
+        }
+        finally
+        {
+            bundleFile.delete();
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static Framework startFramework(File cacheDir, Logger logger) throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.MANIFEST_CACHE_PROP, "true");
+        params.put(FelixConstants.LOG_LOGGER_PROP, logger);
+        params.put(FelixConstants.LOG_LEVEL_PROP, "2");
+
+        Framework felix = new Felix(params);
+        felix.init();
+        felix.start();
+        return felix;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    private static class RecordingLogger extends Logger
+    {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+            messages.add(msg);
+        }
+    }
+}
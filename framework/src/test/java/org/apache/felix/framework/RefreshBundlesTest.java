@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class RefreshBundlesTest extends TestCase
+{
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        felix.stop();
+        felix.waitForStop(10000);
+        deleteDir(cacheDir);
+    }
+
+    public void testInstallWhileRefreshingBundleStops() throws Exception
+    {
+        BundleContext context = felix.getBundleContext();
+        CountDownLatch stopping = registerLatch(context, "stopping");
+        CountDownLatch release = registerLatch(context, "release");
+
+        final Bundle slow = context.installBundle(createBundle(
+            "Bundle-SymbolicName: slow\n"
+            + "Bundle-Activator: " + SlowActivator.class.getName() + "\n"
+            + "Import-Package: org.osgi.framework\n",
+            SlowActivator.class).toURI().toString());
+        slow.start();
+
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        Collection<Bundle> targets = Collections.singleton(slow);
+        felix.adapt(FrameworkWiring.class).refreshBundles(targets,
+            new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    refreshed.countDown();
+                }
+            });
+        assertTrue(stopping.await(10, TimeUnit.SECONDS));
+
+        // Installing an unrelated bundle must not wait for the refresh.
+        final File other = createBundle("Bundle-SymbolicName: other\n");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Bundle> future = executor.submit(new Callable<Bundle>()
+            {
+                public Bundle call() throws Exception
+                {
+                    Bundle bundle = felix.getBundleContext().installBundle(
+                        other.toURI().toString());
+                    bundle.start();
+                    return bundle;
+                }
+            });
+            assertEquals(Bundle.ACTIVE, future.get(10, TimeUnit.SECONDS).getState());
+            assertEquals(1, refreshed.getCount());
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdown();
+        }
+
+        assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        assertEquals(Bundle.ACTIVE, slow.getState());
+    }
+
+    private static CountDownLatch registerLatch(BundleContext context, String name)
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("latch", name);
+        context.registerService(CountDownLatch.class, latch, props);
+        return latch;
+    }
+
+    public static class SlowActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+            getLatch(context, "stopping").countDown();
+            getLatch(context, "release").await(10, TimeUnit.SECONDS);
+        }
+
+        private static CountDownLatch getLatch(BundleContext context, String name)
+            throws Exception
+        {
+            ServiceReference<CountDownLatch> ref = context.getServiceReferences(
+                CountDownLatch.class, "(latch=" + name + ")").iterator().next();
+            return context.getService(ref);
+        }
+    }
+
+    private File createBundle(String manifest, Class... classes) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        for (Class clazz : classes)
+        {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry(path));
+
+            InputStream is = clazz.getClassLoader().getResourceAsStream(path);
+            byte[] buffer = new byte[8 * 1024];
+            for (int i = is.read(buffer); i != -1; i = is.read(buffer))
+            {
+                os.write(buffer, 0, i);
+            }
+            is.close();
+            os.closeEntry();
+        }
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures service lookups and get/unget pairs per second on the
+ * <tt>ServiceRegistry</tt> with a growing number of concurrent threads.
+ * Lookups by class name use the ranked snapshots; the same lookups
+ * expressed as an <tt>objectClass</tt> filter go through the capability
+ * set, as all lookups did before, and are reported for comparison. Run
+ * with <tt>java ... ServiceRegistryBenchmark [threads...]</tt>.
+ */
+public class ServiceRegistryBenchmark
+{
+    private static final int SERVICES = 1000;
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] counts = { 1, 4, 16, 64 };
+        if (args.length > 0)
+        {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        final ServiceRegistry registry = new ServiceRegistry(new Logger(), null);
+        final Bundle bundle = createBundle();
+        final ServiceReference<?>[] refs = new ServiceReference[SERVICES];
+        for (int i = 0; i < SERVICES; i++)
+        {
+            Hashtable props = new Hashtable();
+            props.put(Constants.SERVICE_RANKING, i % 10);
+            refs[i] = registry.registerService(bundle,
+                new String[] { "org.example.Service" + (i % 100) }, new Object(), props)
+                .getReference();
+        }
+
+        System.out.println("threads\tsnapshot lookups/sec\tfilter lookups/sec\tget+unget/sec");
+        for (int count : counts)
+        {
+            // Warm up before measuring.
+            run(registry, bundle, refs, count, 0);
+            run(registry, bundle, refs, count, 1);
+            run(registry, bundle, refs, count, 2);
+            System.out.println(count
+                + "\t" + (long) run(registry, bundle, refs, count, 0)
+                + "\t" + (long) run(registry, bundle, refs, count, 1)
+                + "\t" + (long) run(registry, bundle, refs, count, 2));
+        }
+    }
+
+    private static double run(
+        final ServiceRegistry registry, final Bundle bundle,
+        final ServiceReference<?>[] refs, int threads, final int mode)
+        throws Exception
+    {
+        final int perThread = OPERATIONS / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            final int offset = t;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < perThread; i++)
+                        {
+                            String className = "org.example.Service" + ((i + offset) % 100);
+                            if (mode == 0)
+                            {
+                                check(registry.getServiceReferences(className, null).size());
+                            }
+                            else if (mode == 1)
+                            {
+                                check(registry.getServiceReferences(null, new SimpleFilter(
+                                    Constants.OBJECTCLASS, className, SimpleFilter.EQ)).size());
+                            }
+                            else
+                            {
+                                ServiceReference<?> ref = refs[(i + offset) % refs.length];
+                                registry.getService(bundle, ref, false);
+                                registry.ungetService(bundle, ref, null);
+                            }
+                        }
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long time = System.nanoTime();
+        start.countDown();
+        done.await();
+        time = System.nanoTime() - time;
+        return (perThread * threads) / (time / 1000000000.0);
+    }
+
+    private static void check(int size)
+    {
+        if (size != SERVICES / 100)
+        {
+            throw new IllegalStateException(
+                "Expected " + (SERVICES / 100) + " references but got " + size);
+        }
+    }
+
+    private static Bundle createBundle()
+    {
+        return (Bundle) Proxy.newProxyInstance(
+            ServiceRegistryBenchmark.class.getClassLoader(),
+            new Class[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getBundleId"))
+                    {
+                        return 1L;
+                    }
+                    else if (method.getName().equals("hashCode"))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    else if (method.getName().equals("equals"))
+                    {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -37,6 +37,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -45,6 +46,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceFactory;
@@ -698,6 +700,75 @@ public class ServiceRegistryTest extends TestCase
         }
     }
 
+    public void testServiceReferencesByClassNameAreRanked() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        Bundle b = Mockito.mock(Bundle.class);
+        String[] classes = new String[] { String.class.getName(), Integer.class.getName() };
+
+        ServiceRegistration reg1 = sr.registerService(b, classes, "low", new Hashtable());
+        Hashtable props = new Hashtable();
+        props.put(Constants.SERVICE_RANKING, 10);
+        ServiceRegistration reg2 = sr.registerService(b, classes, "high", props);
+        ServiceRegistration reg3 = sr.registerService(b, classes, "newer", new Hashtable());
+
+        assertEquals(Arrays.asList(reg2.getReference(), reg1.getReference(), reg3.getReference()),
+            new ArrayList(sr.getServiceReferences(Integer.class.getName(), null)));
+        assertEquals(Arrays.asList(reg1.getReference()),
+            new ArrayList(sr.getServiceReferences(String.class.getName(),
+                SimpleFilter.parse("(service.id=" + reg1.getReference().getProperty(Constants.SERVICE_ID) + ")"))));
+
+        // A ranking change re-sorts the snapshot.
+        props = new Hashtable();
+        props.put(Constants.SERVICE_RANKING, 20);
+        reg3.setProperties(props);
+        assertEquals(Arrays.asList(reg3.getReference(), reg2.getReference(), reg1.getReference()),
+            new ArrayList(sr.getServiceReferences(String.class.getName(), null)));
+
+        sr.unregisterService(b, reg3);
+        sr.unregisterService(b, reg2);
+        assertEquals(Arrays.asList(reg1.getReference()),
+            new ArrayList(sr.getServiceReferences(String.class.getName(), null)));
+        sr.unregisterService(b, reg1);
+        assertTrue(sr.getServiceReferences(String.class.getName(), null).isEmpty());
+        assertTrue(sr.getServiceReferences(Long.class.getName(), null).isEmpty());
+    }
+
+    public void testModifiedServiceIsNotAddedAfterUnregister() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        Bundle b = Mockito.mock(Bundle.class);
+        for (int i = 0; i < 200; i++)
+        {
+            final ServiceRegistration reg = sr.registerService(
+                b, new String[] { String.class.getName() }, "hello", new Hashtable());
+            final CountDownLatch started = new CountDownLatch(1);
+            Thread modifier = new Thread()
+            {
+                public void run()
+                {
+                    started.countDown();
+                    try
+                    {
+                        while (true)
+                        {
+                            reg.setProperties(new Hashtable());
+                        }
+                    }
+                    catch (IllegalStateException ex)
+                    {
+                        // Unregistered.
+                    }
+                }
+            };
+            modifier.start();
+            started.await();
+            reg.unregister();
+            modifier.join();
+            assertTrue(sr.getServiceReferences(String.class.getName(), null).isEmpty());
+        }
+    }
+
     public void testObtainUsageCount() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.startup.BundleStartupDTO;
+import org.apache.felix.framework.startup.StartupDTO;
+import org.apache.felix.framework.startup.StartupProfiler;
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+
+public class StartupProfilerTest extends TestCase
+{
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+        deleteDir(cacheDir);
+    }
+
+    public void testDisabledByDefault() throws Exception
+    {
+        felix = createFramework(false);
+        felix.start();
+        assertNull(felix.getBundleContext().getServiceReference(StartupProfiler.class));
+    }
+
+    public void testBundleProfile() throws Exception
+    {
+        felix = createFramework(true);
+        BundleContext context = felix.getBundleContext();
+        ServiceReference<StartupProfiler> ref =
+            context.getServiceReference(StartupProfiler.class);
+        assertNotNull(ref);
+        StartupProfiler profiler = context.getService(ref);
+        assertEquals(-1, profiler.getStartupDTO().startTime);
+
+        // The bundle is started along with the framework.
+        Bundle bundle = context.installBundle(createBundle(
+            "Bundle-SymbolicName: profiled\n"
+            + "Bundle-Activator: " + TestActivator.class.getName() + "\n"
+            + "Import-Package: org.osgi.framework\n",
+            TestActivator.class).toURI().toString());
+        bundle.start();
+        felix.start();
+        assertEquals(Bundle.ACTIVE, bundle.getState());
+
+        StartupDTO dto = profiler.getStartupDTO();
+        assertTrue(dto.startTime >= 0);
+        assertTrue(dto.resolveTime > 0);
+        BundleStartupDTO profile = getProfile(dto, bundle);
+        assertNotNull(profile);
+        assertTrue(profile.resolveTime <= dto.resolveTime);
+        assertEquals("profiled", profile.symbolicName);
+        assertTrue(profile.resolveTime > 0);
+        assertTrue(profile.activationTime > 0);
+        assertEquals(1, profile.classesDefined);
+        assertTrue(profile.bytesRead > 0);
+        assertTrue(profile.classDefineTime > 0);
+        assertEquals(1, profile.serviceEvents);
+        assertTrue(profile.serviceEventTime > 0);
+
+        // Nothing is recorded once the framework has started.
+        Bundle later = context.installBundle(createBundle(
+            "Bundle-SymbolicName: later\n"
+            + "Bundle-Activator: " + TestActivator.class.getName() + "\n"
+            + "Import-Package: org.osgi.framework\n",
+            TestActivator.class).toURI().toString());
+        later.start();
+        assertNull(getProfile(profiler.getStartupDTO(), later));
+        assertEquals(dto.resolveTime, profiler.getStartupDTO().resolveTime);
+    }
+
+    private static BundleStartupDTO getProfile(StartupDTO dto, Bundle bundle)
+    {
+        for (BundleStartupDTO b : dto.bundles)
+        {
+            if (b.id == bundle.getBundleId())
+            {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    private Framework createFramework(boolean profile) throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        if (profile)
+        {
+            params.put(FelixConstants.STARTUP_PROFILER_PROP, "true");
+        }
+        Framework framework = new Felix(params);
+        framework.init();
+        return framework;
+    }
+
+    public static class TestActivator implements BundleActivator, ServiceListener
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            context.addServiceListener(this);
+            context.registerService(Object.class, new Object(), null);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+        }
+    }
+
+    private File createBundle(String manifest, Class... classes) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        for (Class clazz : classes)
+        {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            os.putNextEntry(new ZipEntry(path));
+
+            InputStream is = clazz.getClassLoader().getResourceAsStream(path);
+            byte[] buffer = new byte[8 * 1024];
+            for (int i = is.read(buffer); i != -1; i = is.read(buffer))
+            {
+                os.write(buffer, 0, i);
+            }
+            is.close();
+            os.closeEntry();
+        }
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class WiringCacheTest extends TestCase
+{
+    private File tempDir;
+    private File cacheDir;
+    private RecordingLogger logger;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        cacheDir = new File(tempDir, "felix-cache");
+        assertTrue("precondition", cacheDir.mkdir());
+
+        logger = new RecordingLogger();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        deleteDir(tempDir);
+    }
+
+    public void testWiringsAreReinstatedOnRestart() throws Exception
+    {
+        Framework felix = startFramework();
+        try
+        {
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: exporter\n"
+                + "Export-Package: org.example.api\n").toURI().toString());
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: importer\n"
+                + "Import-Package: org.example.api\n").toURI().toString());
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: fragment\n"
+                + "Fragment-Host: importer\n").toURI().toString());
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+        assertTrue(new File(cacheDir, "bundle0/" + WiringCache.WIRING_CACHE_FILE).isFile());
+
+        // Restart with the same cache, which must not need the resolver.
+        logger.messages.clear();
+        felix = startFramework();
+        try
+        {
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertFalse(logger.messages.toString(), logger.hasOutOfDateMessage());
+
+            Bundle exporter = getBundle(felix, "exporter");
+            Bundle importer = getBundle(felix, "importer");
+            Bundle fragment = getBundle(felix, "fragment");
+            assertEquals(Bundle.RESOLVED, importer.getState());
+            assertEquals(Bundle.RESOLVED, fragment.getState());
+
+            BundleWiring wiring = importer.adapt(BundleWiring.class);
+            List<BundleWire> wires = wiring.getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+            assertEquals(1, wires.size());
+            assertEquals(exporter, wires.get(0).getProvider().getBundle());
+
+            wires = wiring.getProvidedWires(BundleRevision.HOST_NAMESPACE);
+            assertEquals(1, wires.size());
+            assertEquals(fragment, wires.get(0).getRequirer().getBundle());
+
+            // A new bundle is not cached, so the resolver must be used.
+            Bundle other = felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: other\n"
+                + "Import-Package: org.example.api\n").toURI().toString());
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(
+                Collections.singleton(other)));
+            assertTrue(logger.hasOutOfDateMessage());
+            assertEquals(exporter, other.adapt(BundleWiring.class)
+                .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).get(0)
+                .getProvider().getBundle());
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+    }
+
+    public void testNewFragmentIsAttached() throws Exception
+    {
+        Framework felix = startFramework();
+        try
+        {
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: exporter\n"
+                + "Export-Package: org.example.api\n").toURI().toString());
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: importer\n"
+                + "Import-Package: org.example.api\n").toURI().toString());
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+
+        logger.messages.clear();
+        felix = startFramework();
+        try
+        {
+            // The fragment is not cached, but only its host is resolved.
+            Bundle fragment = felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: fragment\n"
+                + "Fragment-Host: importer\n").toURI().toString());
+            Bundle importer = getBundle(felix, "importer");
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(
+                Collections.singleton(importer)));
+            assertTrue(logger.hasOutOfDateMessage());
+
+            assertEquals(Bundle.RESOLVED, fragment.getState());
+            List<BundleWire> wires = importer.adapt(BundleWiring.class)
+                .getProvidedWires(BundleRevision.HOST_NAMESPACE);
+            assertEquals(1, wires.size());
+            assertEquals(fragment, wires.get(0).getRequirer().getBundle());
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+    }
+
+    public void testUpdatedBundleIsResolvedAgain() throws Exception
+    {
+        Framework felix = startFramework();
+        try
+        {
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: exporter\n"
+                + "Export-Package: org.example.api\n").toURI().toString());
+            felix.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: importer\n"
+                + "Import-Package: org.example.api\n").toURI().toString());
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+
+            // Update the exporter without refreshing it.
+            getBundle(felix, "exporter").update(new FileInputStream(createBundle(
+                "Bundle-SymbolicName: exporter\n"
+                + "Bundle-Version: 2.0.0\n"
+                + "Export-Package: org.example.api;version=2.0.0\n")));
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+
+        logger.messages.clear();
+        felix = startFramework();
+        try
+        {
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertTrue(logger.hasOutOfDateMessage());
+
+            BundleWire wire = getBundle(felix, "importer").adapt(BundleWiring.class)
+                .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).get(0);
+            assertEquals("2.0.0",
+                wire.getCapability().getAttributes().get("version").toString());
+        }
+        finally
+        {
+            stopFramework(felix);
+        }
+    }
+
+    private Framework startFramework() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.RESOLVER_CACHE_PROP, "true");
+        params.put(FelixConstants.LOG_LOGGER_PROP, logger);
+        params.put(FelixConstants.LOG_LEVEL_PROP, "4");
+
+        Framework felix = new Felix(params);
+        felix.init();
+        felix.start();
+        return felix;
+    }
+
+    private static void stopFramework(Framework felix) throws Exception
+    {
+        felix.stop();
+        felix.waitForStop(10000);
+    }
+
+    private static Bundle getBundle(Framework felix, String bsn)
+    {
+        for (Bundle b : felix.getBundleContext().getBundles())
+        {
+            if (bsn.equals(b.getSymbolicName()))
+            {
+                return b;
+            }
+        }
+        fail("Bundle " + bsn + " not found");
+        return null;
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + manifest).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    private static class RecordingLogger extends Logger
+    {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+        boolean hasOutOfDateMessage()
+        {
+            synchronized (messages)
+            {
+                for (String msg : messages)
+                {
+                    if (msg.startsWith("Cached wirings are out of date"))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+            messages.add(msg);
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.felix.framework.cache;
 
 import junit.framework.TestCase;
 import org.apache.felix.framework.Logger;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
 import java.io.File;
@@ -46,6 +47,7 @@ public class BundleCacheTest extends TestCase
     private BundleCache cache;
     private File archiveFile;
     private File jarFile;
+    private Map<String, String> params;
 
     @Override
     protected void setUp() throws Exception
@@ -61,16 +63,12 @@ public class BundleCacheTest extends TestCase
         filesDir = new File(tempDir, "files");
         String cacheDirPath = cacheDir.getPath();
 
-        Map<String, String> params = new HashMap<String, String>();
+        params = new HashMap<String, String>();
         params.put("felix.cache.profiledir", cacheDirPath);
         params.put("felix.cache.dir", cacheDirPath);
         params.put(Constants.FRAMEWORK_STORAGE, cacheDirPath);
 
-        cache = new BundleCache(new Logger(){
-            @Override
-            protected void doLog(int level, String msg, Throwable throwable) {
-            }
-        }, params);
+        cache = createCache(params);
 
         archiveFile = new File(filesDir, "bundle1");
 
@@ -139,6 +137,111 @@ public class BundleCacheTest extends TestCase
         testNoZipSlip(archive);
     }
 
+    public void testIndex() throws Exception
+    {
+        cache.release();
+        Map<String, String> indexParams = new HashMap<String, String>(params);
+        indexParams.put(BundleCache.CACHE_INDEX_PROP, "true");
+        cache = createCache(indexParams);
+        assertEquals(0, cache.getArchives().length);
+
+        String location = "reference:" + jarFile.toURI().toURL().toString();
+        BundleArchive archive = cache.create(1, 3, location, null);
+        archive.setPersistentState(Bundle.ACTIVE);
+        archive.setLastModified(42);
+        archive.revise(location, null);
+        // The bundle info file is still written once as a fallback.
+        assertTrue(new File(cacheDir, "bundle1/bundle.info").isFile());
+        archive.close();
+        cache.release();
+
+        // Reload everything from the index.
+        cache = createCache(indexParams);
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        archive = archives[0];
+        assertEquals(1, archive.getId());
+        assertEquals(location, archive.getLocation());
+        assertEquals(Bundle.ACTIVE, archive.getPersistentState());
+        assertEquals(3, archive.getStartLevel());
+        assertEquals(42, archive.getLastModified());
+        assertEquals(Long.valueOf(1), archive.getCurrentRevisionNumber());
+        assertTrue(archive.isRemovalPending());
+        assertNotNull(archive.getCurrentRevision().getCachedManifestHeader());
+        testRevision(archive);
+
+        archive.purge();
+        archive.setStartLevel(5);
+        archive.close();
+        cache.release();
+
+        cache = createCache(indexParams);
+        archive = cache.getArchives()[0];
+        assertFalse(archive.isRemovalPending());
+        assertEquals(5, archive.getStartLevel());
+        archive.close();
+        cache.release();
+
+        // Disabling the index again must restore the bundle info files.
+        cache = createCache(params);
+        archive = cache.getArchives()[0];
+        assertFalse(new File(cacheDir, BundleCacheIndex.INDEX_FILE).exists());
+        assertEquals(Bundle.ACTIVE, archive.getPersistentState());
+        assertEquals(5, archive.getStartLevel());
+        archive.close();
+        cache.release();
+
+        cache = createCache(params);
+        archive = cache.getArchives()[0];
+        assertNull(archive.getCurrentRevision().getCachedManifestHeader());
+        assertEquals(5, archive.getStartLevel());
+        assertEquals(42, archive.getLastModified());
+        assertEquals(Long.valueOf(1), archive.getCurrentRevisionNumber());
+        archive.close();
+    }
+
+    public void testIndexRecovery() throws Exception
+    {
+        cache.release();
+        Map<String, String> indexParams = new HashMap<String, String>(params);
+        indexParams.put(BundleCache.CACHE_INDEX_PROP, "true");
+        cache = createCache(indexParams);
+        String location = "reference:" + jarFile.toURI().toURL().toString();
+        BundleArchive archive = cache.create(1, 3, location, null);
+        archive.close();
+        cache.release();
+
+        // A record with a bogus length must be dropped, not allocated.
+        File index = new File(cacheDir, BundleCacheIndex.INDEX_FILE);
+        FileOutputStream output = new FileOutputStream(index, true);
+        output.write(new byte[] { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 });
+        output.close();
+        cache = createCache(indexParams);
+        assertEquals(1, cache.getArchives().length);
+        cache.getArchives()[0].close();
+        cache.release();
+
+        // An index left as backup by an interrupted compaction is recovered.
+        File backup = new File(cacheDir, BundleCacheIndex.BACKUP_FILE);
+        assertTrue(index.renameTo(backup));
+        cache = createCache(indexParams);
+        archive = cache.getArchives()[0];
+        assertEquals(location, archive.getLocation());
+        assertEquals(3, archive.getStartLevel());
+        assertTrue(index.isFile());
+        assertFalse(backup.exists());
+        archive.close();
+    }
+
+    private BundleCache createCache(Map<String, String> params) throws Exception
+    {
+        return new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+    }
+
     public void testNoZipSlip(BundleArchive archive) throws Exception
     {
         Content content = archive.getCurrentRevision().getContent().getEntryAsContent("../../bar.jar");
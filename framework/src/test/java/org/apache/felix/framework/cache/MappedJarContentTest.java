@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+public class MappedJarContentTest extends TestCase
+{
+    private File file;
+    private WeakZipFileFactory zipFactory;
+    private JarContent jarContent;
+    private MappedJarContent mappedContent;
+    private byte[] stored;
+    private byte[] deflated;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        stored = new byte[1000];
+        deflated = new byte[100000];
+        for (int i = 0; i < deflated.length; i++)
+        {
+            deflated[i] = (byte) (i % 7);
+            if (i < stored.length)
+            {
+                stored[i] = (byte) i;
+            }
+        }
+
+        file = File.createTempFile("felix-mapped", ".jar");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        zos.putNextEntry(new ZipEntry("org/"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("org/Deflated.class"));
+        zos.write(deflated);
+        zos.closeEntry();
+        ZipEntry entry = new ZipEntry("org/Stored.class");
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(stored.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(stored);
+        zos.closeEntry();
+        zos.close();
+
+        zipFactory = new WeakZipFileFactory(0);
+        jarContent = new JarContent(new Logger(), new HashMap(), zipFactory,
+            this, file.getParentFile(), file, null);
+        mappedContent = new MappedJarContent(new Logger(), new HashMap(), zipFactory,
+            this, file.getParentFile(), file, zipFactory.create(file));
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        jarContent.close();
+        mappedContent.close();
+        file.delete();
+    }
+
+    public void testEntries() throws Exception
+    {
+        assertEquals(list(jarContent.getEntries()), list(mappedContent.getEntries()));
+        assertTrue(mappedContent.hasEntry("org/Stored.class"));
+        assertTrue(mappedContent.hasEntry("org"));
+        assertTrue(mappedContent.hasEntry("org/"));
+        assertFalse(mappedContent.hasEntry("org/Missing.class"));
+    }
+
+    public void testEntryAsBytes() throws Exception
+    {
+        assertTrue(Arrays.equals(stored, mappedContent.getEntryAsBytes("org/Stored.class")));
+        assertTrue(Arrays.equals(deflated, mappedContent.getEntryAsBytes("org/Deflated.class")));
+        assertNull(mappedContent.getEntryAsBytes("org/Missing.class"));
+    }
+
+    public void testEntryAsByteBuffer() throws Exception
+    {
+        ByteBuffer buffer = mappedContent.getEntryAsByteBuffer("org/Stored.class");
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertTrue(Arrays.equals(stored, bytes));
+
+        buffer = mappedContent.getEntryAsByteBuffer("org/Deflated.class");
+        bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertTrue(Arrays.equals(deflated, bytes));
+
+        assertNull(mappedContent.getEntryAsByteBuffer("org/Missing.class"));
+    }
+
+    public void testEntryAsStream() throws Exception
+    {
+        assertTrue(Arrays.equals(stored, read(mappedContent.getEntryAsStream("org/Stored.class"))));
+        assertTrue(Arrays.equals(deflated, read(mappedContent.getEntryAsStream("org/Deflated.class"))));
+        assertNull(mappedContent.getEntryAsStream("org/Missing.class"));
+    }
+
+    public void testEntryAsContent() throws Exception
+    {
+        Content content = mappedContent.getEntryAsContent(".");
+        assertTrue(content instanceof MappedJarContent);
+        assertTrue(Arrays.equals(stored, content.getEntryAsBytes("org/Stored.class")));
+        content.close();
+
+        content = mappedContent.getEntryAsContent("org/");
+        assertTrue(content instanceof ContentDirectoryContent);
+        assertTrue(Arrays.equals(stored, content.getEntryAsBytes("Stored.class")));
+    }
+
+    private static List<String> list(Enumeration<String> e)
+    {
+        List<String> list = new ArrayList<String>(Collections.list(e));
+        Collections.sort(list);
+        return list;
+    }
+
+    private static byte[] read(InputStream is) throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = is.read(buffer); n != -1; n = is.read(buffer))
+        {
+            baos.write(buffer, 0, n);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+}
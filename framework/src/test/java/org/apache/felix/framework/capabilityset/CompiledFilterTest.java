@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+
+public class CompiledFilterTest extends TestCase
+{
+    public void testTypes()
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("string", "foo bar");
+        attrs.put("int", 5);
+        attrs.put("long", 5L);
+        attrs.put("bool", Boolean.TRUE);
+        attrs.put("char", 'x');
+        attrs.put("version", new Version(1, 2, 3));
+        attrs.put("array", new String[] { "a", "b" });
+        attrs.put("ints", new int[] { 1, 2 });
+        attrs.put("list", Arrays.asList(new Long[] { 7L, 8L }));
+
+        assertTrue(matches("(string=foo bar)", attrs));
+        assertTrue(matches("(string=foo*)", attrs));
+        assertTrue(matches("(string~=FOOBAR)", attrs));
+        assertTrue(matches("(int>= 4 )", attrs));
+        assertFalse(matches("(int<=4)", attrs));
+        assertTrue(matches("(long=5)", attrs));
+        assertFalse(matches("(long=abc)", attrs));
+        assertFalse(matches("(int=5*)", attrs));
+        assertTrue(matches("(bool=true)", attrs));
+        assertTrue(matches("(char~=X)", attrs));
+        assertTrue(matches("(version>=1.2)", attrs));
+        assertTrue(matches("(version=[1.0,2.0\\))", attrs));
+        assertFalse(matches("(version=[2.0,3.0\\))", attrs));
+        assertTrue(matches("(array=b)", attrs));
+        assertTrue(matches("(ints=2)", attrs));
+        assertTrue(matches("(list>=8)", attrs));
+        assertFalse(matches("(list=9)", attrs));
+        assertFalse(matches("(missing=*)", attrs));
+        assertTrue(matches("(&(int=*)(!(missing=*))(|(int=1)(string=foo bar)))", attrs));
+    }
+
+    public void testOperandIsCoercedPerType()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(value=10)");
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("value", 10);
+        assertTrue(CapabilitySet.matches(new TestCapability(attrs), sf));
+        attrs.put("value", "10");
+        assertTrue(CapabilitySet.matches(new TestCapability(attrs), sf));
+        attrs.put("value", 10L);
+        assertTrue(CapabilitySet.matches(new TestCapability(attrs), sf));
+        attrs.put("value", 11L);
+        assertFalse(CapabilitySet.matches(new TestCapability(attrs), sf));
+        assertSame(sf.getCompiled(), sf.getCompiled());
+    }
+
+    private static boolean matches(String filter, Map<String, Object> attrs)
+    {
+        return CapabilitySet.matches(new TestCapability(attrs), SimpleFilter.parse(filter));
+    }
+
+    private static class TestCapability extends BundleCapabilityImpl
+    {
+        TestCapability(Map<String, Object> attrs)
+        {
+            super(null, "test", new HashMap<String, String>(), attrs);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class CaseInsensitiveMapTest extends TestCase
+{
+    public void testLookupIgnoresCase()
+    {
+        StringMap source = new StringMap();
+        for (int i = 0; i < 100; i++)
+        {
+            source.put("Key." + i, i);
+        }
+        source.put("service.pid", "pid");
+        source.put("\u00c9t\u00e9", "summer");
+
+        Map<String, Object> map = new CaseInsensitiveMap(source);
+        assertEquals(source.size(), map.size());
+        assertEquals(source, map);
+        for (Map.Entry<String, Object> entry : source.entrySet())
+        {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+            assertEquals(entry.getValue(), map.get(entry.getKey().toUpperCase()));
+            assertEquals(entry.getValue(), map.get(entry.getKey().toLowerCase()));
+        }
+        assertEquals("pid", map.get("SERVICE.PID"));
+        assertEquals("summer", map.get("\u00e9T\u00c9"));
+        assertNull(map.get("key.100"));
+        assertNull(map.get("service.pi"));
+        assertFalse(map.containsKey(Integer.valueOf(1)));
+        assertTrue(map.containsKey("KEY.42"));
+
+        // Iteration follows the order of the copied map.
+        assertEquals(new ArrayList<String>(source.keySet()),
+            new ArrayList<String>(map.keySet()));
+    }
+
+    public void testKeysDifferingByCase()
+    {
+        Map<Object, Object> source = new LinkedHashMap<Object, Object>();
+        source.put("objectClass", "a");
+        source.put(new StringBuilder("OBJECTCLASS"), "b");
+
+        Map<String, Object> map = new CaseInsensitiveMap(source);
+        assertEquals(1, map.size());
+        assertEquals("objectClass", map.keySet().iterator().next());
+        assertEquals("b", map.get("objectclass"));
+    }
+
+    public void testImmutable()
+    {
+        Map<String, Object> map = new CaseInsensitiveMap(new StringMap());
+        assertTrue(map.isEmpty());
+        assertNull(map.get("foo"));
+        try
+        {
+            map.put("foo", "bar");
+            fail("Map should be immutable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Expected.
+        }
+        List<String> keys = new ArrayList<String>(CaseInsensitiveMap.EMPTY.keySet());
+        assertTrue(keys.isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class NamespaceIndexTest extends TestCase
+{
+    public void testPartitionsByNamespace()
+    {
+        List<BundleCapability> caps = new ArrayList<BundleCapability>();
+        BundleCapability pkg1 = createCapability(BundleRevision.PACKAGE_NAMESPACE, "a");
+        BundleCapability bundle = createCapability(BundleRevision.BUNDLE_NAMESPACE, "b");
+        BundleCapability pkg2 = createCapability(BundleRevision.PACKAGE_NAMESPACE, "c");
+        caps.add(pkg1);
+        caps.add(bundle);
+        caps.add(pkg2);
+
+        NamespaceIndex<BundleCapability> index = NamespaceIndex.forCapabilities(caps);
+        assertSame(caps, index.get(null));
+        assertEquals(2, index.get(BundleRevision.PACKAGE_NAMESPACE).size());
+        assertSame(pkg1, index.get(BundleRevision.PACKAGE_NAMESPACE).get(0));
+        assertSame(pkg2, index.get(BundleRevision.PACKAGE_NAMESPACE).get(1));
+        // Namespaces which are not interned are found too.
+        assertSame(index.get(BundleRevision.BUNDLE_NAMESPACE),
+            index.get(new String(BundleRevision.BUNDLE_NAMESPACE)));
+        assertEquals(Collections.singletonList(bundle),
+            index.get(BundleRevision.BUNDLE_NAMESPACE));
+        assertTrue(index.get(BundleRevision.HOST_NAMESPACE).isEmpty());
+        try
+        {
+            index.get(BundleRevision.PACKAGE_NAMESPACE).remove(0);
+            fail("List should be immutable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Expected.
+        }
+    }
+
+    public void testSharedDirectives()
+    {
+        MapInterner interner = new MapInterner();
+        Map<String, String> dirs1 = new HashMap<String, String>();
+        dirs1.put("filter", "(osgi.wiring.package=org.example)");
+        Map<String, String> dirs2 = new HashMap<String, String>(dirs1);
+
+        BundleRequirementImpl req1 = new BundleRequirementImpl(new BundleRequirementImpl(null,
+            BundleRevision.PACKAGE_NAMESPACE, dirs1, Collections.<String, Object>emptyMap()), interner);
+        BundleRequirementImpl req2 = new BundleRequirementImpl(new BundleRequirementImpl(null,
+            BundleRevision.PACKAGE_NAMESPACE, dirs2, Collections.<String, Object>emptyMap()), interner);
+        assertSame(req1.getDirectives(), req2.getDirectives());
+
+        // Requirements are not interned unless asked to.
+        BundleRequirementImpl req3 = new BundleRequirementImpl(null,
+            BundleRevision.PACKAGE_NAMESPACE, dirs2, Collections.<String, Object>emptyMap());
+        assertNotSame(req1.getDirectives(), req3.getDirectives());
+
+        // Each framework has its own interner.
+        assertNotSame(dirs1, new MapInterner().intern(dirs2));
+    }
+
+    private static BundleCapability createCapability(String namespace, String name)
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(namespace, name);
+        return new BundleCapabilityImpl(null, namespace,
+            Collections.<String, String>emptyMap(), attrs);
+    }
+}
@@ -58,6 +58,9 @@ import org.osgi.service.log.LogService;
 
 public class Basic
 {
+    private static final String STARTUP_PROFILER =
+        "org.apache.felix.framework.startup.StartupProfiler";
+
     private final BundleContext m_bc;
     private final Bundle m_b0;
 
@@ -720,6 +723,75 @@ public class Basic
         }
     }
 
+    @Descriptor("display the startup profile of the framework, if enabled")
+    public String startup() throws Exception
+    {
+        // The profiler is specific to the Felix framework, so it is looked
+        // up and read reflectively to not depend on the framework API.
+        ServiceReference<?> ref = m_bc.getServiceReference(STARTUP_PROFILER);
+        Object profiler = (ref == null) ? null : m_bc.getService(ref);
+        if (profiler == null)
+        {
+            return "Startup profiler is unavailable, set felix.startup.profiler=true to enable it.";
+        }
+        Object dto;
+        try
+        {
+            dto = getInterface(profiler.getClass(), STARTUP_PROFILER)
+                .getMethod("getStartupDTO").invoke(profiler);
+        }
+        finally
+        {
+            m_bc.ungetService(ref);
+        }
+
+        try (Formatter f = new Formatter()) {
+            long startTime = getField(dto, "startTime");
+            f.format("Started in %s ms, resolving took %s ms%n",
+                (startTime < 0) ? "-" : toMillis(startTime),
+                toMillis(getField(dto, "resolveTime")));
+            f.format("%5s|%10s|%10s|%7s|%9s|%10s|%6s|%10s|%s%n",
+                "ID", "Resolve", "Activate", "Classes", "Bytes",
+                "Define", "Events", "Listeners", "Name");
+            for (Object b : (Object[]) dto.getClass().getField("bundles").get(dto))
+            {
+                f.format("%5d|%10s|%10s|%7d|%9d|%10s|%6d|%10s|%s%n",
+                    getField(b, "id"), toMillis(getField(b, "resolveTime")),
+                    toMillis(getField(b, "activationTime")),
+                    getField(b, "classesDefined"), getField(b, "bytesRead"),
+                    toMillis(getField(b, "classDefineTime")),
+                    getField(b, "serviceEvents"), toMillis(getField(b, "serviceEventTime")),
+                    b.getClass().getField("symbolicName").get(b));
+            }
+            return f.toString();
+        }
+    }
+
+    private static Class<?> getInterface(Class<?> clazz, String name)
+    {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+        {
+            for (Class<?> i : c.getInterfaces())
+            {
+                if (i.getName().equals(name))
+                {
+                    return i;
+                }
+            }
+        }
+        throw new IllegalArgumentException(clazz + " does not implement " + name);
+    }
+
+    private static long getField(Object dto, String name) throws Exception
+    {
+        return ((Number) dto.getClass().getField(name).get(dto)).longValue();
+    }
+
+    private static String toMillis(long nanos)
+    {
+        return String.format("%.1f", nanos / 1000000d);
+    }
+
     @Descriptor("stop bundles")
     public String stop(@Descriptor("stop bundle transiently") @Parameter(names = { "-t",
             "--transient" }, presentValue = "true", absentValue = "false") boolean trans,
@@ -51,7 +51,7 @@ class Candidates
     // Maps a capability to requirements that match it.
     private final OpenHashMapSet<Capability, Requirement> m_dependentMap;
     // Maps a requirement to the capability it matches.
-    private final OpenHashMapList m_candidateMap;
+    private final CopyOnWriteCandidateMap m_candidateMap;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<Resource, WrappedResource> m_allWrappedHosts;
@@ -70,7 +70,7 @@ class Candidates
         ResolveSession session,
         AtomicBoolean candidateSelectorsUnmodifiable,
         OpenHashMapSet<Capability, Requirement> dependentMap,
-        OpenHashMapList candidateMap,
+        CopyOnWriteCandidateMap candidateMap,
         Map<Resource, WrappedResource> wrappedHosts,
         OpenHashMap<Resource, PopulateResult> populateResultCache,
         Map<Capability, Requirement> substitutableMap,
@@ -94,7 +94,7 @@ class Candidates
         m_session = session;
         m_candidateSelectorsUnmodifiable = new AtomicBoolean(false);
         m_dependentMap = new OpenHashMapSet<Capability, Requirement>();
-        m_candidateMap = new OpenHashMapList();
+        m_candidateMap = new CopyOnWriteCandidateMap();
         m_allWrappedHosts = new HashMap<Resource, WrappedResource>();
         m_populateResultCache = new OpenHashMap<Resource, PopulateResult>();
         m_subtitutableMap = new OpenHashMap<Capability, Requirement>();
@@ -348,7 +348,7 @@ class Candidates
             {
                 for (Requirement dependent : dependents)
                 {
-                    CandidateSelector candidates = m_candidateMap.get(dependent);
+                    CandidateSelector candidates = m_candidateMap.getForUpdate(dependent);
                     if (candidates != null)
                     {
                         candidates:
@@ -712,7 +712,7 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        CandidateSelector candidates = m_candidateMap.get(req);
+        CandidateSelector candidates = m_candidateMap.getForUpdate(req);
         // Remove the conflicting candidate.
         Capability cap = candidates.removeCurrentCandidate();
         if (candidates.isEmpty())
@@ -907,7 +907,7 @@ class Candidates
                             // matter if they come from the host or fragment,
                             // since we are completing replacing the declaring
                             // host and fragments with the wrapped host.
-                            CandidateSelector cands = m_candidateMap.get(r);
+                            CandidateSelector cands = m_candidateMap.getForUpdate(r);
                             ShadowList shadow;
                             if (!(cands instanceof ShadowList))
                             {
@@ -1123,7 +1123,7 @@ class Candidates
     }
 
     private CandidateSelector removeCandidate(Requirement req, Capability cap) {
-        CandidateSelector candidates = m_candidateMap.get(req);
+        CandidateSelector candidates = m_candidateMap.getForUpdate(req);
         candidates.remove(cap);
         return candidates;
     }
@@ -1136,15 +1136,20 @@ class Candidates
      */
     public Candidates copy()
     {
-        return new Candidates(
+        long start = System.nanoTime();
+        CopyOnWriteCandidateMap candidateMap = m_candidateMap.copy();
+        Candidates copy = new Candidates(
                 m_session,
                 m_candidateSelectorsUnmodifiable,
                 m_dependentMap,
-                m_candidateMap.deepClone(),
+                candidateMap,
                 m_allWrappedHosts,
                 m_populateResultCache,
                 m_subtitutableMap,
                 m_delta.deepClone());
+        m_session.recordCopy(
+            candidateMap.getLocalSize(), candidateMap.getSharedSize(), System.nanoTime() - start);
+        return copy;
     }
 
     public void dump(ResolveContext rc)
@@ -1152,7 +1157,7 @@ class Candidates
         // Create set of all revisions from requirements.
         Set<Resource> resources = new CopyOnWriteSet<Resource>();
         for (Entry<Requirement, CandidateSelector> entry
-            : m_candidateMap.entrySet())
+            : m_candidateMap.fast())
         {
             resources.add(entry.getKey().getResource());
         }
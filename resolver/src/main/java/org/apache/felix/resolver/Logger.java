@@ -131,4 +131,14 @@ public class Logger
     {
         // do nothing by default
     }
+
+    public void logPermutationsTried(int count)
+    {
+        // do nothing by default
+    }
+
+    public void logPermutationsPruned(int count)
+    {
+        // do nothing by default
+    }
 }
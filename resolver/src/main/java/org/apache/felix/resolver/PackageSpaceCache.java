@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.resolver.ResolverImpl.Packages;
+import org.apache.felix.resolver.ResolverImpl.WireCandidate;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+
+/**
+ * Holds the package spaces of resolved resources across resolve operations.
+ * The package space of a resolved resource only depends on its wiring, so
+ * it can be reused as long as the resource keeps the same wiring, which
+ * avoids recomputing it for every resolve and every permutation. An entry
+ * is only used if the wiring it was computed from is the current wiring of
+ * the resource, but owners of the cache should still remove resources which
+ * are no longer used, so that their package spaces can be reclaimed.
+ */
+public class PackageSpaceCache
+{
+    private final ConcurrentMap<Resource, Entry> m_entries =
+        new ConcurrentHashMap<Resource, Entry>();
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    /**
+     * Removes the package space of the given resource.
+     * @param resource the resource to remove.
+     */
+    public void remove(Resource resource)
+    {
+        m_entries.remove(resource);
+    }
+
+    /**
+     * Removes all package spaces.
+     */
+    public void clear()
+    {
+        m_entries.clear();
+    }
+
+    /**
+     * Returns the number of cached package spaces.
+     */
+    public int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     * Returns the number of package spaces which have been reused.
+     */
+    public long getHits()
+    {
+        return m_hits.get();
+    }
+
+    /**
+     * Returns the number of package spaces of resolved resources which had
+     * to be computed.
+     */
+    public long getMisses()
+    {
+        return m_misses.get();
+    }
+
+    Entry get(Resource resource, Wiring wiring)
+    {
+        Entry entry = m_entries.get(resource);
+        if (entry != null && entry.wiring == wiring)
+        {
+            m_hits.incrementAndGet();
+            return entry;
+        }
+        m_misses.incrementAndGet();
+        return null;
+    }
+
+    void put(Resource resource, Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+    {
+        m_entries.put(resource, new Entry(wiring, wireCandidates, packages));
+    }
+
+    static final class Entry
+    {
+        final Wiring wiring;
+        // Both are never modified once cached.
+        final List<WireCandidate> wireCandidates;
+        final Packages packages;
+
+        Entry(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            this.wiring = wiring;
+            this.wireCandidates = wireCandidates;
+            this.packages = packages;
+        }
+    }
+}
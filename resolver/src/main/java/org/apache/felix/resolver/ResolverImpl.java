@@ -45,6 +45,8 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final PackageSpaceCache m_packageSpaceCache;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -85,12 +87,23 @@ public class ResolverImpl implements Resolver
         private Candidates m_multipleCardCandidates = null;
         // The delta is used to detect that we have already processed this particular permutation
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
+        // Candidate choices which caused uses constraint violations.
+        private final Set<Conflict> m_conflicts = new LinkedHashSet<Conflict>();
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
+        // Statistics about copying candidates for permutations.
+        private long m_copyCount;
+        private long m_copiedEntries;
+        private long m_sharedEntries;
+        private long m_copyTime;
+        // Number of permutations checked for consistency.
+        private int m_triedPermutations;
+        // Number of permutations not checked because of a known conflict.
+        private int m_prunedPermutations;
 
         static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
         {
@@ -214,7 +227,8 @@ public class ResolverImpl implements Resolver
                     return null;
                 }
             }
-            while(!m_processedDeltas.add(next.getDelta()));
+            while(!m_processedDeltas.add(next.getDelta()) || pruneConflicting(next));
+            m_triedPermutations++;
             // Null out each time a new permutation is attempted.
             // We only use this to store a valid permutation which is a
             // delta of the current permutation.
@@ -229,9 +243,13 @@ public class ResolverImpl implements Resolver
             m_usesPermutations.clear();
             m_importPermutations.clear();
             m_substPermutations.clear();
+            m_conflicts.clear();
             m_multipleCardCandidates = null;
             m_processedDeltas.clear();
             m_currentError = null;
+            m_triedPermutations = 0;
+            m_prunedPermutations = 0;
+            clearCopyStatistics();
         }
 
         boolean checkMultiple(
@@ -260,6 +278,79 @@ public class ResolverImpl implements Resolver
             return (candidates != null) && !candidates.isEmpty();
         }
 
+        void recordCopy(int copiedEntries, int sharedEntries, long time) {
+            m_copyCount++;
+            m_copiedEntries += copiedEntries;
+            m_sharedEntries += sharedEntries;
+            m_copyTime += time;
+        }
+
+        String getCopyStatistics() {
+            return "Copied candidates " + m_copyCount + " times in "
+                + (m_copyTime / 1000000) + " ms, copying "
+                + m_copiedEntries + " and sharing " + m_sharedEntries + " entries";
+        }
+
+        private void clearCopyStatistics() {
+            m_copyCount = 0;
+            m_copiedEntries = 0;
+            m_sharedEntries = 0;
+            m_copyTime = 0;
+        }
+
+        int getTriedPermutations() {
+            return m_triedPermutations;
+        }
+
+        int getConflictCount() {
+            return m_conflicts.size();
+        }
+
+        int getPrunedPermutations() {
+            return m_prunedPermutations;
+        }
+
+        /**
+         * Records the candidates chosen for the requirements involved in the
+         * given error, so that permutations making the same choices can be
+         * pruned. The error must be one of a mandatory resource, since any
+         * permutation repeating it fails the resolve as a whole.
+         */
+        void learnConflict(ResolutionError error, Candidates permutation) {
+            if (error instanceof UseConstraintError)
+            {
+                UseConstraintError useError = (UseConstraintError) error;
+                Conflict conflict = Conflict.create(permutation, useError.m_blame1, useError.m_blame2);
+                if (conflict != null)
+                {
+                    m_conflicts.add(conflict);
+                }
+            }
+        }
+
+        /**
+         * Checks if the given permutation repeats the choices of a known
+         * conflict, in which case it would fail the same way. Instead of
+         * checking it, directly queue the permutations which change one of
+         * the conflicting choices, as the consistency check would do.
+         */
+        private boolean pruneConflicting(Candidates permutation) {
+            for (Conflict conflict : m_conflicts)
+            {
+                if (conflict.matches(permutation))
+                {
+                    clearMutateIndexes();
+                    for (Requirement req : conflict.m_reqs)
+                    {
+                        addPermutation(PermutationType.USES, permutation.permutate(req));
+                    }
+                    m_prunedPermutations++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
         long getPermutationCount() {
             return m_usesPermutations.size() + m_importPermutations.size() + m_substPermutations.size(); 
         }
@@ -358,13 +449,29 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_packageSpaceCache = null;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, null);
+    }
+
+    /**
+     * Creates a resolver which reuses the package spaces of resolved
+     * resources held by the given cache, so that a resolve operation
+     * only computes the package spaces of the resources being resolved.
+     * @param logger the logger.
+     * @param executor the executor used to compute package spaces.
+     * @param packageSpaceCache the cache or <tt>null</tt> to compute all
+     *        package spaces for each resolve operation.
+     */
+    public ResolverImpl(Logger logger, Executor executor, PackageSpaceCache packageSpaceCache)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_packageSpaceCache = packageSpaceCache;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -495,6 +602,16 @@ public class ResolverImpl implements Resolver
             }
             finally
             {
+                if (m_logger.isDebugEnabled())
+                {
+                    m_logger.debug("Tried " + session.getTriedPermutations()
+                        + " permutations and pruned " + session.getPrunedPermutations()
+                        + " permutations repeating one of "
+                        + session.getConflictCount() + " known conflicts");
+                    m_logger.debug(session.getCopyStatistics());
+                }
+                m_logger.logPermutationsTried(session.getTriedPermutations());
+                m_logger.logPermutationsPruned(session.getPrunedPermutations());
                 // Always clear the state.
                 session.clearPermutations();
             }
@@ -577,6 +694,16 @@ public class ResolverImpl implements Resolver
                             currentFaultyResources
                     )
             );
+            for (Map.Entry<Resource, ResolutionError> entry : currentFaultyResources.entrySet())
+            {
+                // Permutations failing for an optional resource still count
+                // when looking for the one with the fewest faulty resources,
+                // so only conflicts of mandatory resources are learned.
+                if (session.getMandatoryResources().contains(entry.getKey()))
+                {
+                    session.learnConflict(entry.getValue(), allCandidates);
+                }
+            }
 
             if (!currentFaultyResources.isEmpty())
             {
@@ -650,6 +777,12 @@ public class ResolverImpl implements Resolver
             throws ResolutionException
     {
         Resource host = hostWiring.getResource();
+        if (m_packageSpaceCache != null)
+        {
+            // The wiring of the host gains the dynamic wire, so its cached
+            // package space is about to become stale.
+            m_packageSpaceCache.remove(host);
+        }
         List<Capability> matches = context.findProviders(dynamicRequirement);
         // We can only create a dynamic import if the following
         // conditions are met:
@@ -667,6 +800,15 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
+            if (matches.size() == 1)
+            {
+                Map<Resource, List<Wire>> wireMap = resolveDynamicSingleProvider(
+                    context, hostWiring, dynamicRequirement, matches.get(0));
+                if (wireMap != null)
+                {
+                    return wireMap;
+                }
+            }
             ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
             return doResolve(session);
         }
@@ -674,6 +816,127 @@ public class ResolverImpl implements Resolver
         throw new Candidates.MissingRequirementError(dynamicRequirement).toException();
     }
 
+    /**
+     * Wires a dynamic import to its only candidate without creating a
+     * resolve session, which is possible if the candidate is provided by
+     * a resolved bundle and cannot take part in any uses constraint of the
+     * host. Returns null if a full resolve is needed.
+     */
+    private static Map<Resource, List<Wire>> resolveDynamicSingleProvider(
+        ResolveContext context, Wiring hostWiring, Requirement dynamicRequirement,
+        Capability cap)
+    {
+        Resource host = hostWiring.getResource();
+        Resource provider = cap.getResource();
+        Map<Resource, Wiring> wirings = context.getWirings();
+        Object pkgName = cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+        if (!(pkgName instanceof String)
+            || provider.equals(host)
+            || Util.isFragment(provider)
+            || !wirings.containsKey(provider)
+            || cap.getDirectives().containsKey(Namespace.CAPABILITY_USES_DIRECTIVE)
+            || isVisibleOrUsed(wirings, hostWiring, (String) pkgName))
+        {
+            return null;
+        }
+        List<Wire> wires = new ArrayList<Wire>(1);
+        wires.add(new WireImpl(host, dynamicRequirement,
+            getDeclaredResource(provider), getDeclaredCapability(cap)));
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>(2);
+        wireMap.put(host, wires);
+        return wireMap;
+    }
+
+    /**
+     * Checks whether the given package is already visible to the host, or
+     * is used by any package visible to the host, by following the uses
+     * directives of its exported and imported packages through the wirings
+     * of their providers. Returns true whenever this cannot be decided,
+     * such as when bundles are required.
+     */
+    private static boolean isVisibleOrUsed(
+        Map<Resource, Wiring> wirings, Wiring hostWiring, String pkgName)
+    {
+        Map<Capability, Wiring> visited = new HashMap<Capability, Wiring>();
+        List<Capability> queue = new ArrayList<Capability>();
+        for (Capability cap : hostWiring.getResourceCapabilities(PackageNamespace.PACKAGE_NAMESPACE))
+        {
+            if (pkgName.equals(cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))
+            {
+                return true;
+            }
+            if (visited.put(cap, hostWiring) == null)
+            {
+                queue.add(cap);
+            }
+        }
+        for (Wire wire : hostWiring.getRequiredResourceWires(null))
+        {
+            Capability cap = wire.getCapability();
+            if (BundleNamespace.BUNDLE_NAMESPACE.equals(cap.getNamespace())
+                || pkgName.equals(cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))
+            {
+                return true;
+            }
+            if (PackageNamespace.PACKAGE_NAMESPACE.equals(cap.getNamespace())
+                && visited.put(cap, wirings.get(wire.getProvider())) == null)
+            {
+                queue.add(cap);
+            }
+        }
+        for (int i = 0; i < queue.size(); i++)
+        {
+            Capability cap = queue.get(i);
+            String uses = cap.getDirectives().get(Namespace.CAPABILITY_USES_DIRECTIVE);
+            if (uses == null)
+            {
+                continue;
+            }
+            Wiring wiring = visited.get(cap);
+            if (wiring == null
+                || !wiring.getRequiredResourceWires(BundleNamespace.BUNDLE_NAMESPACE).isEmpty())
+            {
+                return true;
+            }
+            for (String used : parseUses(uses))
+            {
+                if (pkgName.equals(used))
+                {
+                    return true;
+                }
+                // The used package comes from an import if there is one,
+                // otherwise from an export of the same wiring.
+                boolean imported = false;
+                for (Wire wire : wiring.getRequiredResourceWires(PackageNamespace.PACKAGE_NAMESPACE))
+                {
+                    Capability source = wire.getCapability();
+                    if (used.equals(source.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))
+                    {
+                        imported = true;
+                        if (!visited.containsKey(source))
+                        {
+                            visited.put(source, wirings.get(wire.getProvider()));
+                            queue.add(source);
+                        }
+                    }
+                }
+                if (!imported)
+                {
+                    for (Capability source : wiring.getResourceCapabilities(PackageNamespace.PACKAGE_NAMESPACE))
+                    {
+                        if (used.equals(source.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))
+                            && !visited.containsKey(source))
+                        {
+                            visited.put(source, wiring);
+                            queue.add(source);
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     private static List<WireCandidate> getWireCandidates(ResolveSession session, Candidates allCandidates, Resource resource)
     {
         // Create a list for requirement and proposed candidate
@@ -1129,6 +1392,13 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
+        // Package spaces of resolved resources only depend on their wiring,
+        // so reuse the ones computed by previous resolve operations. The
+        // package space of a dynamically importing resource includes the
+        // dynamic import, so it is always computed.
+        final PackageSpaceCache cache = m_packageSpaceCache;
+        final Map<Resource, Packages> cachedPackages = new ConcurrentHashMap<Resource, Packages>();
+
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
         {
@@ -1142,7 +1412,21 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates = null;
+                    if (cache != null && !resource.equals(session.getDynamicHost()))
+                    {
+                        Wiring wiring = session.getContext().getWirings().get(resource);
+                        PackageSpaceCache.Entry entry = wiring != null ? cache.get(resource, wiring) : null;
+                        if (entry != null)
+                        {
+                            wireCandidates = entry.wireCandidates;
+                            cachedPackages.put(resource, entry.packages);
+                        }
+                    }
+                    if (wireCandidates == null)
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1167,8 +1451,16 @@ public class ResolverImpl implements Resolver
 
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
+        final List<Resource> computed = new ArrayList<Resource>(allWireCandidates.size() - cachedPackages.size());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages cached = cachedPackages.get(resource);
+            if (cached != null)
+            {
+                allPackages.put(resource, cached);
+                continue;
+            }
+            computed.add(resource);
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1183,7 +1475,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute package lists
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : computed)
         {
             executor.execute(new Runnable()
             {
@@ -1199,10 +1491,9 @@ public class ResolverImpl implements Resolver
         // First, sequentially compute packages for resources
         // that have required packages, so that all recursive
         // calls can be done without threading problems
-        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        for (Resource resource : computed)
         {
-            final Resource resource = entry.getKey();
-            final Packages packages = entry.getValue();
+            final Packages packages = allPackages.get(resource);
             if (!packages.m_requiredPkgs.isEmpty())
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
@@ -1210,10 +1501,9 @@ public class ResolverImpl implements Resolver
         }
         // Next, for all remaining resources, we can compute them
         // in parallel, as they won't refer to other resource packages
-        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        for (final Resource resource : computed)
         {
-            final Resource resource = entry.getKey();
-            final Packages packages = entry.getValue();
+            final Packages packages = allPackages.get(resource);
             if (packages.m_sources.isEmpty())
             {
                 executor.execute(new Runnable()
@@ -1228,7 +1518,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute uses
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : computed)
         {
             executor.execute(new Runnable()
             {
@@ -1240,6 +1530,20 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Cache the package spaces of the resolved resources, which are
+        // complete and no longer modified at this point.
+        if (cache != null)
+        {
+            for (Resource resource : computed)
+            {
+                Wiring wiring = session.getContext().getWirings().get(resource);
+                if (wiring != null && !resource.equals(session.getDynamicHost()))
+                {
+                    cache.put(resource, wiring, allWireCandidates.get(resource), allPackages.get(resource));
+                }
+            }
+        }
+
         return allPackages;
     }
 
@@ -2101,7 +2405,7 @@ public class ResolverImpl implements Resolver
         }
     }
 
-    private static final class WireCandidate
+    static final class WireCandidate
     {
         public final Requirement requirement;
         public final Capability capability;
@@ -2260,6 +2564,126 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * A set of candidate choices which led to a uses constraint violation.
+     */
+    private static final class Conflict
+    {
+        private final Requirement[] m_reqs;
+        private final Capability[] m_caps;
+        private final int m_hashCode;
+
+        private Conflict(Requirement[] reqs, Capability[] caps)
+        {
+            m_reqs = reqs;
+            m_caps = caps;
+            m_hashCode = 31 * Arrays.hashCode(reqs) + Arrays.hashCode(caps);
+        }
+
+        /**
+         * Creates a conflict from the candidates chosen along the dependency
+         * chains of the given blames, or returns <tt>null</tt> if the chains
+         * do not involve any choice which can be permuted.
+         */
+        static Conflict create(Candidates permutation, Blame blame1, Blame blame2)
+        {
+            Map<Requirement, Capability> choices = new LinkedHashMap<Requirement, Capability>();
+            if (!addChoices(permutation, blame1, choices)
+                || (blame2 != null && !addChoices(permutation, blame2, choices))
+                || choices.isEmpty())
+            {
+                return null;
+            }
+            return new Conflict(
+                choices.keySet().toArray(new Requirement[choices.size()]),
+                choices.values().toArray(new Capability[choices.size()]));
+        }
+
+        private static boolean addChoices(Candidates permutation, Blame blame, Map<Requirement, Capability> choices)
+        {
+            if (blame.m_reqs == null)
+            {
+                return true;
+            }
+            Capability last = null;
+            for (Requirement req : blame.m_reqs)
+            {
+                if (Util.isMultiple(req))
+                {
+                    // Permutations of multiple cardinality requirements remove
+                    // candidates other than the first one.
+                    return false;
+                }
+                // Requirements of resolved resources have no candidates.
+                last = permutation.getFirstCandidate(req);
+                if (last != null)
+                {
+                    choices.put(req, last);
+                }
+            }
+            if (last == null)
+            {
+                return true;
+            }
+            // The chain ends with a capability using the blamed package, so
+            // the conflict also depends on where the resource providing it
+            // gets that package from, or whether its own export of that
+            // package is substituted.
+            Resource provider = last.getResource();
+            Object pkgName = blame.m_cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+            boolean found = provider.equals(blame.m_cap.getResource());
+            for (Requirement req : provider.getRequirements(null))
+            {
+                if (PackageNamespace.PACKAGE_NAMESPACE.equals(req.getNamespace()))
+                {
+                    Capability cap = permutation.getFirstCandidate(req);
+                    if (cap != null && pkgName != null
+                        && pkgName.equals(cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))
+                    {
+                        choices.put(req, cap);
+                        found = true;
+                    }
+                }
+            }
+            // Otherwise the package comes from a resolved resource or through
+            // a required bundle, which is not tracked.
+            return found;
+        }
+
+        boolean matches(Candidates permutation)
+        {
+            for (int i = 0; i < m_reqs.length; i++)
+            {
+                if (!m_caps[i].equals(permutation.getFirstCandidate(m_reqs[i])))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Conflict))
+            {
+                return false;
+            }
+            Conflict other = (Conflict) o;
+            return Arrays.equals(m_reqs, other.m_reqs) && Arrays.equals(m_caps, other.m_caps);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hashCode;
+        }
+    }
+
     private static final class UseConstraintError extends ResolutionError {
 
         private final ResolveContext m_context;
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * Maps requirements to their candidate selectors and supports cheap copies.
+ * Entries are split into a shared map, which is never modified once more
+ * than one copy refers to it, and a local map owned by a single copy that
+ * overrides it. A copy only clones the local map, so a permutation that
+ * changes a single requirement costs a single selector copy instead of a
+ * copy of the whole candidate map. The local map is merged into a new
+ * shared map once it grows too large, so lookups never go through more
+ * than two maps.
+ * <p>
+ * Selectors returned by {@link #get(Requirement)} may be shared and must
+ * not be modified; use {@link #getForUpdate(Requirement)} instead.
+ */
+public class CopyOnWriteCandidateMap {
+    // Marks a shared entry as removed in the local map.
+    private static final CandidateSelector REMOVED = new CandidateSelector(
+        Collections.<Capability>emptyList(), new AtomicBoolean(true));
+
+    private OpenHashMapList shared;
+    private OpenHashMapList local;
+
+    public CopyOnWriteCandidateMap() {
+        this(new OpenHashMapList(), new OpenHashMapList());
+    }
+
+    private CopyOnWriteCandidateMap(OpenHashMapList shared, OpenHashMapList local) {
+        this.shared = shared;
+        this.local = local;
+    }
+
+    public CandidateSelector get(Requirement req) {
+        CandidateSelector selector = local.get(req);
+        if (selector != null) {
+            return selector == REMOVED ? null : selector;
+        }
+        return shared.get(req);
+    }
+
+    /**
+     * Returns the selector for the given requirement, first copying it into
+     * the local map if it is shared, so that it can be modified.
+     */
+    public CandidateSelector getForUpdate(Requirement req) {
+        CandidateSelector selector = local.get(req);
+        if (selector != null) {
+            return selector == REMOVED ? null : selector;
+        }
+        selector = shared.get(req);
+        if (selector != null) {
+            selector = selector.copy();
+            local.put(req, selector);
+        }
+        return selector;
+    }
+
+    public CandidateSelector put(Requirement req, CandidateSelector selector) {
+        CandidateSelector previous = get(req);
+        local.put(req, selector);
+        return previous;
+    }
+
+    public CandidateSelector remove(Requirement req) {
+        CandidateSelector previous = get(req);
+        if (shared.containsKey(req)) {
+            local.put(req, REMOVED);
+        } else {
+            local.remove(req);
+        }
+        return previous;
+    }
+
+    public void trim() {
+        local.trim();
+    }
+
+    /**
+     * Returns all entries. The returned entries must not be modified.
+     */
+    public Iterable<Map.Entry<Requirement, CandidateSelector>> fast() {
+        if (shared.isEmpty()) {
+            return local.fast();
+        }
+        merge();
+        return shared.fast();
+    }
+
+    /**
+     * Returns the number of entries owned by this copy.
+     */
+    public int getLocalSize() {
+        return local.size();
+    }
+
+    /**
+     * Returns the number of entries shared with other copies.
+     */
+    public int getSharedSize() {
+        return shared.size();
+    }
+
+    /**
+     * Creates a copy of this map. Both maps share all entries, except the
+     * local entries which are copied.
+     */
+    public CopyOnWriteCandidateMap copy() {
+        // Keep the local map small compared to the shared one, so that
+        // copies stay cheap along long chains of permutations.
+        if (local.size() > Math.max(16, shared.size() >> 4)) {
+            merge();
+        }
+        OpenHashMapList copy = new OpenHashMapList(local.size());
+        for (Map.Entry<Requirement, CandidateSelector> entry : local.fast()) {
+            CandidateSelector selector = entry.getValue();
+            copy.put(entry.getKey(), selector == REMOVED ? REMOVED : selector.copy());
+        }
+        return new CopyOnWriteCandidateMap(shared, copy);
+    }
+
+    private void merge() {
+        OpenHashMapList merged = shared.isEmpty()
+            ? new OpenHashMapList(local.size())
+            : (OpenHashMapList) shared.clone();
+        for (Map.Entry<Requirement, CandidateSelector> entry : local.fast()) {
+            if (entry.getValue() == REMOVED) {
+                merged.remove(entry.getKey());
+            } else {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // From now on, the local selectors are shared with other copies.
+        shared = merged;
+        local = new OpenHashMapList();
+    }
+}
@@ -118,7 +118,7 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
-    private ResolveContext buildResolutionContext() throws IOException, BundleException {
+    ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
         InputStream is = getClass().getClassLoader().getResourceAsStream("resolution.json");
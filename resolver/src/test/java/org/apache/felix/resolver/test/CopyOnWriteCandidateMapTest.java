@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.felix.resolver.util.CandidateSelector;
+import org.apache.felix.resolver.util.CopyOnWriteCandidateMap;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+public class CopyOnWriteCandidateMapTest
+{
+    @Test
+    public void testCopiesAreIsolated() throws Exception
+    {
+        Capability cap1 = Mockito.mock(Capability.class);
+        Capability cap2 = Mockito.mock(Capability.class);
+        List<Requirement> reqs = new ArrayList<Requirement>();
+        CopyOnWriteCandidateMap map = new CopyOnWriteCandidateMap();
+        for (int i = 0; i < 100; i++)
+        {
+            Requirement req = Mockito.mock(Requirement.class);
+            reqs.add(req);
+            map.put(req, new CandidateSelector(Arrays.asList(cap1, cap2), new AtomicBoolean(true)));
+        }
+
+        // The first copy moves all entries to the shared map.
+        CopyOnWriteCandidateMap copy = map.copy();
+        assertEquals(0, copy.getLocalSize());
+        assertEquals(100, copy.getSharedSize());
+
+        copy.getForUpdate(reqs.get(0)).removeCurrentCandidate();
+        copy.remove(reqs.get(1));
+        assertSame(cap2, copy.get(reqs.get(0)).getCurrentCandidate());
+        assertNull(copy.get(reqs.get(1)));
+        assertSame(cap1, map.get(reqs.get(0)).getCurrentCandidate());
+        assertSame(cap1, map.get(reqs.get(1)).getCurrentCandidate());
+
+        // A copy of the copy only copies the changed entries.
+        CopyOnWriteCandidateMap copy2 = copy.copy();
+        assertEquals(2, copy2.getLocalSize());
+        assertNull(copy2.get(reqs.get(1)));
+        copy2.getForUpdate(reqs.get(0)).removeCurrentCandidate();
+        assertNull(copy2.get(reqs.get(0)).getCurrentCandidate());
+        assertSame(cap2, copy.get(reqs.get(0)).getCurrentCandidate());
+
+        int count = 0;
+        for (Object entry : copy2.fast())
+        {
+            count++;
+        }
+        assertEquals(99, count);
+    }
+}
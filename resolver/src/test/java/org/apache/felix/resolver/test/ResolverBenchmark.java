@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.test.util.RepositoryGenerator;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Measures resolve throughput, allocation rate and number of permutations
+ * tried for the recorded repository used by {@link BigResolutionTest} and
+ * for generated repositories of 100, 1000 and 10000 resources, at
+ * different parallelism levels.
+ * <p>
+ * The repositories to use can be given as arguments (<tt>recorded</tt>,
+ * <tt>small</tt>, <tt>1k</tt>, <tt>10k</tt>); the parallelism levels and
+ * the number of iterations are set with the <tt>felix.resolver.parallelism</tt>
+ * and <tt>iterations</tt> system properties, for example
+ * <tt>-Dfelix.resolver.parallelism=1,4 -Diterations=20</tt>.
+ */
+public class ResolverBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, ResolveContext> corpora = new LinkedHashMap<String, ResolveContext>();
+        List<String> names = args.length > 0
+            ? Arrays.asList(args) : Arrays.asList("recorded", "small", "1k", "10k");
+        for (String name : names)
+        {
+            if ("recorded".equals(name))
+            {
+                corpora.put(name, new BigResolutionTest().buildResolutionContext());
+            }
+            else if ("small".equals(name))
+            {
+                corpora.put(name, new RepositoryGenerator(100).layers(4).generate());
+            }
+            else if ("1k".equals(name))
+            {
+                corpora.put(name, new RepositoryGenerator(1000).generate());
+            }
+            else if ("10k".equals(name))
+            {
+                corpora.put(name, new RepositoryGenerator(10000).layers(16).maxImports(4)
+                    .substitutableRatio(0.02).generate());
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown repository: " + name);
+            }
+        }
+
+        List<Integer> parallelisms = new ArrayList<Integer>();
+        String str = System.getProperty("felix.resolver.parallelism");
+        if (str != null)
+        {
+            for (String s : str.split(","))
+            {
+                parallelisms.add(Integer.parseInt(s.trim()));
+            }
+        }
+        else
+        {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            for (int p = 1; p < cpus; p *= 2)
+            {
+                parallelisms.add(p);
+            }
+            parallelisms.add(cpus);
+        }
+        int iterations = Integer.getInteger("iterations", 10);
+
+        System.out.println(String.format("%-10s %4s %10s %10s %12s %13s",
+            "Repository", "Par", "ops/s", "ms/op", "alloc MB/op", "permutations"));
+        for (Map.Entry<String, ResolveContext> corpus : corpora.entrySet())
+        {
+            for (int parallelism : parallelisms)
+            {
+                run(corpus.getKey(), corpus.getValue(), parallelism, iterations);
+            }
+        }
+    }
+
+    private static void run(String name, ResolveContext rc, int parallelism, int iterations)
+        throws Exception
+    {
+        // Use long lived threads so that their allocations can be measured.
+        ExecutorService pool = null;
+        Executor executor;
+        if (parallelism > 1)
+        {
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(parallelism, parallelism,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            tpe.prestartAllCoreThreads();
+            pool = tpe;
+            executor = pool;
+        }
+        else
+        {
+            executor = new Executor()
+            {
+                public void execute(Runnable command)
+                {
+                    command.run();
+                }
+            };
+        }
+        try
+        {
+            CountingLogger logger = new CountingLogger();
+            ResolverImpl resolver = new ResolverImpl(logger, executor);
+
+            Map<Resource, List<Wire>> expected = null;
+            for (int i = 0; i < Math.max(1, iterations / 2); i++)
+            {
+                Map<Resource, List<Wire>> wires = resolver.resolve(rc);
+                if (expected != null && !expected.equals(wires))
+                {
+                    throw new IllegalStateException("Resolution is not stable");
+                }
+                expected = wires;
+            }
+
+            logger.permutations = 0;
+            long allocated = getAllocatedBytes();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+            {
+                resolver.resolve(rc);
+            }
+            long time = System.nanoTime() - t0;
+            allocated = getAllocatedBytes() - allocated;
+
+            double ms = time * 1E-6 / iterations;
+            System.out.println(String.format("%-10s %4d %10.2f %10.2f %12.2f %13d",
+                name, parallelism, 1000.0 / ms, ms,
+                allocated / (1024.0 * 1024.0) / iterations,
+                logger.permutations / iterations));
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+        {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean)
+            .getThreadAllocatedBytes(bean.getAllThreadIds()))
+        {
+            if (bytes > 0)
+            {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static class CountingLogger extends Logger
+    {
+        volatile long permutations;
+
+        CountingLogger()
+        {
+            super(Logger.LOG_ERROR);
+        }
+
+        @Override
+        public void logPermutationsTried(int count)
+        {
+            permutations += count;
+        }
+    }
+}
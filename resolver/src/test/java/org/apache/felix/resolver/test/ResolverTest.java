@@ -32,8 +32,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.PackageSpaceCache;
 import org.apache.felix.resolver.ResolverImpl;
 import org.apache.felix.resolver.test.util.BundleCapability;
 import org.apache.felix.resolver.test.util.BundleRequirement;
@@ -41,6 +43,7 @@ import org.apache.felix.resolver.test.util.GenericCapability;
 import org.apache.felix.resolver.test.util.GenericRequirement;
 import org.apache.felix.resolver.test.util.PackageCapability;
 import org.apache.felix.resolver.test.util.PackageRequirement;
+import org.apache.felix.resolver.test.util.RepositoryGenerator;
 import org.apache.felix.resolver.test.util.ResolveContextImpl;
 import org.apache.felix.resolver.test.util.ResourceImpl;
 import org.junit.Test;
@@ -57,6 +60,7 @@ import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 import org.osgi.resource.Wire;
 import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
 import org.osgi.service.resolver.ResolutionException;
 import org.osgi.service.resolver.ResolveContext;
 import org.osgi.service.resolver.Resolver;
@@ -1560,6 +1564,247 @@ public class ResolverTest
         return Collections.<Resource>singletonList(b1);
     }
 
+    @Test
+    public void testIncrementalResolution() throws Exception
+    {
+        PackageSpaceCache cache = new PackageSpaceCache();
+        Executor executor = new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), executor, cache);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        ResourceImpl b1 = new ResourceImpl("B1");
+        Capability b1_pkgCap = addCap(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+        ResourceImpl b2 = new ResourceImpl("B2");
+        Capability b2_pkgCap = addCap(b2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a", "org.foo.b");
+        Requirement a1_pkgReq = addReq(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+
+        ResourceImpl c1 = new ResourceImpl("C");
+        Requirement c1_pkgReq1 = addReq(c1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        Requirement c1_pkgReq2 = addReq(c1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+
+        candMap.put(c1_pkgReq1, Collections.singletonList(a1_pkgCap));
+        candMap.put(c1_pkgReq2, Arrays.asList(b2_pkgCap, b1_pkgCap));
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(a1, new ArrayList<Wire>());
+        wires.put(b1, new ArrayList<Wire>());
+        wires.put(b2, new ArrayList<Wire>());
+        wires.get(a1).add(new SimpleWire(a1_pkgReq, b1_pkgCap));
+
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(a1, new ArrayList<Wire>());
+        invertedWires.put(b1, new ArrayList<Wire>());
+        invertedWires.put(b2, new ArrayList<Wire>());
+        invertedWires.get(b1).add(new SimpleWire(a1_pkgReq, b1_pkgCap));
+
+        wirings.put(a1, new SimpleWiring(a1, Collections.singletonList(a1_pkgCap), wires, invertedWires));
+        wirings.put(b1, new SimpleWiring(b1, Collections.singletonList(b1_pkgCap), wires, invertedWires));
+        wirings.put(b2, new SimpleWiring(b2, Collections.singletonList(b2_pkgCap), wires, invertedWires));
+
+        for (int i = 0; i < 2; i++)
+        {
+            long misses = cache.getMisses();
+            ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+                Collections.<Resource>singletonList(c1), Collections.<Resource> emptyList());
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+
+            // The uses constraint from the cached package space of A must
+            // still force C to import org.foo.b from B1.
+            List<Wire> wiresC = wireMap.get(c1);
+            assertEquals(2, wiresC.size());
+            for (Wire wire : wiresC)
+            {
+                assertTrue(wire.getProvider() == a1 || wire.getProvider() == b1);
+            }
+            if (i > 0)
+            {
+                assertEquals(misses, cache.getMisses());
+            }
+        }
+        assertEquals(3, cache.size());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void testConflictingPermutationsArePruned() throws Exception
+    {
+        final int[] counts = new int[2];
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR)
+        {
+            @Override
+            public void logPermutationsTried(int count)
+            {
+                counts[0] += count;
+            }
+
+            @Override
+            public void logPermutationsPruned(int count)
+            {
+                counts[1] += count;
+            }
+        }, 1);
+
+        ResolveContextImpl rci = new RepositoryGenerator(100).layers(4).generate();
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+
+        for (Resource resource : rci.getMandatoryResources())
+        {
+            assertNotNull(wireMap.get(resource));
+        }
+        assertTrue(counts[0] > 1);
+        assertTrue(counts[1] > 0);
+    }
+
+    @Test
+    public void testConflictsOfOptionalResourcesAreNotPruned() throws Exception
+    {
+        final int[] counts = new int[2];
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR)
+        {
+            @Override
+            public void logPermutationsTried(int count)
+            {
+                counts[0] += count;
+            }
+
+            @Override
+            public void logPermutationsPruned(int count)
+            {
+                counts[1] += count;
+            }
+        }, 1);
+
+        // The same repository as above, but resolved optionally, so that
+        // every permutation is considered when minimising faulty resources.
+        final ResolveContextImpl rci = new RepositoryGenerator(100).layers(4).generate();
+        ResolveContext rc = new ResolveContext()
+        {
+            @Override
+            public Collection<Resource> getOptionalResources()
+            {
+                return rci.getMandatoryResources();
+            }
+
+            @Override
+            public List<Capability> findProviders(Requirement requirement)
+            {
+                return rci.findProviders(requirement);
+            }
+
+            @Override
+            public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability)
+            {
+                return rci.insertHostedCapability(capabilities, hostedCapability);
+            }
+
+            @Override
+            public boolean isEffective(Requirement requirement)
+            {
+                return rci.isEffective(requirement);
+            }
+
+            @Override
+            public Map<Resource, Wiring> getWirings()
+            {
+                return rci.getWirings();
+            }
+        };
+        resolver.resolve(rc);
+
+        assertTrue(counts[0] > 1);
+        assertEquals(0, counts[1]);
+    }
+
+    @Test
+    public void testDynamicImportFromSingleProvider() throws Exception
+    {
+        final int[] sessions = new int[1];
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG)
+        {
+            @Override
+            public void logPermutationsTried(int count)
+            {
+                sessions[0]++;
+            }
+        }, 1);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a", "org.foo.b");
+        Requirement a1_pkgReq = addReq(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+
+        ResourceImpl b1 = new ResourceImpl("B1");
+        Capability b1_pkgCap = addCap(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+        ResourceImpl b2 = new ResourceImpl("B2");
+        Capability b2_pkgCap = addCap(b2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.b");
+        ResourceImpl d1 = new ResourceImpl("D");
+        Capability d1_pkgCap = addCap(d1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.d");
+
+        ResourceImpl c1 = new ResourceImpl("C");
+        Requirement c1_pkgReq = addReq(c1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        Requirement c1_dynReqB = addDynamicReq(c1, "org.foo.b");
+        Requirement c1_dynReqD = addDynamicReq(c1, "org.foo.d");
+
+        candMap.put(c1_dynReqB, Collections.singletonList(b2_pkgCap));
+        candMap.put(c1_dynReqD, Collections.singletonList(d1_pkgCap));
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        for (Resource resource : Arrays.asList(a1, b1, b2, c1, d1))
+        {
+            wires.put(resource, new ArrayList<Wire>());
+            invertedWires.put(resource, new ArrayList<Wire>());
+        }
+        wires.get(a1).add(new SimpleWire(a1_pkgReq, b1_pkgCap));
+        invertedWires.get(b1).add(new SimpleWire(a1_pkgReq, b1_pkgCap));
+        wires.get(c1).add(new SimpleWire(c1_pkgReq, a1_pkgCap));
+        invertedWires.get(a1).add(new SimpleWire(c1_pkgReq, a1_pkgCap));
+
+        wirings.put(a1, new SimpleWiring(a1, Collections.singletonList(a1_pkgCap), wires, invertedWires));
+        wirings.put(b1, new SimpleWiring(b1, Collections.singletonList(b1_pkgCap), wires, invertedWires));
+        wirings.put(b2, new SimpleWiring(b2, Collections.singletonList(b2_pkgCap), wires, invertedWires));
+        wirings.put(c1, new SimpleWiring(c1, Collections.<Capability>emptyList(), wires, invertedWires));
+        wirings.put(d1, new SimpleWiring(d1, Collections.singletonList(d1_pkgCap), wires, invertedWires));
+
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource>emptyList(), Collections.<Resource> emptyList());
+
+        // Nothing visible to C uses org.foo.d, so no session is needed.
+        Map<Resource, List<Wire>> wireMap = resolver.resolveDynamic(rci, wirings.get(c1), c1_dynReqD);
+        assertEquals(1, wireMap.size());
+        List<Wire> wiresC = wireMap.get(c1);
+        assertEquals(1, wiresC.size());
+        assertEquals(d1, wiresC.get(0).getProvider());
+        assertEquals(d1_pkgCap, wiresC.get(0).getCapability());
+        assertEquals(0, sessions[0]);
+
+        // C sees org.foo.b from B1 through the uses constraint of org.foo.a,
+        // so the only candidate B2 must go through a full resolve and fail.
+        try
+        {
+            resolver.resolveDynamic(rci, wirings.get(c1), c1_dynReqB);
+            fail("Should fail to dynamically import a package conflicting with a uses constraint.");
+        }
+        catch (ResolutionException e)
+        {
+            // expected
+        }
+        assertEquals(1, sessions[0]);
+    }
+
     private static Capability addCap(ResourceImpl res, String namespace, String value)
     {
         return addCap(res, namespace, value, null);
@@ -1593,6 +1838,17 @@ public class ResolverTest
         return req;
     }
 
+    private static Requirement addDynamicReq(ResourceImpl res, String pkgName)
+    {
+        GenericRequirement req = new GenericRequirement(res, PackageNamespace.PACKAGE_NAMESPACE);
+        req.addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE,
+            "(" + PackageNamespace.PACKAGE_NAMESPACE + "=" + pkgName + ")");
+        req.addDirective(PackageNamespace.REQUIREMENT_RESOLUTION_DIRECTIVE,
+            PackageNamespace.RESOLUTION_DYNAMIC);
+        res.addRequirement(req);
+        return req;
+    }
+
     private static class SimpleWire implements Wire {
         final Requirement requirement;
         final Capability capability;
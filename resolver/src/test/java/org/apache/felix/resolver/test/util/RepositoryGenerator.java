@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+
+/**
+ * Generates reproducible repositories for resolver benchmarks. Bundles are
+ * organized in layers, each bundle exporting a package which uses all the
+ * packages it imports from lower layers, so that uses constraints form long
+ * chains. Some bundles also export a substitutable copy of a lower layer
+ * package, and some packages are exported again by additional bundles.
+ * Importers see these alternative exporters first at random, which leads
+ * to uses constraint violations the resolver has to solve through
+ * permutations. Fragments attach to random hosts and export packages
+ * imported by higher layers. The same seed always generates the same
+ * repository, which can always be resolved by picking the original exporter
+ * of every package.
+ */
+public class RepositoryGenerator
+{
+    private final int m_size;
+    private long m_seed = 0;
+    private int m_layers = 8;
+    private int m_maxImports = 6;
+    private double m_substitutableRatio = 0.1;
+    private double m_duplicateRatio = 0.05;
+    private double m_fragmentRatio = 0.05;
+
+    public RepositoryGenerator(int size)
+    {
+        m_size = size;
+    }
+
+    public RepositoryGenerator seed(long seed)
+    {
+        m_seed = seed;
+        return this;
+    }
+
+    public RepositoryGenerator layers(int layers)
+    {
+        m_layers = layers;
+        return this;
+    }
+
+    public RepositoryGenerator maxImports(int maxImports)
+    {
+        m_maxImports = maxImports;
+        return this;
+    }
+
+    public RepositoryGenerator substitutableRatio(double ratio)
+    {
+        m_substitutableRatio = ratio;
+        return this;
+    }
+
+    public RepositoryGenerator duplicateRatio(double ratio)
+    {
+        m_duplicateRatio = ratio;
+        return this;
+    }
+
+    public RepositoryGenerator fragmentRatio(double ratio)
+    {
+        m_fragmentRatio = ratio;
+        return this;
+    }
+
+    public ResolveContextImpl generate()
+    {
+        Random random = new Random(m_seed);
+        int nbFragments = (int) (m_size * m_fragmentRatio);
+        int nbBundles = m_size - nbFragments;
+
+        List<ResourceImpl> bundles = new ArrayList<ResourceImpl>(nbBundles);
+        List<Capability> hostCaps = new ArrayList<Capability>(nbBundles);
+        List<String> packages = new ArrayList<String>(nbBundles);
+        Map<String, Capability> exporters = new HashMap<String, Capability>();
+        Map<String, List<Capability>> alternatives = new HashMap<String, List<Capability>>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        Map<Requirement, String> imports = new LinkedHashMap<Requirement, String>();
+
+        int layerStart = 0;
+        for (int i = 0; i < nbBundles; i++)
+        {
+            if ((long) i * m_layers / nbBundles != (long) (i - 1) * m_layers / nbBundles)
+            {
+                layerStart = i;
+            }
+            ResourceImpl bundle = new ResourceImpl("bundle" + i);
+            hostCaps.add(addCap(bundle, HostNamespace.HOST_NAMESPACE, "bundle" + i, null));
+
+            Set<String> imported = new LinkedHashSet<String>();
+            if (layerStart > 0)
+            {
+                int nbImports = 1 + random.nextInt(m_maxImports);
+                for (int j = 0; j < nbImports; j++)
+                {
+                    imported.add(packages.get(random.nextInt(layerStart)));
+                }
+            }
+            String pkg = "pkg" + i;
+            exporters.put(pkg, addCap(bundle, PackageNamespace.PACKAGE_NAMESPACE, pkg, join(imported)));
+            packages.add(pkg);
+            for (String name : imported)
+            {
+                imports.put(addReq(bundle, PackageNamespace.PACKAGE_NAMESPACE, name), name);
+            }
+
+            // Export a substitutable copy of a lower layer package.
+            if (layerStart > 0 && random.nextDouble() < m_substitutableRatio)
+            {
+                String name = packages.get(random.nextInt(layerStart));
+                if (!imported.contains(name))
+                {
+                    Capability cap = addCap(bundle, PackageNamespace.PACKAGE_NAMESPACE, name, null);
+                    Requirement req = addReq(bundle, PackageNamespace.PACKAGE_NAMESPACE, name);
+                    List<Capability> caps = alternatives.get(name);
+                    if (caps == null)
+                    {
+                        caps = new ArrayList<Capability>();
+                        alternatives.put(name, caps);
+                    }
+                    caps.add(cap);
+                    List<Capability> cands = new ArrayList<Capability>();
+                    cands.add(exporters.get(name));
+                    cands.add(cap);
+                    candMap.put(req, cands);
+                }
+            }
+            bundles.add(bundle);
+        }
+
+        // Export some packages again from bundles without dependencies.
+        List<Resource> duplicates = new ArrayList<Resource>();
+        for (int i = 0; i < nbBundles; i++)
+        {
+            if (random.nextDouble() < m_duplicateRatio)
+            {
+                String name = packages.get(i);
+                ResourceImpl duplicate = new ResourceImpl("duplicate" + i);
+                Capability cap = addCap(duplicate, PackageNamespace.PACKAGE_NAMESPACE, name, null);
+                List<Capability> caps = alternatives.get(name);
+                if (caps == null)
+                {
+                    caps = new ArrayList<Capability>();
+                    alternatives.put(name, caps);
+                }
+                caps.add(cap);
+                duplicates.add(duplicate);
+            }
+        }
+
+        // Importers either see the original exporter or an alternative first.
+        for (Map.Entry<Requirement, String> entry : imports.entrySet())
+        {
+            Requirement req = entry.getKey();
+            String name = entry.getValue();
+            List<Capability> cands = new ArrayList<Capability>();
+            cands.add(exporters.get(name));
+            List<Capability> caps = alternatives.get(name);
+            if (caps != null)
+            {
+                for (Capability cap : caps)
+                {
+                    if (cap.getResource() != req.getResource())
+                    {
+                        cands.add(random.nextBoolean() ? 0 : cands.size(), cap);
+                    }
+                }
+            }
+            candMap.put(req, cands);
+        }
+
+        List<Resource> fragments = new ArrayList<Resource>(nbFragments);
+        for (int i = 0; i < nbFragments; i++)
+        {
+            int host = random.nextInt(nbBundles);
+            ResourceImpl fragment = new ResourceImpl("fragment" + i, IdentityNamespace.TYPE_FRAGMENT, Version.emptyVersion);
+            Requirement hostReq = addReq(fragment, HostNamespace.HOST_NAMESPACE, "bundle" + host);
+            candMap.put(hostReq, singleton(hostCaps.get(host)));
+            Capability cap = addCap(fragment, PackageNamespace.PACKAGE_NAMESPACE, "fragment" + i, null);
+            if (host + 1 < nbBundles)
+            {
+                ResourceImpl importer = bundles.get(host + 1 + random.nextInt(nbBundles - host - 1));
+                candMap.put(addReq(importer, PackageNamespace.PACKAGE_NAMESPACE, "fragment" + i), singleton(cap));
+            }
+            fragments.add(fragment);
+        }
+
+        List<Resource> mandatory = new ArrayList<Resource>(bundles);
+        mandatory.addAll(duplicates);
+        return new ResolveContextImpl(new HashMap<Resource, Wiring>(), candMap,
+            mandatory, fragments);
+    }
+
+    private static List<Capability> singleton(Capability cap)
+    {
+        List<Capability> caps = new ArrayList<Capability>(1);
+        caps.add(cap);
+        return caps;
+    }
+
+    private static String join(Set<String> names)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(',');
+            }
+            sb.append(name);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static Capability addCap(ResourceImpl res, String namespace, String value, String uses)
+    {
+        GenericCapability cap = new GenericCapability(res, namespace);
+        cap.addAttribute(namespace, value);
+        if (uses != null)
+        {
+            cap.addDirective(Namespace.CAPABILITY_USES_DIRECTIVE, uses);
+        }
+        res.addCapability(cap);
+        return cap;
+    }
+
+    private static Requirement addReq(ResourceImpl res, String namespace, String value)
+    {
+        GenericRequirement req = new GenericRequirement(res, namespace);
+        req.addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE, "(" + namespace + "=" + value + ")");
+        res.addRequirement(req);
+        return req;
+    }
+}
@@ -188,14 +188,12 @@ public class Activator extends AbstractExtender
             null, m_bundle.getVersion().toString() );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread( this.logger );
-        Thread t = new Thread( m_componentActor, "SCR Component Actor" );
-        t.setDaemon( true );
-        t.start();
+        m_componentActor = new ComponentActorThread( this.logger, m_configuration.actorThreads() );
+        m_componentActor.start();
 
         super.doStart();
 
-        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration);
+        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration, m_componentActor);
         m_componentCommands.register();
         m_componentCommands.updateProvideScrInfoService(m_configuration.infoAsService());
         m_configuration.setScrCommand(m_componentCommands);
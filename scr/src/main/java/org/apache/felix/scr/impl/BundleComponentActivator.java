@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -48,6 +49,7 @@ import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
 import org.apache.felix.scr.impl.manager.RegionConfigurationSupport;
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.xml.DescriptorIndex;
 import org.apache.felix.scr.impl.xml.XmlHandler;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -96,22 +98,28 @@ public class BundleComponentActivator implements ComponentActivator
 
     private final BundleLogger logger;
 
-    private static class ListenerInfo implements ServiceListener
+    static class ListenerInfo implements ServiceListener
     {
         private Map<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> filterMap = new HashMap<>();
 
+        private FilterIndex<List<ExtendedServiceListener<ExtendedServiceEvent>>> filterIndex = new FilterIndex<>( filterMap );
+
         @Override
         public void serviceChanged(ServiceEvent event)
         {
             ServiceReference<?> ref = event.getServiceReference();
             ExtendedServiceEvent extEvent = null;
             ExtendedServiceEvent endMatchEvent = null;
-            Map<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> filterMap;
+            FilterIndex<List<ExtendedServiceListener<ExtendedServiceEvent>>> filterIndex;
             synchronized ( this )
             {
-                filterMap = this.filterMap;
+                filterIndex = this.filterIndex;
             }
-            for ( Map.Entry<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> entry : filterMap.entrySet() )
+            // a modified service must be checked against all filters since
+            // it ends matching the filters it matched before the change
+            Collection<Map.Entry<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>>> entries =
+                event.getType() == ServiceEvent.MODIFIED ? filterIndex.all() : filterIndex.candidates( ref );
+            for ( Map.Entry<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> entry : entries )
             {
                 Filter filter = entry.getKey();
                 if ( filter == null || filter.match( ref ) )
@@ -161,6 +169,7 @@ public class BundleComponentActivator implements ComponentActivator
                 listeners.add( listener );
             }
             filterMap.put( filter, listeners );
+            filterIndex = new FilterIndex<>( filterMap );
         }
 
         public synchronized boolean remove(Filter filter, ExtendedServiceListener<ExtendedServiceEvent> listener)
@@ -179,6 +188,7 @@ public class BundleComponentActivator implements ComponentActivator
                 {
                     filterMap.put( filter, listeners );
                 }
+                filterIndex = new FilterIndex<>( filterMap );
             }
             return filterMap.isEmpty();
         }
@@ -303,6 +313,12 @@ public class BundleComponentActivator implements ComponentActivator
                 "BundleComponentActivator : Descriptor locations {0}", null,
                 descriptorLocations);
 
+            // use the precompiled index of the descriptors if available
+            if (loadDescriptorIndex(descriptorLocations))
+            {
+                return;
+            }
+
             // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
             StringTokenizer st = new StringTokenizer(descriptorLocations, ", ");
 
@@ -425,6 +441,55 @@ public class BundleComponentActivator implements ComponentActivator
         return urls.toArray( new URL[urls.size()] );
     }
 
+    /**
+     * Loads the components from the descriptor index of the bundle.
+     *
+     * @return <code>true</code> if the components have been loaded from the
+     *      index, <code>false</code> if the descriptors have to be parsed
+     */
+    private boolean loadDescriptorIndex(final String descriptorLocations)
+    {
+        // the index is generated without the Felix specific extensions
+        if (getConfiguration().isFactoryEnabled() || getConfiguration().keepInstances())
+        {
+            return false;
+        }
+        final URL indexURL = m_bundle.getEntry(DescriptorIndex.ENTRY);
+        if (indexURL == null)
+        {
+            return false;
+        }
+
+        final List<ComponentMetadata> components;
+        try (InputStream stream = indexURL.openStream())
+        {
+            components = DescriptorIndex.read(descriptorLocations, stream);
+        }
+        catch (IOException ex)
+        {
+            logger.log(LogService.LOG_WARNING,
+                "Problem reading descriptor index ''{0}'', parsing the descriptors", ex,
+                DescriptorIndex.ENTRY);
+            return false;
+        }
+        if (components == null)
+        {
+            logger.log(LogService.LOG_DEBUG,
+                "Descriptor index ''{0}'' does not match the descriptors, parsing the descriptors",
+                null, DescriptorIndex.ENTRY);
+            return false;
+        }
+
+        logger.log(LogService.LOG_DEBUG,
+            "BundleComponentActivator : Loading {0} components from descriptor index", null,
+            components.size());
+        for (ComponentMetadata metadata : components)
+        {
+            validateAndRegister(metadata);
+        }
+        return true;
+    }
+
     private void loadDescriptor(final URL descriptorURL)
     {
         // simple path for log messages
@@ -714,13 +779,27 @@ public class BundleComponentActivator implements ComponentActivator
      */
     @Override
     public void schedule(Runnable task)
+    {
+        schedule( null, task );
+    }
+
+    /**
+     * Schedules the given <code>task</code> like {@link #schedule(Runnable)},
+     * to be executed after the tasks previously scheduled with the same
+     * <code>key</code>.
+     *
+     * @param key The key of the tasks to keep in order, e.g. the component container
+     * @param task The component task to execute
+     */
+    @Override
+    public void schedule(Object key, Runnable task)
     {
         if ( isActive() )
         {
             ComponentActorThread cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
@@ -19,7 +19,16 @@
 package org.apache.felix.scr.impl;
 
 
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.osgi.service.log.LogService;
@@ -28,6 +37,11 @@ import org.osgi.service.log.LogService;
 /**
  * The <code>ComponentActorThread</code> is the thread used to act upon registered
  * components of the service component runtime.
+ * <p>
+ * By default all tasks are run one after the other by a single thread. If more
+ * than one thread is configured, tasks are run by a bounded pool of threads
+ * instead, where the tasks scheduled for the same key, e.g. the same component
+ * holder, are still run one after the other in the order they were scheduled.
  */
 class ComponentActorThread implements Runnable
 {
@@ -48,15 +62,82 @@ class ComponentActorThread implements Runnable
         }
     };
 
+    // key of the tasks scheduled without a key, which are run in order too
+    private static final Object NO_KEY = new Object();
+
     // the queue of Runnable instances  to be run
-    private final LinkedList<Runnable> tasks = new LinkedList<>();
+    private final LinkedList<Task> tasks = new LinkedList<>();
+
+    // the queues of tasks per key while running tasks on the pool
+    private final Map<Object, LinkedList<Task>> lanes = new HashMap<>();
 
     private final ScrLogger logger;
 
+    private final int threads;
+
+    // the pool running the tasks if more than one thread is used
+    private ThreadPoolExecutor executor;
+
+    // the number of tasks waiting in the lanes
+    private int queued;
+
+    private final AtomicLong completedTasks = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
 
     ComponentActorThread( final ScrLogger log )
+    {
+        this( log, 1 );
+    }
+
+
+    ComponentActorThread( final ScrLogger log, final int threads )
     {
         logger = log;
+        this.threads = threads;
+    }
+
+
+    // starts the single actor thread or the pool of threads
+    void start()
+    {
+        if ( threads <= 1 )
+        {
+            Thread t = new Thread( this, "SCR Component Actor" );
+            t.setDaemon( true );
+            t.start();
+            return;
+        }
+
+        logger.log( LogService.LOG_DEBUG, "Starting ComponentActorThread with {0} threads", null, threads );
+        synchronized ( tasks )
+        {
+            executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread( Runnable r )
+                    {
+                        Thread t = new Thread( r, "SCR Component Actor-" + counter.incrementAndGet() );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                } );
+            executor.allowCoreThreadTimeOut( true );
+
+            // move tasks scheduled before starting to the pool
+            while ( !tasks.isEmpty() )
+            {
+                enqueue( tasks.removeFirst() );
+            }
+        }
     }
 
 
@@ -72,7 +153,7 @@ class ComponentActorThread implements Runnable
 
         for ( ;; )
         {
-            final Runnable task;
+            final Task task;
             synchronized ( tasks )
             {
                 while ( tasks.isEmpty() )
@@ -102,19 +183,14 @@ class ComponentActorThread implements Runnable
             try
             {
                 // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
+                if ( task.runnable == TERMINATION_TASK )
                 {
                     logger.log( LogService.LOG_DEBUG, "Shutting down ComponentActorThread", null );
                     return;
                 }
 
                 // otherwise execute the task, log any issues
-                logger.log( LogService.LOG_DEBUG, "Running task: " + task, null );
-                task.run();
-            }
-            catch ( Throwable t )
-            {
-                logger.log( LogService.LOG_ERROR, "Unexpected problem executing task " + task, t );
+                execute( task );
             }
             finally
             {
@@ -131,29 +207,51 @@ class ComponentActorThread implements Runnable
     // of the queue
     void terminate()
     {
-        schedule( TERMINATION_TASK );
         synchronized ( tasks )
         {
-            while ( !tasks.isEmpty() )
+            if ( executor != null )
             {
-                boolean interrupted = Thread.interrupted();
-                try
+                // wait for the lanes to be drained, then stop the pool
+                while ( !lanes.isEmpty() )
                 {
-                    tasks.wait();
-                }
-                catch ( InterruptedException e )
-                {
-                    interrupted = true;
-                    logger.log(LogService.LOG_ERROR,
-                        "Interrupted exception waiting for queue to empty", e);
-                }
-                finally
-                {
-                    if (interrupted)
-                    { // restore interrupt status
-                        Thread.currentThread().interrupt();
-                    }
+                    await();
                 }
+                logger.log( LogService.LOG_DEBUG, "Shutting down ComponentActorThread", null );
+                executor.shutdown();
+                executor = null;
+                return;
+            }
+        }
+        schedule( TERMINATION_TASK );
+        synchronized ( tasks )
+        {
+            while ( !tasks.isEmpty() )
+            {
+                await();
+            }
+        }
+    }
+
+
+    // waits for a change of the queues
+    private void await()
+    {
+        boolean interrupted = Thread.interrupted();
+        try
+        {
+            tasks.wait();
+        }
+        catch ( InterruptedException e )
+        {
+            interrupted = true;
+            logger.log(LogService.LOG_ERROR,
+                "Interrupted exception waiting for queue to empty", e);
+        }
+        finally
+        {
+            if (interrupted)
+            { // restore interrupt status
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -161,17 +259,195 @@ class ComponentActorThread implements Runnable
 
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible, after the
+    // runnables previously scheduled for the same key
+    void schedule( Object key, Runnable task )
+    {
+        synchronized ( tasks )
+        {
+            final Task t = new Task( key == null ? NO_KEY : key, task );
+            if ( executor == null )
+            {
+                // append to the task queue
+                tasks.add( t );
+
+                logger.log( LogService.LOG_DEBUG, "Adding task [{0}] as #{1} in the queue", null,
+                        task, tasks.size());
+
+                // notify the waiting thread
+                tasks.notifyAll();
+            }
+            else
+            {
+                enqueue( t );
+            }
+        }
+    }
+
+
+    // the number of tasks waiting to be run
+    int getQueueDepth()
     {
         synchronized ( tasks )
         {
-            // append to the task queue
-            tasks.add( task );
+            return executor == null ? tasks.size() : queued;
+        }
+    }
+
+
+    long getCompletedTaskCount()
+    {
+        return completedTasks.get();
+    }
+
+
+    // the total time tasks waited in the queue before being run
+    long getTotalWaitNanos()
+    {
+        return totalWaitNanos.get();
+    }
+
+
+    long getMaxWaitNanos()
+    {
+        return maxWaitNanos.get();
+    }
+
+
+    // the total time spent running tasks
+    long getTotalRunNanos()
+    {
+        return totalRunNanos.get();
+    }
+
+
+    // appends the task to the lane of its key and submits the lane to the
+    // pool unless tasks of the same key are already waiting or running
+    private void enqueue( final Task task )
+    {
+        queued++;
+        LinkedList<Task> lane = lanes.get( task.key );
+        if ( lane != null )
+        {
+            lane.add( task );
+            logger.log( LogService.LOG_DEBUG, "Adding task [{0}] as #{1} in its lane", null,
+                    task, lane.size() );
+            return;
+        }
+
+        lane = new LinkedList<>();
+        lane.add( task );
+        lanes.put( task.key, lane );
+        logger.log( LogService.LOG_DEBUG, "Adding task [{0}] in a new lane", null, task );
+        submit( lane );
+    }
 
-            logger.log( LogService.LOG_DEBUG, "Adding task [{0}] as #{1} in the queue", null,
-                    task, tasks.size());
 
-            // notify the waiting thread
+    // runs the next task of the lane and resubmits the lane if it has
+    // more tasks, so that tasks of other keys get a turn in between
+    private void submit( final LinkedList<Task> lane )
+    {
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final Task task;
+                    synchronized ( tasks )
+                    {
+                        task = lane.getFirst();
+                        queued--;
+                    }
+                    try
+                    {
+                        execute( task );
+                    }
+                    finally
+                    {
+                        synchronized ( tasks )
+                        {
+                            lane.removeFirst();
+                            if ( lane.isEmpty() )
+                            {
+                                lanes.remove( task.key );
+                                tasks.notifyAll();
+                            }
+                            else
+                            {
+                                submit( lane );
+                            }
+                        }
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // the pool is shut down, drop the remaining tasks of the lane
+            logger.log( LogService.LOG_ERROR, "Unable to run tasks starting with [{0}]", ree, lane.getFirst() );
+            queued -= lane.size();
+            lanes.remove( lane.getFirst().key );
             tasks.notifyAll();
         }
     }
+
+
+    // runs the task, logs any issues and records its latency
+    private void execute( final Task task )
+    {
+        final long start = System.nanoTime();
+        final long wait = start - task.scheduled;
+        try
+        {
+            logger.log( LogService.LOG_DEBUG, "Running task: " + task, null );
+            task.runnable.run();
+        }
+        catch ( Throwable t )
+        {
+            logger.log( LogService.LOG_ERROR, "Unexpected problem executing task " + task, t );
+        }
+        finally
+        {
+            final long run = System.nanoTime() - start;
+            completedTasks.incrementAndGet();
+            totalWaitNanos.addAndGet( wait );
+            totalRunNanos.addAndGet( run );
+            long max = maxWaitNanos.get();
+            while ( wait > max && !maxWaitNanos.compareAndSet( max, wait ) )
+            {
+                max = maxWaitNanos.get();
+            }
+            logger.log( LogService.LOG_DEBUG, "Task [{0}] waited {1} ms and ran {2} ms", null, task,
+                TimeUnit.NANOSECONDS.toMillis( wait ), TimeUnit.NANOSECONDS.toMillis( run ) );
+        }
+    }
+
+
+    private static final class Task
+    {
+        private final Object key;
+
+        private final Runnable runnable;
+
+        private final long scheduled = System.nanoTime();
+
+        Task( final Object key, final Runnable runnable )
+        {
+            this.key = key;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public String toString()
+        {
+            return runnable.toString();
+        }
+    }
 }
@@ -37,8 +37,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.info.ComponentConfigurationMetricsDTO;
 import org.apache.felix.scr.info.ScrInfo;
 import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.command.Descriptor;
@@ -70,6 +72,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
     private final BundleContext context;
     private final ServiceComponentRuntime scr;
     private final ScrConfiguration scrConfig;
+    private final ComponentActorThread componentActor;
     private final ServiceTracker<Object, ServiceRegistration<?>> gogoRuntimeTracker;
 
     private final Comparator<ComponentConfigurationDTO> configDtoComparator = new Comparator<ComponentConfigurationDTO>() {
@@ -133,10 +136,11 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         }
     }
 
-    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig) {
+    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig, ComponentActorThread componentActor) {
         this.context = context;
         this.scr = scr;
         this.scrConfig = scrConfig;
+        this.componentActor = componentActor;
         this.gogoRuntimeTracker = new ServiceTracker<>(context, "org.apache.felix.service.command.CommandProcessor", this);
     }
 
@@ -224,7 +228,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
     }
 
     @SuppressWarnings("deprecation")
-    @Descriptor("Show the current SCR configuration")
+    @Descriptor("Show the current SCR configuration and the statistics of the component actor")
     public String config() {
         Map<String,String> out = new LinkedHashMap<>();
         out.put("Log Level", Integer.toString(scrConfig.getLogLevel()));
@@ -234,9 +238,19 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
+        out.put("Actor threads", Integer.toString(scrConfig.actorThreads()));
 
         StringBuilder builder = new StringBuilder();
         printColumnsAligned("SCR Configuration", out, '=', builder);
+
+        Map<String,String> actor = new LinkedHashMap<>();
+        actor.put("Queued tasks", Integer.toString(componentActor.getQueueDepth()));
+        actor.put("Completed tasks", Long.toString(componentActor.getCompletedTaskCount()));
+        actor.put("Total wait ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(componentActor.getTotalWaitNanos())));
+        actor.put("Max wait ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(componentActor.getMaxWaitNanos())));
+        actor.put("Total run ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(componentActor.getTotalRunNanos())));
+        builder.append("\n\n");
+        printColumnsAligned("Component Actor", actor, '=', builder);
         return builder.toString();
     }
 
@@ -380,6 +394,11 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
             // Print References
             out.put("References", printServiceReferences(configDto.satisfiedReferences, configDto.unsatisfiedReferences, descDto.references));
 
+            // Print Metrics
+            if (configDto instanceof ComponentConfigurationMetricsDTO) {
+                out.put("Metrics", printMetrics((ComponentConfigurationMetricsDTO) configDto));
+            }
+
             // Print Failure
             if (configDto.failure != null) {
                 out.put("Failure", configDto.failure);
@@ -409,6 +428,25 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         return sb.toString();
     }
 
+    String printMetrics(ComponentConfigurationMetricsDTO metrics) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Activations: %d in %s (max %s)", metrics.activationCount,
+                millis(metrics.activationTime), millis(metrics.maxActivationTime)));
+        sb.append(String.format("%n" + INDENT_1 + "Deactivations: %d in %s", metrics.deactivationCount,
+                millis(metrics.deactivationTime)));
+        sb.append(String.format("%n" + INDENT_1 + "Binds: %d in %s, Unbinds: %d in %s", metrics.bindCount,
+                millis(metrics.bindTime), metrics.unbindCount, millis(metrics.unbindTime)));
+        sb.append(String.format("%n" + INDENT_1 + "Lock wait: %s (max %s), Lock timeouts: %d",
+                millis(metrics.lockWaitTime), millis(metrics.maxLockWaitTime), metrics.lockTimeoutCount));
+        sb.append(String.format("%n" + INDENT_1 + "Satisfied: %d, Unsatisfied: %d", metrics.satisfiedCount,
+                metrics.unsatisfiedCount));
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1000000d);
+    }
+
     private String arrayToString(String[] array) {
         return array == null || array.length == 0 ? "<<none>>" : Arrays.toString(array);
     }
@@ -25,6 +25,7 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +40,7 @@ import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.AbstractComponentManager;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
+import org.apache.felix.scr.impl.manager.ComponentContainer;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ConfigurableComponentHolder;
 import org.apache.felix.scr.impl.manager.DependencyManager;
@@ -561,10 +563,27 @@ public class ComponentRegistry
      */
     public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorThread actor )
     {
-        final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
-        if ( dependencyManagers != null )
+        final List<Entry<?, ?>> entries = m_missingDependencies.remove( serviceReference );
+        if ( entries == null )
         {
-
+            return;
+        }
+        // the late binding of a component is run in order with the other
+        // tasks of the component, the components are bound independently
+        final Map<ComponentContainer<?>, List<Entry<?, ?>>> byContainer = new LinkedHashMap<>();
+        for ( Entry<?, ?> entry : entries )
+        {
+            List<Entry<?, ?>> dependencyManagers = byContainer.get( entry.getDm().getContainer() );
+            if ( dependencyManagers == null )
+            {
+                dependencyManagers = new ArrayList<>();
+                byContainer.put( entry.getDm().getContainer(), dependencyManagers );
+            }
+            dependencyManagers.add( entry );
+        }
+        for ( Map.Entry<ComponentContainer<?>, List<Entry<?, ?>>> container : byContainer.entrySet() )
+        {
+            final List<Entry<?, ?>> dependencyManagers = container.getValue();
             Runnable runnable = new Runnable()
             {
 
@@ -589,7 +608,7 @@ public class ComponentRegistry
             } ;
             m_logger.log(LogService.LOG_DEBUG,
                 "Scheduling runnable {0} asynchronously", null, runnable);
-            actor.schedule( runnable );
+            actor.schedule( container.getKey(), runnable );
         }
     }
 
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Immutable index of the event filters of the references listening for a
+ * service interface. Each filter is indexed by one of its top level
+ * equality terms, e.g. <code>(name=foo)</code> or the <code>(name=foo)</code>
+ * term of <code>(&amp;(name=foo)(ranking&gt;=1))</code>, so that only the
+ * filters whose term equals the corresponding property of a service have
+ * to be evaluated for that service. Filters without such a term and the
+ * <code>null</code> filter are always candidates.
+ */
+class FilterIndex<T>
+{
+    private final Collection<Map.Entry<Filter, T>> all;
+
+    private final List<Map.Entry<Filter, T>> unindexed = new ArrayList<>();
+
+    // lower case property name -> property value -> entries
+    private final Map<String, Map<String, List<Map.Entry<Filter, T>>>> indexed = new HashMap<>();
+
+    // lower case property name -> all entries indexed by that property
+    private final Map<String, List<Map.Entry<Filter, T>>> byName = new HashMap<>();
+
+    FilterIndex(final Map<Filter, T> filters)
+    {
+        this.all = filters.entrySet();
+        for ( Map.Entry<Filter, T> entry : all )
+        {
+            String[] term = entry.getKey() == null ? null : equalityTerm( entry.getKey().toString() );
+            if ( term == null )
+            {
+                unindexed.add( entry );
+            }
+            else
+            {
+                String name = term[0].toLowerCase( Locale.ENGLISH );
+                Map<String, List<Map.Entry<Filter, T>>> byValue = indexed.get( name );
+                if ( byValue == null )
+                {
+                    byValue = new HashMap<>();
+                    indexed.put( name, byValue );
+                }
+                add( byValue, term[1], entry );
+                add( byName, name, entry );
+            }
+        }
+    }
+
+    /**
+     * Returns all entries of the index.
+     */
+    Collection<Map.Entry<Filter, T>> all()
+    {
+        return all;
+    }
+
+    /**
+     * Returns the entries whose filter may match the service, which still
+     * have to be evaluated against it.
+     */
+    Collection<Map.Entry<Filter, T>> candidates(final ServiceReference<?> ref)
+    {
+        if ( indexed.isEmpty() )
+        {
+            return unindexed;
+        }
+        List<Map.Entry<Filter, T>> result = new ArrayList<>( unindexed );
+        Set<Map.Entry<Filter, T>> seen = null;
+        for ( Map.Entry<String, Map<String, List<Map.Entry<Filter, T>>>> byValue : indexed.entrySet() )
+        {
+            Object value = ref.getProperty( byValue.getKey() );
+            if ( value == null )
+            {
+                // a top level equality term never matches a missing property
+                continue;
+            }
+            if ( value instanceof String )
+            {
+                addAll( result, byValue.getValue().get( value ) );
+                continue;
+            }
+            Collection<?> values = null;
+            if ( value instanceof String[] )
+            {
+                values = Arrays.asList( (String[]) value );
+            }
+            else if ( value instanceof Collection )
+            {
+                values = (Collection<?>) value;
+            }
+            if ( values == null || !onlyStrings( values ) )
+            {
+                // numbers, booleans and others are compared after converting
+                // the filter value, so equal values may have different strings
+                result.addAll( byName.get( byValue.getKey() ) );
+                continue;
+            }
+            if ( seen == null )
+            {
+                seen = Collections.newSetFromMap( new IdentityHashMap<Map.Entry<Filter, T>, Boolean>() );
+            }
+            for ( Object v : values )
+            {
+                List<Map.Entry<Filter, T>> entries = byValue.getValue().get( v );
+                if ( entries != null )
+                {
+                    for ( Map.Entry<Filter, T> entry : entries )
+                    {
+                        if ( seen.add( entry ) )
+                        {
+                            result.add( entry );
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name and value of a top level equality term of a filter
+     * string, preferring terms on other properties than the service
+     * interface, or <code>null</code> if the filter has no such term whose
+     * value can be compared literally.
+     */
+    static String[] equalityTerm(final String filter)
+    {
+        if ( filter.startsWith( "(&" ) && filter.endsWith( ")" ) )
+        {
+            String[] objectClassTerm = null;
+            int depth = 0;
+            int start = -1;
+            for ( int i = 2; i < filter.length() - 1; i++ )
+            {
+                char c = filter.charAt( i );
+                if ( c == '\\' )
+                {
+                    i++;
+                }
+                else if ( c == '(' )
+                {
+                    if ( depth++ == 0 )
+                    {
+                        start = i;
+                    }
+                }
+                else if ( c == ')' && --depth == 0 )
+                {
+                    String[] term = simpleTerm( filter.substring( start, i + 1 ) );
+                    if ( term != null )
+                    {
+                        if ( !Constants.OBJECTCLASS.equalsIgnoreCase( term[0] ) )
+                        {
+                            return term;
+                        }
+                        if ( objectClassTerm == null )
+                        {
+                            objectClassTerm = term;
+                        }
+                    }
+                }
+            }
+            return objectClassTerm;
+        }
+        return simpleTerm( filter );
+    }
+
+    private static String[] simpleTerm(final String filter)
+    {
+        if ( filter.length() < 4 || filter.charAt( 0 ) != '(' || filter.charAt( filter.length() - 1 ) != ')' )
+        {
+            return null;
+        }
+        String inner = filter.substring( 1, filter.length() - 1 );
+        int eq = inner.indexOf( '=' );
+        if ( eq <= 0 || "&|!".indexOf( inner.charAt( 0 ) ) >= 0 || "<>~".indexOf( inner.charAt( eq - 1 ) ) >= 0 )
+        {
+            return null;
+        }
+        String name = inner.substring( 0, eq );
+        if ( name.indexOf( '(' ) >= 0 || name.indexOf( ')' ) >= 0 )
+        {
+            return null;
+        }
+        String value = inner.substring( eq + 1 );
+        // substrings, presence and escaped values are not compared literally
+        if ( value.isEmpty() || value.indexOf( '*' ) >= 0 || value.indexOf( '\\' ) >= 0 )
+        {
+            return null;
+        }
+        return new String[] { name.trim(), value };
+    }
+
+    private static boolean onlyStrings(final Collection<?> values)
+    {
+        for ( Object v : values )
+        {
+            if ( !( v instanceof String ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <K, E> void add(final Map<K, List<E>> map, final K key, final E entry)
+    {
+        List<E> entries = map.get( key );
+        if ( entries == null )
+        {
+            entries = new ArrayList<>();
+            map.put( key, entries );
+        }
+        entries.add( entry );
+    }
+
+    private static <E> void addAll(final List<E> result, final List<E> entries)
+    {
+        if ( entries != null )
+        {
+            result.addAll( entries );
+        }
+    }
+}
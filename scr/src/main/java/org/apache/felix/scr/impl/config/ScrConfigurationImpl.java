@@ -83,6 +83,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private boolean cacheMetadata;
 
+    private int actorThreads = 1;
+
     private long lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
 
     private long stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
@@ -178,6 +180,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
                         cacheMetadata = false;
+                        actorThreads = 1;
                     }
                     else
                     {
@@ -190,6 +193,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
                         cacheMetadata = getDefaultCacheMetadata();
+                        actorThreads = getActorThreads( bundleContext.getProperty( PROP_ACTOR_THREADS ) );
                     }
                 }
                 else
@@ -210,6 +214,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
                 cacheMetadata = VALUE_TRUE.equalsIgnoreCase(
                     String.valueOf(config.get(PROP_CACHE_METADATA)));
+                actorThreads = getActorThreads( config.get( PROP_ACTOR_THREADS ) );
             }
             if ( scrCommand != null )
             {
@@ -279,6 +284,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return cacheMetadata;
     }
 
+    @Override
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
     @Override
     public long serviceChangecountTimeout()
     {
@@ -348,6 +359,26 @@ public class ScrConfigurationImpl implements ScrConfiguration
             bundleContext.getProperty(PROP_CACHE_METADATA));
     }
 
+    private int getActorThreads( final Object threadsObject )
+    {
+        if ( threadsObject instanceof Number )
+        {
+            return Math.max( 1, ( ( Number ) threadsObject ).intValue() );
+        }
+        if ( threadsObject != null )
+        {
+            try
+            {
+                return Math.max( 1, Integer.parseInt( threadsObject.toString().trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // use a single thread
+            }
+        }
+        return 1;
+    }
+
     private int getLogLevel( final Object levelObject )
     {
         if ( levelObject != null )
@@ -123,6 +123,16 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 "Whether to extend all bundles whether or not visible to this bundle.",
                 false ) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_THREADS,
+                "Component actor threads",
+                "How many threads run asynchronous component tasks. With more than one thread the tasks of "
+                    + "different components run concurrently, the tasks of each component still run in order. "
+                    + "Only read when the bundle starts.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.actorThreads())},
+                0, null, null) );
+
         return new ObjectClassDefinition()
         {
 
@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl.inject.field;
 
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -38,6 +39,7 @@ import org.apache.felix.scr.impl.inject.ValueUtils;
 import org.apache.felix.scr.impl.inject.ValueUtils.ValueType;
 import org.apache.felix.scr.impl.inject.field.FieldUtils.FieldSearchResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.MethodHandleUtils;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
 import org.osgi.framework.BundleContext;
@@ -57,6 +59,10 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Handles setting and getting the field unless reflection must be used. */
+    private volatile MethodHandle setter;
+    private volatile MethodHandle getter;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -295,6 +301,19 @@ public class FieldHandler
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
+        final MethodHandle setter = this.setter;
+        if ( setter != null )
+        {
+            try
+            {
+                setter.invokeExact(componentInstance, value);
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+            return;
+        }
         try
         {
             field.set(componentInstance, value);
@@ -312,6 +331,18 @@ public class FieldHandler
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
+        final MethodHandle getter = this.getter;
+        if ( getter != null )
+        {
+            try
+            {
+                return (Object) getter.invokeExact(componentInstance);
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
         try
         {
             return field.get(componentInstance);
@@ -438,6 +469,8 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            setter = null;
+            getter = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -447,6 +480,8 @@ public class FieldHandler
         else
         {
             field = result.field;
+            setter = MethodHandleUtils.setter( result.field );
+            getter = MethodHandleUtils.getter( result.field );
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Utility methods creating method handles for the methods and fields of
+ * component classes. The handles are created once when a method or field
+ * is resolved and are invoked for every component instance, which avoids
+ * the access checks and argument boxing of reflection. <code>null</code>
+ * is returned if a handle cannot be created, in which case callers use
+ * reflection.
+ */
+public class MethodHandleUtils
+{
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class, Object[].class );
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class, Object.class );
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Returns a handle of type <code>(Object, Object[])Object</code> invoking
+     * the instance method on the first argument with the elements of the
+     * array as arguments. Methods without return value return <code>null</code>.
+     */
+    public static MethodHandle invoker(final Method method)
+    {
+        if ( Modifier.isStatic( method.getModifiers() ) )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflect( method ).asFixedArity()
+                .asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( INVOKER_TYPE );
+        }
+        catch ( final IllegalAccessException iae )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle of type <code>(Object, Object)void</code> setting the
+     * instance field of the first argument to the second one.
+     */
+    public static MethodHandle setter(final Field field)
+    {
+        if ( Modifier.isStatic( field.getModifiers() ) || Modifier.isFinal( field.getModifiers() ) )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflectSetter( field ).asType( SETTER_TYPE );
+        }
+        catch ( final IllegalAccessException iae )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle of type <code>(Object)Object</code> getting the
+     * instance field of its argument.
+     */
+    public static MethodHandle getter(final Field field)
+    {
+        if ( Modifier.isStatic( field.getModifiers() ) )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflectGetter( field ).asType( GETTER_TYPE );
+        }
+        catch ( final IllegalAccessException iae )
+        {
+            return null;
+        }
+    }
+}
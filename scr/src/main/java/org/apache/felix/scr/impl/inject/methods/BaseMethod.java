@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -30,6 +31,7 @@ import java.util.Map;
 import org.apache.felix.scr.impl.inject.BaseParameter;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.MethodHandleUtils;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.metadata.DSVersion;
 import org.osgi.service.log.LogService;
@@ -49,6 +51,9 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    // invokes m_method unless reflection must be used
+    private volatile MethodHandle m_methodHandle;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -106,6 +111,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     synchronized void setMethod(MethodInfo<T> methodInfo, ComponentLogger logger)
     {
         this.m_method = methodInfo == null ? null : methodInfo.getMethod();
+        this.m_methodHandle = m_method == null ? null : MethodHandleUtils.invoker( m_method );
 
         if (m_method != null)
         {
@@ -239,7 +245,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                     logger.log(LogService.LOG_DEBUG, "invoking {0}: {1}: parameters {2}", null, getMethodNamePrefix(),
                             getMethodName(), Arrays.asList(getParametersForLogging(params)));
                 }
-                final Object result = m_method.invoke(componentInstance, params);
+                final Object result = invoke(componentInstance, params);
                 logger.log(LogService.LOG_DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map<String, Object>) result);
@@ -277,6 +283,26 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return MethodResult.VOID;
     }
 
+    private Object invoke(final Object componentInstance, final Object[] params)
+            throws IllegalAccessException, InvocationTargetException
+    {
+        final MethodHandle methodHandle = m_methodHandle;
+        if ( methodHandle == null )
+        {
+            return m_method.invoke( componentInstance, params );
+        }
+        try
+        {
+            return (Object) methodHandle.invokeExact( componentInstance, params );
+        }
+        catch ( Throwable t )
+        {
+            // like reflection, report anything thrown by the method itself
+            // as the cause of an InvocationTargetException
+            throw new InvocationTargetException( t );
+        }
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
@@ -163,6 +163,8 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
 
     private volatile String failureReason;
 
+    private final ComponentMetrics m_metrics = new ComponentMetrics();
+
     /**
      * The constructor receives both the container and the methods.
      *
@@ -233,13 +235,16 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
 
     private void obtainLock(Lock lock)
     {
+        final long start = System.nanoTime();
         try
         {
             if (!lock.tryLock(getLockTimeout(), TimeUnit.MILLISECONDS))
             {
+                m_metrics.lockTimedOut();
                 dumpThreads();
                 throw new IllegalStateException("Could not obtain lock");
             }
+            m_metrics.getLockWait().record(start);
         }
         catch (InterruptedException e)
         {
@@ -247,9 +252,11 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
             {
                 if (!lock.tryLock(getLockTimeout(), TimeUnit.MILLISECONDS))
                 {
+                    m_metrics.lockTimedOut();
                     dumpThreads();
                     throw new IllegalStateException("Could not obtain lock");
                 }
+                m_metrics.getLockWait().record(start);
             }
             catch (InterruptedException e1)
             {
@@ -444,7 +451,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -536,7 +543,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -1078,6 +1085,11 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         return m_container.getActivator();
     }
 
+    ComponentContainer<S> getContainer()
+    {
+        return m_container;
+    }
+
     synchronized void clear()
     {
         m_container.getActivator().unregisterComponentId(this);
@@ -1391,6 +1403,12 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         return s;
     }
 
+    @Override
+    public ComponentMetrics getMetrics()
+    {
+        return m_metrics;
+    }
+
     @Override
     public String getFailureReason() {
         return this.failureReason;
@@ -1418,6 +1436,14 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
             {
                 this.failureReason = null;
             }
+            if ( newState.isSatisfied() && !previousState.isSatisfied() )
+            {
+                m_metrics.becameSatisfied();
+            }
+            else if ( newState == State.unsatisfiedReference && previousState.isSatisfied() )
+            {
+                m_metrics.becameUnsatisfied();
+            }
             m_container.getActivator().updateChangeCount();
         }
         else
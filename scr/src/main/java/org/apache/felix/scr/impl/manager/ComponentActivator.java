@@ -36,6 +36,12 @@ public interface ComponentActivator extends ExtendedServiceListenerContext<Exten
 
     void schedule(Runnable runnable);
 
+    /**
+     * Schedules the runnable to be run after the runnables previously
+     * scheduled with the same key, typically the component container.
+     */
+    void schedule(Object key, Runnable runnable);
+
     long registerComponentId(AbstractComponentManager<?> sAbstractComponentManager);
 
     void unregisterComponentId(AbstractComponentManager<?> sAbstractComponentManager);
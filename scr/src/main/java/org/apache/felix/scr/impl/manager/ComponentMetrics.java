@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>ComponentMetrics</code> collects the lifecycle counters of a
+ * component configuration. The counters are updated without locking by the
+ * threads changing the component and are read by the runtime service and
+ * the shell commands.
+ */
+public class ComponentMetrics
+{
+
+    /**
+     * Counts the invocations of an operation and the nanoseconds spent in
+     * them.
+     */
+    public static final class Timer
+    {
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Records an invocation started at the given {@link System#nanoTime()}.
+         */
+        void record(final long startNanos)
+        {
+            final long nanos = System.nanoTime() - startNanos;
+            count.incrementAndGet();
+            totalNanos.addAndGet( nanos );
+            long max = maxNanos.get();
+            while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) )
+            {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        public long getTotalNanos()
+        {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos()
+        {
+            return maxNanos.get();
+        }
+    }
+
+    private final Timer activation = new Timer();
+
+    private final Timer deactivation = new Timer();
+
+    private final Timer lockWait = new Timer();
+
+    private final AtomicLong lockTimeouts = new AtomicLong();
+
+    private final AtomicLong satisfied = new AtomicLong();
+
+    private final AtomicLong unsatisfied = new AtomicLong();
+
+    /**
+     * Creating the implementation object, binding the references and
+     * calling the activate method.
+     */
+    public Timer getActivation()
+    {
+        return activation;
+    }
+
+    /**
+     * Calling the deactivate method and unbinding the references.
+     */
+    public Timer getDeactivation()
+    {
+        return deactivation;
+    }
+
+    /**
+     * Waiting for the state and activation locks of the component.
+     */
+    public Timer getLockWait()
+    {
+        return lockWait;
+    }
+
+    public long getLockTimeouts()
+    {
+        return lockTimeouts.get();
+    }
+
+    /**
+     * The number of times the component became satisfied.
+     */
+    public long getSatisfiedCount()
+    {
+        return satisfied.get();
+    }
+
+    /**
+     * The number of times the component lost a required reference and
+     * became unsatisfied again.
+     */
+    public long getUnsatisfiedCount()
+    {
+        return unsatisfied.get();
+    }
+
+    void lockTimedOut()
+    {
+        lockTimeouts.incrementAndGet();
+    }
+
+    void becameSatisfied()
+    {
+        satisfied.incrementAndGet();
+    }
+
+    void becameUnsatisfied()
+    {
+        unsatisfied.incrementAndGet();
+    }
+}
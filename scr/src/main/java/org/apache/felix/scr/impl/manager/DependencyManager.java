@@ -79,6 +79,10 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
 
     private volatile int m_minCardinality;
 
+    private final ComponentMetrics.Timer m_bindMetrics = new ComponentMetrics.Timer();
+
+    private final ComponentMetrics.Timer m_unbindMetrics = new ComponentMetrics.Timer();
+
     /**
      * Constructor that receives several parameters.
      * @param dependency An object that contains data about the dependency
@@ -1532,6 +1536,15 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         return m_dependencyMetadata.getName();
     }
 
+    /**
+     * Returns the container of the component, which is the key of the tasks
+     * scheduled for the component.
+     */
+    public ComponentContainer<S> getContainer()
+    {
+        return m_componentManager.getContainer();
+    }
+
     public ReferenceMetadata getReferenceMetadata()
     {
         return m_dependencyMetadata;
@@ -1814,8 +1827,10 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             return false;
 
         }
+        final long start = System.nanoTime();
         MethodResult result = bindMethod.invoke(componentContext.getImplementationObject(false),
             new BindParameters(componentContext, refPair), MethodResult.VOID);
+        m_bindMetrics.record(start);
         if (result == null)
         {
             return false;
@@ -1928,8 +1943,10 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
                 return;
 
             }
+            final long start = System.nanoTime();
             MethodResult methodResult = m_bindMethods.getUnbind().invoke(
                 componentContext.getImplementationObject(false), new BindParameters(componentContext, refPair), MethodResult.VOID);
+            m_unbindMetrics.record(start);
             if (methodResult != null)
             {
                 m_componentManager.setServiceProperties(methodResult, trackingCount);
@@ -2298,6 +2315,18 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         return m_target;
     }
 
+    @Override
+    public ComponentMetrics.Timer getBindMetrics()
+    {
+        return m_bindMetrics;
+    }
+
+    @Override
+    public ComponentMetrics.Timer getUnbindMetrics()
+    {
+        return m_unbindMetrics;
+    }
+
     @Override
     public String toString()
     {
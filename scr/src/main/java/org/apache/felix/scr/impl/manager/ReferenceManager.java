@@ -46,4 +46,16 @@ public interface ReferenceManager<S, T> {
 	String getTarget();
 
     boolean isSatisfied();
+
+    /**
+     * Returns the counters of the bind method invocations, including
+     * field injection, of this reference.
+     */
+    ComponentMetrics.Timer getBindMetrics();
+
+    /**
+     * Returns the counters of the unbind method invocations of this
+     * reference.
+     */
+    ComponentMetrics.Timer getUnbindMetrics();
 }
\ No newline at end of file
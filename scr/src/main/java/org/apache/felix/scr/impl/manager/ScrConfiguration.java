@@ -70,6 +70,8 @@ public interface ScrConfiguration
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
 
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
     /**
      * Returns the current log level.
      * @return
@@ -101,4 +103,12 @@ public interface ScrConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads running asynchronous component tasks.
+     * With more than one thread, the tasks of different components may run
+     * concurrently, while the tasks of a component still run in order.
+     * @since 2.2
+     */
+    int actorThreads();
+
 }
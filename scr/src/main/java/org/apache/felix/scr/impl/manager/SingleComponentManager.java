@@ -222,8 +222,21 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
     }
 
 
-    @SuppressWarnings("unchecked")
     protected S createImplementationObject( Bundle usingBundle, SetImplementationObject<S> setter, ComponentContextImpl<S> componentContext )
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            return doCreateImplementationObject( usingBundle, setter, componentContext );
+        }
+        finally
+        {
+            getMetrics().getActivation().record( start );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private S doCreateImplementationObject( Bundle usingBundle, SetImplementationObject<S> setter, ComponentContextImpl<S> componentContext )
     {
         S implementationObject = null;
 
@@ -402,6 +415,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
 
         if ( implementationObject != null )
         {
+            final long start = System.nanoTime();
             // 1. Call the deactivate method, if present
             // don't care for the result, the error (acccording to 112.5.12 If the deactivate
             // method throws an exception, SCR must log an error message containing the
@@ -417,6 +431,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
             {
                 md.close( componentContext, componentContext.getEdgeInfo( md ) );
             }
+            getMetrics().getDeactivation().record( start );
         }
         componentContext.cleanup();
     }
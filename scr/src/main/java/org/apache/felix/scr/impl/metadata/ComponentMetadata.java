@@ -1217,6 +1217,12 @@ public class ComponentMetadata
         {
             out.writeBoolean(m_immediate.booleanValue());
         }
+        out.writeBoolean(m_persistentFactoryComponent);
+        out.writeBoolean(m_obsoleteFactoryComponentFactory != null);
+        if (m_obsoleteFactoryComponentFactory != null)
+        {
+            out.writeBoolean(m_obsoleteFactoryComponentFactory.booleanValue());
+        }
     }
 
     public static ComponentMetadata load(DataInputStream in,
@@ -1285,6 +1291,11 @@ public class ComponentMetadata
         {
             result.m_immediate = in.readBoolean();
         }
+        result.m_persistentFactoryComponent = in.readBoolean();
+        if (in.readBoolean())
+        {
+            result.m_obsoleteFactoryComponentFactory = in.readBoolean();
+        }
         // we only store valid metadata
         result.m_validated = true;
         return result;
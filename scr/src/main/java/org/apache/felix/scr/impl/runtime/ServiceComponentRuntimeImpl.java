@@ -30,9 +30,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.scr.impl.ComponentRegistry;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ComponentManager;
+import org.apache.felix.scr.impl.manager.ComponentMetrics;
 import org.apache.felix.scr.impl.manager.ReferenceManager;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.info.ComponentConfigurationMetricsDTO;
 import org.osgi.dto.DTO;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -211,7 +213,7 @@ public class ServiceComponentRuntimeImpl implements ServiceComponentRuntime, Ser
 
     private ComponentConfigurationDTO managerToConfiguration(final ComponentManager<?> manager, final ComponentDescriptionDTO description)
     {
-        final ComponentConfigurationDTO dto = new ComponentConfigurationDTO();
+        final ComponentConfigurationMetricsDTO dto = new ComponentConfigurationMetricsDTO();
         dto.satisfiedReferences = satisfiedRefManagersToDTO(manager.getReferenceManagers());
         dto.unsatisfiedReferences = unsatisfiedRefManagersToDTO(manager.getReferenceManagers());
         dto.description = description;
@@ -229,9 +231,32 @@ public class ServiceComponentRuntimeImpl implements ServiceComponentRuntime, Ser
             dto.state = ComponentConfigurationDTO.FAILED_ACTIVATION;
             dto.failure = manager.getFailureReason();
         }
+        metricsToDTO(manager, dto);
         return dto;
     }
 
+    private void metricsToDTO(final ComponentManager<?> manager, final ComponentConfigurationMetricsDTO dto)
+    {
+        final ComponentMetrics metrics = manager.getMetrics();
+        dto.activationCount = metrics.getActivation().getCount();
+        dto.activationTime = metrics.getActivation().getTotalNanos();
+        dto.maxActivationTime = metrics.getActivation().getMaxNanos();
+        dto.deactivationCount = metrics.getDeactivation().getCount();
+        dto.deactivationTime = metrics.getDeactivation().getTotalNanos();
+        dto.lockWaitTime = metrics.getLockWait().getTotalNanos();
+        dto.maxLockWaitTime = metrics.getLockWait().getMaxNanos();
+        dto.lockTimeoutCount = metrics.getLockTimeouts();
+        dto.satisfiedCount = metrics.getSatisfiedCount();
+        dto.unsatisfiedCount = metrics.getUnsatisfiedCount();
+        for (ReferenceManager<?, ?> ref: manager.getReferenceManagers())
+        {
+            dto.bindCount += ref.getBindMetrics().getCount();
+            dto.bindTime += ref.getBindMetrics().getTotalNanos();
+            dto.unbindCount += ref.getUnbindMetrics().getCount();
+            dto.unbindTime += ref.getUnbindMetrics().getTotalNanos();
+        }
+    }
+
     private SatisfiedReferenceDTO[] satisfiedRefManagersToDTO(List<? extends ReferenceManager<?, ?>> referenceManagers)
     {
         List<SatisfiedReferenceDTO> dtos = new ArrayList<>();
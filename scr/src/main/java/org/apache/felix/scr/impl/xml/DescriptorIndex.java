@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+
+/**
+ * The <code>DescriptorIndex</code> reads and writes the precompiled component
+ * descriptor index of a bundle. The index is generated at build time from the
+ * component descriptors listed in the <code>Service-Component</code> header
+ * and contains the validated component metadata in the format of the
+ * component metadata cache. If the index is present and matches the header,
+ * the components are loaded from the index instead of parsing the XML
+ * descriptors.
+ * <p>
+ * The index is generated with the default settings of the Felix specific
+ * factory component and keep instances extensions. It is ignored if any
+ * of these is enabled.
+ */
+public class DescriptorIndex
+{
+
+    /**
+     * The bundle entry of the descriptor index.
+     */
+    public static final String ENTRY = "OSGI-INF/components.index";
+
+    /**
+     * Parses the given component descriptors, validates the components and
+     * returns the index of the components. The descriptors and the entries
+     * they refer to are resolved against the given root.
+     * <p>
+     * This method is called reflectively by the build tooling and therefore
+     * only uses JDK types in its signature.
+     *
+     * @param header The value of the <code>Service-Component</code> header
+     * @param descriptors The paths of the descriptors relative to the root
+     * @param root The root of the bundle contents
+     * @return The descriptor index
+     * @throws Exception if a descriptor cannot be read or parsed or if a
+     *      component is invalid
+     */
+    public static byte[] generate( final String header, final String[] descriptors, final URL root ) throws Exception
+    {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware( true );
+
+        final List<ComponentMetadata> components = new ArrayList<>();
+        for ( String descriptor : descriptors )
+        {
+            final URL descriptorURL = new URL( root, descriptor.startsWith( "/" ) ? descriptor.substring( 1 ) : descriptor );
+            final XmlHandler handler = new XmlHandler( root, false, false );
+            final SAXParser parser = factory.newSAXParser();
+            try ( InputStream stream = descriptorURL.openStream() )
+            {
+                parser.parse( stream, handler );
+            }
+            components.addAll( handler.getComponentMetadataList() );
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write( header, components, out );
+        return out.toByteArray();
+    }
+
+    /**
+     * Validates the components and writes the index to the output stream.
+     *
+     * @throws org.osgi.service.component.ComponentException if a component
+     *      is invalid
+     */
+    public static void write( final String header, final List<ComponentMetadata> components, final OutputStream stream )
+        throws IOException
+    {
+        final Set<String> strings = new HashSet<>();
+        for ( ComponentMetadata component : components )
+        {
+            component.validate();
+            component.collectStrings( strings );
+        }
+        // remove possible null
+        strings.remove( null );
+
+        final DataOutputStream out = new DataOutputStream( stream );
+        final MetaDataWriter metaDataWriter = new MetaDataWriter();
+        metaDataWriter.writeVersion( out );
+        metaDataWriter.writeString( header, out );
+        out.writeInt( strings.size() );
+        for ( String s : strings )
+        {
+            metaDataWriter.writeIndexedString( s, out );
+        }
+        out.writeInt( components.size() );
+        for ( ComponentMetadata component : components )
+        {
+            component.store( out, metaDataWriter );
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the components from the index.
+     *
+     * @param header The value of the <code>Service-Component</code> header
+     *      of the bundle
+     * @return The validated components or <code>null</code> if the index
+     *      has been written by another version or for other descriptors
+     */
+    public static List<ComponentMetadata> read( final String header, final InputStream stream ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream( stream );
+        final MetaDataReader metaDataReader = new MetaDataReader();
+        if ( !metaDataReader.isVersionSupported( in ) )
+        {
+            return null;
+        }
+        if ( !descriptors( header ).equals( descriptors( metaDataReader.readString( in ) ) ) )
+        {
+            return null;
+        }
+        final int numStrings = in.readInt();
+        for ( int i = 0; i < numStrings; i++ )
+        {
+            metaDataReader.readIndexedString( in );
+        }
+        final int numComponents = in.readInt();
+        final List<ComponentMetadata> components = new ArrayList<>( numComponents );
+        for ( int i = 0; i < numComponents; i++ )
+        {
+            components.add( ComponentMetadata.load( in, metaDataReader ) );
+        }
+        return components;
+    }
+
+    // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
+    private static Set<String> descriptors( final String header )
+    {
+        final Set<String> descriptors = new HashSet<>();
+        if ( header != null )
+        {
+            final StringTokenizer st = new StringTokenizer( header, ", " );
+            while ( st.hasMoreTokens() )
+            {
+                descriptors.add( st.nextToken() );
+            }
+        }
+        return descriptors;
+    }
+}
@@ -46,6 +46,9 @@ public class XmlHandler extends DefaultHandler
     // the bundle containing the XML resource being parsed
     private final Bundle m_bundle;
 
+    // the root the entries are resolved against if there is no bundle
+    private final URL m_root;
+
     // logger for any messages
     private final BundleLogger m_logger;
 
@@ -84,11 +87,24 @@ public class XmlHandler extends DefaultHandler
     public XmlHandler( Bundle bundle, BundleLogger logger, boolean globalObsoleteFactoryComponentFactory, boolean globalDelayedKeepInstances )
     {
         m_bundle = bundle;
+        m_root = null;
         m_logger = logger;
         m_globalObsoleteFactoryComponentFactory = globalObsoleteFactoryComponentFactory;
         m_globalDelayedKeepInstances = globalDelayedKeepInstances;
     }
 
+    // creates an instance parsing component descriptor files outside of a
+    // framework, e.g. at build time, resolving the entries of the bundle
+    // against the given root; nothing is logged
+    public XmlHandler( URL root, boolean globalObsoleteFactoryComponentFactory, boolean globalDelayedKeepInstances )
+    {
+        m_bundle = null;
+        m_root = root;
+        m_logger = null;
+        m_globalObsoleteFactoryComponentFactory = globalObsoleteFactoryComponentFactory;
+        m_globalDelayedKeepInstances = globalDelayedKeepInstances;
+    }
+
 
     /**
      * Called to retrieve the service descriptors
@@ -237,9 +253,8 @@ public class XmlHandler extends DefaultHandler
                 // not inside a component element, ignore current element
                 else if ( !this.isComponent )
                 {
-                    m_logger.log( LogService.LOG_DEBUG,
-                            "Not currently parsing a component; ignoring element {0} (bundle {1})", null,
-                                    localName, m_bundle.getLocation() );
+                    log( "Not currently parsing a component; ignoring element {0} (bundle {1})",
+                                    localName, getLocation() );
                 }
 
                 // 112.4.4 Implementation
@@ -419,8 +434,8 @@ public class XmlHandler extends DefaultHandler
                 // used by the Maven SCR Plugin, which is just silently ignored)
                 else if ( !localName.equals( XmlConstants.EL_COMPONENTS ) )
                 {
-                    m_logger.log( LogService.LOG_DEBUG, "Ignoring unsupported element {0} (bundle {1})", null,
-                            localName, m_bundle.getLocation() );
+                    log( "Ignoring unsupported element {0} (bundle {1})",
+                            localName, getLocation() );
                 }
             }
             catch ( Exception ex )
@@ -433,8 +448,8 @@ public class XmlHandler extends DefaultHandler
         // used by the Maven SCR Plugin, which is just silently ignored)
         else if ( !localName.equals( XmlConstants.EL_COMPONENTS ) )
         {
-            m_logger.log( LogService.LOG_DEBUG, "Ignoring unsupported element '{'{0}'}'{1} (bundle {2})", null,
-                    uri, localName, m_bundle.getLocation()  );
+            log( "Ignoring unsupported element '{'{0}'}'{1} (bundle {2})",
+                    uri, localName, getLocation()  );
         }
     }
 
@@ -517,7 +532,7 @@ public class XmlHandler extends DefaultHandler
             throw new SAXException( "Missing entry attribute of properties element", null );
         }
 
-        URL entryURL = m_bundle.getEntry( entryName );
+        URL entryURL = getEntry( entryName );
         if ( entryURL == null )
         {
             throw new SAXException( "Missing bundle entry " + entryName, null );
@@ -551,4 +566,39 @@ public class XmlHandler extends DefaultHandler
 
         return props;
     }
+
+
+    private URL getEntry( final String entryName )
+    {
+        if ( m_bundle != null )
+        {
+            return m_bundle.getEntry( entryName );
+        }
+        try
+        {
+            URL entryURL = new URL( m_root, entryName.startsWith( "/" ) ? entryName.substring( 1 ) : entryName );
+            // only return existing entries like Bundle.getEntry
+            entryURL.openStream().close();
+            return entryURL;
+        }
+        catch ( IOException ioe )
+        {
+            return null;
+        }
+    }
+
+
+    private String getLocation()
+    {
+        return m_bundle != null ? m_bundle.getLocation() : String.valueOf( m_root );
+    }
+
+
+    private void log( final String pattern, final Object... arguments )
+    {
+        if ( m_logger != null )
+        {
+            m_logger.log( LogService.LOG_DEBUG, pattern, null, arguments );
+        }
+    }
 }
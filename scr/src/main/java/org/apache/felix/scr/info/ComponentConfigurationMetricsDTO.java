@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.info;
+
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+
+/**
+ * A {@link ComponentConfigurationDTO} carrying the lifecycle counters of the
+ * component configuration. The component configuration DTOs returned by the
+ * Apache Felix implementation of the <code>ServiceComponentRuntime</code>
+ * service are instances of this class.
+ * <p>
+ * The counters are collected since the component configuration was created.
+ * All times are in nanoseconds.
+ */
+public class ComponentConfigurationMetricsDTO extends ComponentConfigurationDTO
+{
+
+    /**
+     * The number of times the implementation object was created, the
+     * references bound and the activate method called.
+     */
+    public long activationCount;
+
+    /**
+     * The total time spent activating the component configuration.
+     */
+    public long activationTime;
+
+    /**
+     * The longest time spent activating the component configuration.
+     */
+    public long maxActivationTime;
+
+    /**
+     * The number of times the deactivate method was called and the
+     * references unbound.
+     */
+    public long deactivationCount;
+
+    /**
+     * The total time spent deactivating the component configuration.
+     */
+    public long deactivationTime;
+
+    /**
+     * The number of bind method invocations and field injections of all
+     * references.
+     */
+    public long bindCount;
+
+    /**
+     * The total time spent binding services.
+     */
+    public long bindTime;
+
+    /**
+     * The number of unbind method invocations of all references.
+     */
+    public long unbindCount;
+
+    /**
+     * The total time spent unbinding services.
+     */
+    public long unbindTime;
+
+    /**
+     * The total time spent waiting for the locks of the component
+     * configuration.
+     */
+    public long lockWaitTime;
+
+    /**
+     * The longest time spent waiting for a lock of the component
+     * configuration.
+     */
+    public long maxLockWaitTime;
+
+    /**
+     * The number of times a lock could not be obtained within the lock
+     * timeout.
+     */
+    public long lockTimeoutCount;
+
+    /**
+     * The number of times the component configuration became satisfied.
+     */
+    public long satisfiedCount;
+
+    /**
+     * The number of times the component configuration became unsatisfied
+     * because a reference was no longer satisfied.
+     */
+    public long unsatisfiedCount;
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+
+import junit.framework.TestCase;
+
+public class ComponentActorThreadTest extends TestCase
+{
+
+    public void test_singleThread() throws Exception
+    {
+        ComponentActorThread actor = new ComponentActorThread( new MockScrLogger() );
+        actor.start();
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            final int n = i;
+            actor.schedule( i % 2 == 0 ? "a" : "b", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    order.add( n );
+                }
+            } );
+        }
+        actor.terminate();
+        assertEquals( 10, order.size() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( i, order.get( i ).intValue() );
+        }
+        assertEquals( 10, actor.getCompletedTaskCount() );
+        assertEquals( 0, actor.getQueueDepth() );
+    }
+
+    public void test_pool_keepsOrderPerKey() throws Exception
+    {
+        ComponentActorThread actor = new ComponentActorThread( new MockScrLogger(), 4 );
+        actor.start();
+        final List<Integer> a = Collections.synchronizedList( new ArrayList<Integer>() );
+        final List<Integer> b = Collections.synchronizedList( new ArrayList<Integer>() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            final int n = i;
+            actor.schedule( "a", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    a.add( n );
+                }
+            } );
+            actor.schedule( "b", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    b.add( n );
+                }
+            } );
+        }
+        actor.terminate();
+        assertEquals( 100, a.size() );
+        assertEquals( 100, b.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i, a.get( i ).intValue() );
+            assertEquals( i, b.get( i ).intValue() );
+        }
+        assertEquals( 200, actor.getCompletedTaskCount() );
+        assertEquals( 0, actor.getQueueDepth() );
+        assertTrue( actor.getMaxWaitNanos() <= actor.getTotalWaitNanos() );
+    }
+
+    public void test_pool_runsKeysConcurrently() throws Exception
+    {
+        ComponentActorThread actor = new ComponentActorThread( new MockScrLogger(), 2 );
+        actor.start();
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch blocked = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        actor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    blocked.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        actor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // queued behind the blocked task
+            }
+        } );
+        actor.schedule( "b", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                done.countDown();
+            }
+        } );
+        // the task of the other component is not held up by the blocked one
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 1, actor.getQueueDepth() );
+        blocked.countDown();
+        actor.terminate();
+        assertEquals( 3, actor.getCompletedTaskCount() );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+import junit.framework.TestCase;
+
+public class FilterIndexTest extends TestCase
+{
+
+    public void test_equalityTerm()
+    {
+        assertTerm( "name", "foo", "(name=foo)" );
+        assertTerm( "name", "foo", "(&(name=foo)(service.ranking>=1))" );
+        assertTerm( "name", "foo", "(&(objectClass=Foo)(|(a=b)(c=d))(name=foo))" );
+        assertTerm( "objectClass", "Foo", "(&(objectClass=Foo)(a>=1))" );
+        assertNull( FilterIndex.equalityTerm( "(name=fo*)" ) );
+        assertNull( FilterIndex.equalityTerm( "(name=*)" ) );
+        assertNull( FilterIndex.equalityTerm( "(name=f\\(o\\))" ) );
+        assertNull( FilterIndex.equalityTerm( "(name~=foo)" ) );
+        assertNull( FilterIndex.equalityTerm( "(name<=foo)" ) );
+        assertNull( FilterIndex.equalityTerm( "(|(name=foo)(name=bar))" ) );
+        assertNull( FilterIndex.equalityTerm( "(!(name=foo))" ) );
+        assertNull( FilterIndex.equalityTerm( "(&(a>=1)(!(name=foo)))" ) );
+    }
+
+    public void test_candidates() throws Exception
+    {
+        Map<Filter, String> filters = new LinkedHashMap<>();
+        filters.put( null, "all" );
+        filters.put( FrameworkUtil.createFilter( "(name=foo)" ), "foo" );
+        filters.put( FrameworkUtil.createFilter( "(&(name=bar)(service.ranking>=1))" ), "bar" );
+        filters.put( FrameworkUtil.createFilter( "(name=ba*)" ), "prefix" );
+        filters.put( FrameworkUtil.createFilter( "(port=8080)" ), "port" );
+        FilterIndex<String> index = new FilterIndex<>( filters );
+
+        assertEquals( 5, index.all().size() );
+        assertCandidates( index, reference( "name", "foo" ), "all", "prefix", "foo" );
+        assertCandidates( index, reference( "name", "bar" ), "all", "prefix", "bar" );
+        assertCandidates( index, reference( "name", "baz" ), "all", "prefix" );
+        assertCandidates( index, reference( "other", "foo" ), "all", "prefix" );
+        assertCandidates( index, reference( "name", new String[] { "foo", "bar", "foo" } ), "all", "prefix", "foo", "bar" );
+        assertCandidates( index, reference( "name", Arrays.asList( "bar" ) ), "all", "prefix", "bar" );
+        // numbers are compared as numbers, so all filters on the property are candidates
+        assertCandidates( index, reference( "port", 8080 ), "all", "prefix", "port" );
+    }
+
+    private static void assertTerm(String name, String value, String filter)
+    {
+        String[] term = FilterIndex.equalityTerm( filter );
+        assertNotNull( filter, term );
+        assertEquals( name, term[0] );
+        assertEquals( value, term[1] );
+    }
+
+    private static void assertCandidates(FilterIndex<String> index, ServiceReference<?> ref, String... expected)
+    {
+        Collection<Map.Entry<Filter, String>> candidates = index.candidates( ref );
+        assertEquals( expected.length, candidates.size() );
+        for ( Map.Entry<Filter, String> entry : candidates )
+        {
+            assertTrue( entry.getValue(), Arrays.asList( expected ).contains( entry.getValue() ) );
+        }
+    }
+
+    private static ServiceReference<?> reference(String name, Object value)
+    {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put( name, value );
+        ServiceReference<?> ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getProperty( Mockito.anyString() ) ).thenAnswer( new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return properties.get( invocation.getArguments()[0] );
+            }
+        } );
+        Mockito.when( ref.getPropertyKeys() ).thenReturn( properties.keySet().toArray( new String[0] ) );
+        return ref;
+    }
+}
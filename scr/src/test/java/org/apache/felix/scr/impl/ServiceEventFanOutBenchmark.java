@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.BundleComponentActivator.ListenerInfo;
+import org.apache.felix.scr.impl.manager.ExtendedServiceEvent;
+import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures how many service registrations and unregistrations the service
+ * listener of a bundle dispatches per second to its references as the
+ * number of references targeting the same service interface grows. Run
+ * with <code>java ... ServiceEventFanOutBenchmark [references...]</code>.
+ */
+public class ServiceEventFanOutBenchmark
+{
+
+    private static final int EVENTS = 20000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] counts = { 10, 100, 1000 };
+        if ( args.length > 0 )
+        {
+            counts = new int[args.length];
+            for ( int i = 0; i < args.length; i++ )
+            {
+                counts[i] = Integer.parseInt( args[i] );
+            }
+        }
+
+        System.out.println( "references\tregistrations/sec" );
+        for ( int references : counts )
+        {
+            // Warm up before measuring.
+            run( references );
+            System.out.println( references + "\t" + run( references ) );
+        }
+    }
+
+    private static long run(final int references) throws Exception
+    {
+        final ListenerInfo listenerInfo = new ListenerInfo();
+        final AtomicInteger[] counts = new AtomicInteger[references];
+        for ( int i = 0; i < references; i++ )
+        {
+            final AtomicInteger count = counts[i] = new AtomicInteger();
+            listenerInfo.add( FrameworkUtil.createFilter( "(&(name=service" + i + ")(!(service.ranking<0)))" ),
+                new ExtendedServiceListener<ExtendedServiceEvent>()
+                {
+                    @Override
+                    public void serviceChanged(ExtendedServiceEvent event)
+                    {
+                        count.incrementAndGet();
+                    }
+                } );
+        }
+        final ServiceReference<?>[] refs = new ServiceReference<?>[references];
+        for ( int i = 0; i < references; i++ )
+        {
+            refs[i] = reference( "service" + i );
+        }
+
+        long time = System.nanoTime();
+        for ( int i = 0; i < EVENTS; i++ )
+        {
+            ServiceReference<?> ref = refs[i % references];
+            listenerInfo.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+            listenerInfo.serviceChanged( new ServiceEvent( ServiceEvent.UNREGISTERING, ref ) );
+        }
+        time = System.nanoTime() - time;
+
+        // every reference only receives the events of its own service
+        for ( AtomicInteger count : counts )
+        {
+            if ( count.get() != 2 * EVENTS / references )
+            {
+                throw new IllegalStateException( "Expected " + ( 2 * EVENTS / references ) + " events but got "
+                    + count.get() );
+            }
+        }
+        return EVENTS * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, time );
+    }
+
+    private static ServiceReference<?> reference(final String name)
+    {
+        return (ServiceReference<?>) Proxy.newProxyInstance( ServiceEventFanOutBenchmark.class.getClassLoader(),
+            new Class[] { ServiceReference.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ( method.getName().equals( "getProperty" ) )
+                    {
+                        return "name".equals( args[0] ) ? name : null;
+                    }
+                    else if ( method.getName().equals( "getPropertyKeys" ) )
+                    {
+                        return new String[] { "name" };
+                    }
+                    else if ( method.getName().equals( "hashCode" ) )
+                    {
+                        return System.identityHashCode( proxy );
+                    }
+                    else if ( method.getName().equals( "equals" ) )
+                    {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            } );
+    }
+}
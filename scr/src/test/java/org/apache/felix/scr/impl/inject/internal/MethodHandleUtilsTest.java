@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+public class MethodHandleUtilsTest extends TestCase
+{
+
+    public void test_invoker() throws Throwable
+    {
+        Component component = new Component();
+        Method method = Component.class.getDeclaredMethod( "bind", String.class, int.class );
+        method.setAccessible( true );
+        MethodHandle invoker = MethodHandleUtils.invoker( method );
+        assertNotNull( invoker );
+        assertNull( (Object) invoker.invokeExact( (Object) component, new Object[] { "foo", 2 } ) );
+        assertEquals( "foofoo", component.value );
+
+        method = Component.class.getDeclaredMethod( "activate" );
+        method.setAccessible( true );
+        assertEquals( "foofoo", (Object) MethodHandleUtils.invoker( method ).invokeExact( (Object) component, new Object[0] ) );
+
+        method = Component.class.getDeclaredMethod( "fail" );
+        method.setAccessible( true );
+        try
+        {
+            Object result = (Object) MethodHandleUtils.invoker( method ).invokeExact( (Object) component, new Object[0] );
+            fail( "Expected IllegalStateException, got " + result );
+        }
+        catch ( IllegalStateException ise )
+        {
+            // the exception of the method is not wrapped
+        }
+
+        assertNull( MethodHandleUtils.invoker( Component.class.getDeclaredMethod( "create" ) ) );
+    }
+
+    public void test_field() throws Throwable
+    {
+        Component component = new Component();
+        Field field = Component.class.getDeclaredField( "value" );
+        field.setAccessible( true );
+        MethodHandle setter = MethodHandleUtils.setter( field );
+        MethodHandle getter = MethodHandleUtils.getter( field );
+        setter.invokeExact( (Object) component, (Object) "bar" );
+        assertEquals( "bar", component.value );
+        assertEquals( "bar", (Object) getter.invokeExact( (Object) component ) );
+
+        field = Component.class.getDeclaredField( "constant" );
+        field.setAccessible( true );
+        assertNull( MethodHandleUtils.setter( field ) );
+        assertNotNull( MethodHandleUtils.getter( field ) );
+    }
+
+    @SuppressWarnings("unused")
+    private static class Component
+    {
+        private String value;
+
+        private final String constant = "constant";
+
+        private void bind(String value, int count)
+        {
+            StringBuilder sb = new StringBuilder();
+            for ( int i = 0; i < count; i++ )
+            {
+                sb.append( value );
+            }
+            this.value = sb.toString();
+        }
+
+        private Object activate()
+        {
+            return value;
+        }
+
+        private void fail()
+        {
+            throw new IllegalStateException();
+        }
+
+        private static Component create()
+        {
+            return new Component();
+        }
+    }
+}
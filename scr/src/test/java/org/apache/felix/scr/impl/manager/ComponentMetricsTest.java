@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ComponentMetricsTest extends TestCase
+{
+
+    public void test_timer() throws Exception
+    {
+        ComponentMetrics.Timer timer = new ComponentMetrics.Timer();
+        assertEquals( 0, timer.getCount() );
+        assertEquals( 0, timer.getTotalNanos() );
+
+        timer.record( System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        timer.record( System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( 1 ) );
+        assertEquals( 2, timer.getCount() );
+        assertTrue( timer.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        assertTrue( timer.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos( 6 ) );
+        assertTrue( timer.getMaxNanos() < timer.getTotalNanos() );
+    }
+
+    public void test_counters() throws Exception
+    {
+        ComponentMetrics metrics = new ComponentMetrics();
+        metrics.becameSatisfied();
+        metrics.becameUnsatisfied();
+        metrics.becameSatisfied();
+        metrics.lockTimedOut();
+        assertEquals( 2, metrics.getSatisfiedCount() );
+        assertEquals( 1, metrics.getUnsatisfiedCount() );
+        assertEquals( 1, metrics.getLockTimeouts() );
+        assertEquals( 0, metrics.getActivation().getCount() );
+    }
+}
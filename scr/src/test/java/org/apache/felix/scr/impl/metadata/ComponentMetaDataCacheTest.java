@@ -116,6 +116,11 @@ public class ComponentMetaDataCacheTest extends ComponentBase
         assertEquals("Number of Init parameters not equal",
             actualCM.getNumberOfConstructorParameters(),
             cachedCM.getNumberOfConstructorParameters());
+        assertEquals("Persistent factory component flag not equal",
+            actualCM.isPersistentFactoryComponent(), cachedCM.isPersistentFactoryComponent());
+        assertEquals("Obsolete factory component factory flag not equal",
+            actualCM.isObsoleteFactoryComponentFactory(),
+            cachedCM.isObsoleteFactoryComponentFactory());
         checkServiceMetadata(actualCM, cachedCM);
 
         checkReferenceMetadata(actualCM, cachedCM);
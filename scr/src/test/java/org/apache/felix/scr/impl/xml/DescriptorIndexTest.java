@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.xml;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.osgi.service.component.ComponentException;
+
+import junit.framework.TestCase;
+
+public class DescriptorIndexTest extends TestCase
+{
+
+    private static final String HEADER = "components_14.xml, integration_test_persistent_factory_components.xml";
+
+    public void test_generate() throws Exception
+    {
+        final byte[] index = DescriptorIndex.generate( HEADER, new String[] { "components_14.xml",
+            "/integration_test_persistent_factory_components.xml" }, root() );
+
+        // the order of the descriptors in the header does not matter
+        final List<ComponentMetadata> components = DescriptorIndex.read(
+            "integration_test_persistent_factory_components.xml,components_14.xml", new ByteArrayInputStream( index ) );
+        assertNotNull( components );
+        assertTrue( components.size() > 1 );
+
+        final ComponentMetadata cm14 = components.get( 0 );
+        assertEquals( DSVersion.DS14, cm14.getDSVersion() );
+        assertEquals( "components.14.factory", cm14.getFactoryIdentifier() );
+        // the factory-properties entry is resolved against the root
+        assertEquals( "Factory property", cm14.getFactoryProperties().get( "factory.property" ) );
+
+        final ComponentMetadata persistent = components.get( 1 );
+        assertEquals( "factory.component", persistent.getName() );
+        assertTrue( persistent.isPersistentFactoryComponent() );
+    }
+
+    public void test_read_otherDescriptors() throws Exception
+    {
+        final byte[] index = DescriptorIndex.generate( "components_14.xml", new String[] { "components_14.xml" },
+            root() );
+        assertNull( DescriptorIndex.read( HEADER, new ByteArrayInputStream( index ) ) );
+        assertNotNull( DescriptorIndex.read( " components_14.xml ", new ByteArrayInputStream( index ) ) );
+    }
+
+    public void test_generate_invalid() throws Exception
+    {
+        try
+        {
+            // factory components cannot be immediate
+            DescriptorIndex.generate( "components_all_elements_10.xml",
+                new String[] { "components_all_elements_10.xml" }, root() );
+            fail( "Expected ComponentException for invalid component" );
+        }
+        catch ( ComponentException ce )
+        {
+            // expected
+        }
+    }
+
+    private URL root()
+    {
+        return getClass().getResource( "/" );
+    }
+}
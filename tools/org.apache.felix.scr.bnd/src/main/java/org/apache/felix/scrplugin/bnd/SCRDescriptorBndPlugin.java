@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
@@ -90,6 +91,17 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
      */
     private static final String LOGTOFILE = "logToFile";
 
+	/**
+	 * "generateIndex" parameter, optionally provided in the "-plugin"
+	 * directive.
+	 */
+	private static final String GENERATE_INDEX = "generateIndex";
+
+	/**
+	 * The class of the SCR runtime generating the component descriptor index.
+	 */
+	private static final String DESCRIPTOR_INDEX = "org.apache.felix.scr.impl.xml.DescriptorIndex";
+
 	/**
 	 * The name of the directory where the descriptor files are generated into.
 	 */
@@ -110,6 +122,13 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 	 */
 	private boolean strictMode = false;
 
+	/**
+	 * This flag controls the generation of the precompiled component
+	 * descriptor index, which requires the Apache Felix SCR runtime on the
+	 * classpath.
+	 */
+	private boolean generateIndex = false;
+
 	/**
 	 * The version of the DS spec this plugin generates a descriptor for. By
 	 * default the version is detected by the used tags.
@@ -190,6 +209,10 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 				}
 				sb.setLength(sb.length() - 1);
 				addServiceComponentHeader(analyzer, sb.toString());
+
+				if (generateIndex) {
+					putIndex(analyzer, scrFiles, project.getClassLoader());
+				}
 			}
 
 			// Embed metatype descriptors in target jar
@@ -239,6 +262,42 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
         }
 	}
 
+	/**
+	 * Embeds the precompiled component descriptor index, which lets the
+	 * Apache Felix SCR runtime load the components without parsing the
+	 * descriptors. The index is generated by the runtime, which is loaded
+	 * from the classpath of the bundle.
+	 */
+	private void putIndex(Analyzer analyzer, List<String> scrFiles, ClassLoader loader) throws Exception {
+		String header = analyzer.getProperty("Service-Component");
+		Set<String> descriptorsSet = new HashSet<String>();
+		parseComponents(descriptorsSet, header);
+		if (!scrFiles.containsAll(descriptorsSet)) {
+			log.warn("Not generating component descriptor index, the Service-Component header contains descriptors not generated by this plugin: " + header);
+			return;
+		}
+
+		final Class<?> index;
+		try {
+			index = loader.loadClass(DESCRIPTOR_INDEX);
+		} catch (ClassNotFoundException cnfe) {
+			log.warn("Not generating component descriptor index, " + DESCRIPTOR_INDEX + " not found on the classpath");
+			return;
+		}
+
+		String entry = (String) index.getField("ENTRY").get(null);
+		byte[] data;
+		try {
+			data = (byte[]) index.getMethod("generate", String.class, String[].class, URL.class).invoke(null,
+					header, scrFiles.toArray(new String[scrFiles.size()]), destDir.toURI().toURL());
+		} catch (InvocationTargetException ite) {
+			log.error("Could not generate component descriptor index", ite.getCause());
+			return;
+		}
+		log.info("Component descriptor index file: " + entry);
+		analyzer.getJar().putResource(entry, new EmbeddedResource(data, 0));
+	}
+
 	private void init(Analyzer analyzer) {
 		this.log.setLevel(parseOption(properties, LOGLEVEL,
 				BndLog.Level.Warn.toString()));
@@ -253,6 +312,7 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 		generateAccessor = parseOption(properties, GENERATE_ACCESSOR,
 				generateAccessor);
 		strictMode = parseOption(properties, STRICT_MODE, strictMode);
+		generateIndex = parseOption(properties, GENERATE_INDEX, generateIndex);
 		String version = parseOption(properties, SPECVERSION, null);
 		specVersion = SpecVersion.fromName(version);
 		if (version != null && specVersion == null) {
@@ -263,6 +323,7 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 		if (log.isInfoEnabled()) {
 			log.info("Initialized Bnd ScrPlugin: destDir=" + destDir
 					+ ", strictMode=" + strictMode
+					+ ", generateIndex=" + generateIndex
 					+ ", specVersion=" + specVersion);
 		}
 	}